@@ -0,0 +1,76 @@
+package com.carsaver.codereview.benchmarks;
+
+import com.carsaver.codereview.CodeReviewApplication;
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.repository.UserRepository;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The application without its web server, on a fresh in-memory H2 database seeded with a given number of users.
+ * Background work that would compete with the benchmark threads, such as the outbox poller and the email filter
+ * rebuild, is pushed out of the measurement.
+ */
+final class SeededApplication implements AutoCloseable {
+    private static final int SEED_CHUNK_SIZE = 1000;
+
+    private final ConfigurableApplicationContext context;
+
+    private SeededApplication(ConfigurableApplicationContext context) {
+        this.context = context;
+    }
+
+    static SeededApplication start(int users) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(CodeReviewApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.datasource.url=jdbc:h2:mem:benchmark-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1",
+                        "spring.h2.console.enabled=false",
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=WARN",
+                        "codereview.email.outbox.poll-interval-ms=3600000",
+                        "codereview.users.email-filter.rebuild-interval-ms=3600000")
+                .run();
+        SeededApplication application = new SeededApplication(context);
+        application.seed(users);
+        return application;
+    }
+
+    <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    private void seed(int users) {
+        UserRepository repository = getBean(UserRepository.class);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(getBean(PlatformTransactionManager.class));
+        for (int from = 0; from < users; from += SEED_CHUNK_SIZE) {
+            List<User> chunk = new ArrayList<>();
+            for (int i = from; i < Math.min(users, from + SEED_CHUNK_SIZE); i++) {
+                chunk.add(user("seed" + i));
+            }
+            transactionTemplate.executeWithoutResult(status -> repository.saveAll(chunk));
+        }
+    }
+
+    static User user(String name) {
+        User user = new User();
+        user.setFirstName(name);
+        user.setLastName("Benchmark");
+        user.setEmail(name + "@benchmark.com");
+        user.setEnabled(true);
+        user.setCity("Franklin");
+        user.setZipCode("37067");
+        return user;
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
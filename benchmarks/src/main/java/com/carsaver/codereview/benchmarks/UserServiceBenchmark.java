@@ -0,0 +1,108 @@
+package com.carsaver.codereview.benchmarks;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserName;
+import com.carsaver.codereview.repository.UserRepository;
+import com.carsaver.codereview.service.UserService;
+import com.carsaver.codereview.service.ZipCodeLookupService;
+import com.carsaver.codereview.web.UserController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * User service and controller calls against an in-memory H2 database seeded with {@link #users} users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServiceBenchmark {
+    // zip code whose city is looked up once during setup, so the measured lookups are cache hits
+    private static final String WARM_ZIP_CODE = "37064";
+
+    @Param({"1000", "10000", "100000"})
+    public int users;
+
+    private SeededApplication application;
+
+    private UserService userService;
+
+    private UserController userController;
+
+    private List<Long> userIds;
+
+    private final AtomicLong createdUsers = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        application = SeededApplication.start(users);
+        userService = application.getBean(UserService.class);
+        userController = application.getBean(UserController.class);
+        userIds = application.getBean(UserRepository.class).findAllNames().stream()
+                .map(UserName::getId)
+                .collect(Collectors.toList());
+        application.getBean(ZipCodeLookupService.class).lookupCityByZip(WARM_ZIP_CODE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        application.close();
+    }
+
+    @Benchmark
+    public User createUser() throws Exception {
+        return userService.createUser(SeededApplication.user("created" + createdUsers.incrementAndGet()));
+    }
+
+    @Benchmark
+    public User updateUserInformationWithoutZipLookup() throws Exception {
+        User user = userService.findById(randomUserId()).orElseThrow();
+        return userService.updateUserInformation(user, Map.of("zipCode", "37201", "city", "Nashville"));
+    }
+
+    @Benchmark
+    public User updateUserInformationWithZipLookup() throws Exception {
+        User user = userService.findById(randomUserId()).orElseThrow();
+        return userService.updateUserInformation(user, Map.of("zipCode", WARM_ZIP_CODE));
+    }
+
+    @Benchmark
+    public Map<Long, String> getNames() {
+        return userService.getNames();
+    }
+
+    @Benchmark
+    public List<User> findAll() {
+        return userService.findAll();
+    }
+
+    @Benchmark
+    public ResponseEntity<List<User>> controllerFindPage() {
+        return userController.findAll(null, 100);
+    }
+
+    private Long randomUserId() {
+        return userIds.get(ThreadLocalRandom.current().nextInt(userIds.size()));
+    }
+}
@@ -0,0 +1,76 @@
+#!/usr/bin/env bash
+# Compares the read endpoints of the servlet application and of the reactive read API on the same data. Users are
+# seeded once through POST /users/import into an H2 file database, each application is then started in turn on a
+# copy of it and driven by the load harness with --base-url, once to warm up and then at every rate given, on
+# GET /users and GET /user/{id}.
+#
+# usage: load-test/compare-throughput.sh [users] [rates] [duration]
+#   e.g. load-test/compare-throughput.sh 10000 "500 1000 2000 4000" 30s
+# Each run's summary.json and .hgrm files are written to target/throughput/<application>-<rate>.
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+USERS=${1:-10000}
+RATES=${2:-"500 1000 2000 4000"}
+DURATION=${3:-30s}
+MIX=get-users=20,get-user=80
+WORK=$(pwd)/target/throughput
+SERVLET_JAR=target/codereview-0.0.1-SNAPSHOT.jar
+REACTIVE_JAR=reactive/target/codereview-reactive-0.0.1-SNAPSHOT.jar
+HARNESS_JAR=load-test/target/codereview-load-test-0.0.1-SNAPSHOT.jar
+
+mvn -q install -DskipTests
+mvn -q -f reactive/pom.xml package -DskipTests
+mvn -q -f load-test/pom.xml package
+rm -rf "$WORK" && mkdir -p "$WORK"
+
+start() {
+  local name=$1 jar=$2 port=$3
+  shift 3
+  java -jar "$jar" --server.port="$port" "$@" > "$WORK/$name.log" 2>&1 &
+  PID=$!
+  until curl -sf "http://localhost:$port/users?limit=1" > /dev/null; do
+    if ! kill -0 "$PID" 2> /dev/null; then
+      cat "$WORK/$name.log"
+      exit 1
+    fi
+    sleep 1
+  done
+}
+
+stop() {
+  kill "$PID"
+  wait "$PID" || true
+}
+
+run() {
+  local name=$1 port=$3
+  start "$@"
+  # a fresh JVM is still compiling the hot paths well past the harness warmup, the first rate would pay for it
+  java -jar "$HARNESS_JAR" --base-url="http://localhost:$port" --users="$USERS" --rate="${RATES%% *}" \
+      --duration="$DURATION" --mix="$MIX" --output="$WORK/$name-warmup" > /dev/null
+  for rate in $RATES; do
+    echo "== $name at $rate req/s"
+    java -jar "$HARNESS_JAR" --base-url="http://localhost:$port" --users="$USERS" --rate="$rate" \
+        --duration="$DURATION" --mix="$MIX" --output="$WORK/$name-$rate" | grep -A2 '^endpoint'
+  done
+  stop
+}
+
+# test.com addresses are not sent a confirmation, so the seeding does not fill the outbox
+awk -v users="$USERS" 'BEGIN {
+  printf "["
+  for (i = 0; i < users; i++) {
+    printf "%s{\"firstName\":\"Seed\",\"lastName\":\"User%d\",\"email\":\"seed%d@test.com\"}", (i ? "," : ""), i, i
+  }
+  print "]"
+}' > "$WORK/users.json"
+start seed "$SERVLET_JAR" 8080 --spring.datasource.url="jdbc:h2:file:$WORK/seed"
+curl -sf -H 'Content-Type: application/json' --data-binary @"$WORK/users.json" http://localhost:8080/users/import > /dev/null
+stop
+cp "$WORK/seed.mv.db" "$WORK/servlet.mv.db"
+cp "$WORK/seed.mv.db" "$WORK/reactive.mv.db"
+
+run servlet "$SERVLET_JAR" 8080 --spring.datasource.url="jdbc:h2:file:$WORK/servlet"
+run reactive "$REACTIVE_JAR" 8081 --spring.liquibase.url="jdbc:h2:file:$WORK/reactive" \
+    --spring.r2dbc.url="r2dbc:h2:file:///$WORK/reactive"
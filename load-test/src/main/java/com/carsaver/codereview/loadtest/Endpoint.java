@@ -0,0 +1,88 @@
+package com.carsaver.codereview.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Endpoints the harness drives, each building a request against a random seeded user.
+ */
+enum Endpoint {
+    GET_USERS("get-users", "GET /users") {
+        @Override
+        HttpRequest.Builder request(Target target, Random random) {
+            return HttpRequest.newBuilder(target.uri("/users?afterId=" + target.randomUserId(random) + "&limit=100")).GET();
+        }
+    },
+    GET_USER("get-user", "GET /user/{id}") {
+        @Override
+        HttpRequest.Builder request(Target target, Random random) {
+            return HttpRequest.newBuilder(target.uri("/user/" + target.randomUserId(random))).GET();
+        }
+    },
+    CREATE_USER("create-user", "POST /users") {
+        @Override
+        HttpRequest.Builder request(Target target, Random random) {
+            String email = "load-" + target.runId + "-" + target.createdUsers.incrementAndGet() + "@loadtest.com";
+            return HttpRequest.newBuilder(target.uri("/users?firstName=Load&lastName=Test&email=" + email))
+                    .POST(HttpRequest.BodyPublishers.noBody());
+        }
+    },
+    UPDATE_USER("update-user", "PATCH /users/{id}") {
+        @Override
+        HttpRequest.Builder request(Target target, Random random) {
+            // the city is given so the update does not wait on the zip code lookup
+            return HttpRequest.newBuilder(target.uri("/users/" + target.randomUserId(random)))
+                    .header("Content-Type", "application/json")
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"zipCode\":\"37201\",\"city\":\"Nashville\"}"));
+        }
+    };
+
+    final String key;
+
+    final String label;
+
+    Endpoint(String key, String label) {
+        this.key = key;
+        this.label = label;
+    }
+
+    abstract HttpRequest.Builder request(Target target, Random random);
+
+    static Endpoint fromKey(String key) {
+        for (Endpoint endpoint : values()) {
+            if (endpoint.key.equals(key)) {
+                return endpoint;
+            }
+        }
+        throw new IllegalArgumentException("Unknown endpoint " + key);
+    }
+
+    /**
+     * Application under test and the users requests are made for.
+     */
+    static final class Target {
+        private final String baseUrl;
+
+        private final List<Long> userIds;
+
+        private final long runId = System.currentTimeMillis();
+
+        private final AtomicLong createdUsers = new AtomicLong();
+
+        Target(String baseUrl, List<Long> userIds) {
+            this.baseUrl = baseUrl;
+            this.userIds = userIds;
+        }
+
+        private URI uri(String path) {
+            return URI.create(baseUrl + path);
+        }
+
+        private Long randomUserId(Random random) {
+            return userIds.get(random.nextInt(userIds.size()));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.carsaver.codereview.loadtest;
+
+import com.carsaver.codereview.CodeReviewApplication;
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserName;
+import com.carsaver.codereview.repository.UserRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Load test of the user endpoints. Unless {@code --base-url} points it at a running application it starts the
+ * application on a random port with a fresh embedded H2 database and seeds {@code --users} users, then drives
+ * the configured endpoint mix at {@code --rate} requests per second. See {@link LoadTestSettings} for the rest
+ * of the options.
+ */
+public final class LoadHarness {
+    private static final int SEED_CHUNK_SIZE = 1000;
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = LoadTestSettings.parse(args);
+
+        ConfigurableApplicationContext application = null;
+        try {
+            String baseUrl = settings.baseUrl;
+            List<Long> userIds;
+            if (baseUrl.isEmpty()) {
+                application = start();
+                userIds = seed(application, settings.users);
+                baseUrl = "http://localhost:" + ((WebServerApplicationContext) application).getWebServer().getPort();
+            } else {
+                userIds = discoverUserIds(baseUrl, settings.users);
+            }
+            if (userIds.isEmpty()) {
+                throw new IllegalStateException("No users to run against at " + baseUrl);
+            }
+
+            Map<Endpoint, OpenModelLoadGenerator.EndpointStats> stats;
+            try (OpenModelLoadGenerator generator = new OpenModelLoadGenerator(settings)) {
+                stats = generator.run(new Endpoint.Target(baseUrl, userIds));
+            }
+            LoadTestReport.write(settings, baseUrl, stats);
+            LoadTestReport.print(stats, settings, System.out);
+        } finally {
+            if (application != null) {
+                application.close();
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext start() {
+        return new SpringApplicationBuilder(CodeReviewApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.datasource.url=jdbc:h2:mem:load-test-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1",
+                        "spring.h2.console.enabled=false",
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=WARN")
+                .run();
+    }
+
+    private static List<Long> seed(ConfigurableApplicationContext application, int users) {
+        UserRepository repository = application.getBean(UserRepository.class);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(application.getBean(PlatformTransactionManager.class));
+        for (int from = 0; from < users; from += SEED_CHUNK_SIZE) {
+            List<User> chunk = new ArrayList<>();
+            for (int i = from; i < Math.min(users, from + SEED_CHUNK_SIZE); i++) {
+                User user = new User();
+                user.setFirstName("seed" + i);
+                user.setLastName("LoadTest");
+                user.setEmail("seed" + i + "@loadtest.com");
+                user.setEnabled(true);
+                user.setCity("Franklin");
+                user.setZipCode("37067");
+                chunk.add(user);
+            }
+            transactionTemplate.executeWithoutResult(status -> repository.saveAll(chunk));
+        }
+        return repository.findAllNames().stream()
+                .map(UserName::getId)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Pages through GET /users of a running application for up to {@code users} ids.
+     */
+    private static List<Long> discoverUserIds(String baseUrl, int users) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<Long> userIds = new ArrayList<>();
+        Long afterId = null;
+        while (userIds.size() < users) {
+            String query = afterId == null ? "?limit=1000" : "?limit=1000&afterId=" + afterId;
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/users" + query)).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            JsonNode page = objectMapper.readTree(response.body());
+            if (!page.isArray() || page.size() == 0) {
+                break;
+            }
+            for (JsonNode user : page) {
+                userIds.add(user.get("id").asLong());
+            }
+            afterId = userIds.get(userIds.size() - 1);
+        }
+        return userIds.size() > users ? userIds.subList(0, users) : userIds;
+    }
+}
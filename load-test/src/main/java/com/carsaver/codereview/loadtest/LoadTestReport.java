@@ -0,0 +1,91 @@
+package com.carsaver.codereview.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes one HdrHistogram percentile distribution per endpoint, in milliseconds, and a JSON summary of
+ * throughput and latency percentiles that can be compared between releases.
+ */
+final class LoadTestReport {
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private LoadTestReport() {
+    }
+
+    static void write(LoadTestSettings settings, String baseUrl,
+                      Map<Endpoint, OpenModelLoadGenerator.EndpointStats> stats) throws IOException {
+        Files.createDirectories(settings.outputDirectory);
+        double measuredSeconds = settings.duration.toMillis() / 1000.0;
+
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        for (Map.Entry<Endpoint, OpenModelLoadGenerator.EndpointStats> entry : stats.entrySet()) {
+            Endpoint endpoint = entry.getKey();
+            OpenModelLoadGenerator.EndpointStats endpointStats = entry.getValue();
+            Histogram histogram = endpointStats.latencyMicros;
+
+            try (PrintStream out = new PrintStream(Files.newOutputStream(settings.outputDirectory.resolve(endpoint.key + ".hgrm")))) {
+                histogram.outputPercentileDistribution(out, MICROS_PER_MILLI);
+            }
+
+            Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("p50", percentile(histogram, 50));
+            latency.put("p95", percentile(histogram, 95));
+            latency.put("p99", percentile(histogram, 99));
+            latency.put("p999", percentile(histogram, 99.9));
+            latency.put("max", histogram.getMaxValue() / MICROS_PER_MILLI);
+            latency.put("mean", histogram.getMean() / MICROS_PER_MILLI);
+
+            Map<String, Long> outcomes = new TreeMap<>();
+            endpointStats.outcomes.forEach((outcome, count) -> outcomes.put(outcome, count.sum()));
+
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("requests", histogram.getTotalCount());
+            summary.put("errors", endpointStats.errors.sum());
+            summary.put("dropped", endpointStats.dropped.sum());
+            summary.put("throughputPerSecond", histogram.getTotalCount() / measuredSeconds);
+            summary.put("latencyMillis", latency);
+            summary.put("outcomes", outcomes);
+            endpoints.put(endpoint.label, summary);
+        }
+
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("baseUrl", baseUrl);
+        run.put("users", settings.users);
+        run.put("rate", settings.rate);
+        run.put("warmupSeconds", settings.warmup.getSeconds());
+        run.put("durationSeconds", settings.duration.getSeconds());
+        run.put("clients", settings.clients);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("run", run);
+        report.put("endpoints", endpoints);
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(settings.outputDirectory.resolve("summary.json").toFile(), report);
+    }
+
+    static void print(Map<Endpoint, OpenModelLoadGenerator.EndpointStats> stats, LoadTestSettings settings, PrintStream out) {
+        double measuredSeconds = settings.duration.toMillis() / 1000.0;
+        out.printf("%-20s %10s %8s %8s %10s %10s %10s %10s%n",
+                "endpoint", "req/s", "errors", "dropped", "p50 ms", "p95 ms", "p99 ms", "p999 ms");
+        stats.forEach((endpoint, endpointStats) -> {
+            Histogram histogram = endpointStats.latencyMicros;
+            out.printf("%-20s %10.1f %8d %8d %10.2f %10.2f %10.2f %10.2f%n", endpoint.label,
+                    histogram.getTotalCount() / measuredSeconds, endpointStats.errors.sum(), endpointStats.dropped.sum(),
+                    percentile(histogram, 50), percentile(histogram, 95), percentile(histogram, 99), percentile(histogram, 99.9));
+        });
+        out.println("Histograms and summary.json written to " + settings.outputDirectory.toAbsolutePath());
+    }
+
+    private static double percentile(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / MICROS_PER_MILLI;
+    }
+}
@@ -0,0 +1,88 @@
+package com.carsaver.codereview.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings of one load test run, parsed from {@code --name=value} arguments.
+ */
+final class LoadTestSettings {
+    /**
+     * Base URL of an already running application. When empty the harness starts the application itself on a
+     * random port with a fresh embedded H2 database.
+     */
+    final String baseUrl;
+
+    /**
+     * Users seeded before the run, or discovered from GET /users when testing a running application.
+     */
+    final int users;
+
+    /**
+     * Requests started per second, whether or not earlier requests have completed.
+     */
+    final int rate;
+
+    final Duration warmup;
+
+    final Duration duration;
+
+    /**
+     * Threads the HTTP client completes requests on.
+     */
+    final int clients;
+
+    /**
+     * Requests allowed in flight at once, a request due while this many are outstanding is counted as dropped.
+     */
+    final int maxInFlight;
+
+    final Duration requestTimeout;
+
+    /**
+     * Relative weight of each endpoint in the traffic.
+     */
+    final Map<Endpoint, Integer> mix;
+
+    final Path outputDirectory;
+
+    private LoadTestSettings(Map<String, String> values) {
+        this.baseUrl = values.getOrDefault("base-url", "");
+        this.users = Integer.parseInt(values.getOrDefault("users", "1000"));
+        this.rate = Integer.parseInt(values.getOrDefault("rate", "200"));
+        this.warmup = DurationStyle.detectAndParse(values.getOrDefault("warmup", "10s"));
+        this.duration = DurationStyle.detectAndParse(values.getOrDefault("duration", "60s"));
+        this.clients = Integer.parseInt(values.getOrDefault("clients", "64"));
+        this.maxInFlight = Integer.parseInt(values.getOrDefault("max-in-flight", "10000"));
+        this.requestTimeout = DurationStyle.detectAndParse(values.getOrDefault("request-timeout", "30s"));
+        this.mix = parseMix(values.getOrDefault("mix", "get-users=20,get-user=60,create-user=10,update-user=10"));
+        this.outputDirectory = Paths.get(values.getOrDefault("output", "target/load-test"));
+    }
+
+    static LoadTestSettings parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            values.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return new LoadTestSettings(values);
+    }
+
+    private static Map<Endpoint, Integer> parseMix(String mix) {
+        Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split("=");
+            weights.put(Endpoint.fromKey(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,143 @@
+package com.carsaver.codereview.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts requests at a constant rate no matter how long earlier ones take, the way independent clients arrive.
+ * Latency is measured from the moment a request was due rather than when it was sent, so a stalled server shows
+ * up in the percentiles instead of just slowing the generator down.
+ */
+final class OpenModelLoadGenerator implements AutoCloseable {
+    private final LoadTestSettings settings;
+
+    private final ExecutorService clientExecutor;
+
+    private final HttpClient client;
+
+    private final Endpoint[] weightedEndpoints;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Map<Endpoint, EndpointStats> stats = new EnumMap<>(Endpoint.class);
+
+    OpenModelLoadGenerator(LoadTestSettings settings) {
+        this.settings = settings;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.clientExecutor = Executors.newFixedThreadPool(settings.clients, runnable -> {
+            Thread thread = new Thread(runnable, "load-client-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.client = HttpClient.newBuilder()
+                .executor(clientExecutor)
+                .connectTimeout(settings.requestTimeout)
+                .build();
+
+        int totalWeight = settings.mix.values().stream().mapToInt(Integer::intValue).sum();
+        this.weightedEndpoints = new Endpoint[totalWeight];
+        int position = 0;
+        for (Map.Entry<Endpoint, Integer> entry : settings.mix.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                weightedEndpoints[position++] = entry.getKey();
+            }
+            stats.put(entry.getKey(), new EndpointStats());
+        }
+    }
+
+    /**
+     * Drives traffic for the warmup and then the measured duration, and waits for outstanding requests.
+     * @return - per endpoint results of the requests that were due after the warmup
+     */
+    Map<Endpoint, EndpointStats> run(Endpoint.Target target) throws InterruptedException {
+        Random random = new Random();
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / (double) settings.rate;
+        long start = System.nanoTime();
+        long measureFrom = start + settings.warmup.toNanos();
+        long end = measureFrom + settings.duration.toNanos();
+
+        for (long i = 0; ; i++) {
+            long due = start + (long) (i * intervalNanos);
+            if (due - end >= 0) {
+                break;
+            }
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            Endpoint endpoint = weightedEndpoints[random.nextInt(weightedEndpoints.length)];
+            EndpointStats endpointStats = due - measureFrom >= 0 ? stats.get(endpoint) : null;
+            if (inFlight.get() >= settings.maxInFlight) {
+                if (endpointStats != null) {
+                    endpointStats.dropped.increment();
+                }
+                continue;
+            }
+
+            inFlight.incrementAndGet();
+            client.sendAsync(endpoint.request(target, random).timeout(settings.requestTimeout).build(),
+                    HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, exception) -> {
+                        inFlight.decrementAndGet();
+                        if (endpointStats != null) {
+                            endpointStats.record(due, System.nanoTime(), response, exception);
+                        }
+                    });
+        }
+
+        long drainDeadline = System.nanoTime() + settings.requestTimeout.toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() - drainDeadline < 0) {
+            Thread.sleep(10);
+        }
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        clientExecutor.shutdownNow();
+    }
+
+    static final class EndpointStats {
+        /**
+         * Latency in microseconds of every completed request, failed ones included.
+         */
+        final Histogram latencyMicros = new ConcurrentHistogram(3);
+
+        final LongAdder errors = new LongAdder();
+
+        final LongAdder dropped = new LongAdder();
+
+        /**
+         * Count of responses by status code, or by exception type for requests that got no response.
+         */
+        final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+        private void record(long due, long completed, HttpResponse<?> response, Throwable exception) {
+            latencyMicros.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(completed - due)));
+            Throwable failure = exception instanceof CompletionException && exception.getCause() != null
+                    ? exception.getCause() : exception;
+            String outcome = failure != null
+                    ? failure.getClass().getSimpleName()
+                    : String.valueOf(response.statusCode());
+            outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+            if (exception != null || response.statusCode() >= 400) {
+                errors.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.carsaver.codereview.reactive;
+
+import com.carsaver.codereview.config.UserApiProperties;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+
+/**
+ * Read-only user API for high-fanout clients. It serves the same user reads as the servlet application, on
+ * WebFlux and R2DBC against a database built from the same changelog. Only this package is scanned, the servlet
+ * application's beans stay out.
+ */
+@SpringBootApplication
+@EnableConfigurationProperties(UserApiProperties.class)
+public class ReactiveCodeReviewApplication {
+
+	public static void main(String[] args) {
+		SpringApplication.run(ReactiveCodeReviewApplication.class, args);
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.carsaver.codereview.reactive;
+
+import com.carsaver.codereview.config.UserApiProperties;
+import com.carsaver.codereview.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+@RestController
+public class ReactiveUserController {
+    private final ReactiveUserRepository repository;
+
+    private final UserApiProperties properties;
+
+    private final int exportPrefetch;
+
+    @Autowired
+    public ReactiveUserController(ReactiveUserRepository repository, UserApiProperties properties,
+                                  @Value("${codereview.users.export-prefetch:500}") int exportPrefetch) {
+        this.repository = repository;
+        this.properties = properties;
+        this.exportPrefetch = exportPrefetch;
+    }
+
+    @GetMapping("/user/{id}")
+    public Mono<ResponseEntity<User>> findById(@PathVariable Long id) {
+        return this.repository.findById(id)
+                .map(user -> new ResponseEntity<>(user, HttpStatus.OK))
+                .defaultIfEmpty(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
+    /**
+     * returns users ordered by id, one page at a time, same contract as the servlet GET /users
+     * @param afterId - cursor from the previous page's next link, omit for the first page
+     * @param limit - page size, capped at the configured maximum
+     * @return page of users, with a Link header pointing at the next page unless this is the last one
+     */
+    @GetMapping("/users")
+    public Mono<ResponseEntity<List<User>>> findAll(@RequestParam(required = false) Long afterId,
+                                                    @RequestParam(required = false) Integer limit) {
+        int pageSize = Math.max(1, Math.min(limit == null ? properties.getDefaultPageSize() : limit, properties.getMaxPageSize()));
+        // one extra row tells us whether there is a next page without a count query
+        return this.repository.findPage(afterId, pageSize + 1)
+                .collectList()
+                .map(users -> {
+                    HttpHeaders headers = new HttpHeaders();
+                    if (users.size() <= pageSize) {
+                        return new ResponseEntity<>(users, headers, HttpStatus.OK);
+                    }
+                    List<User> page = users.subList(0, pageSize);
+                    headers.add(HttpHeaders.LINK, "</users?afterId=" + page.get(pageSize - 1).getId() + "&limit=" + pageSize + ">; rel=\"next\"");
+                    return new ResponseEntity<>(page, headers, HttpStatus.OK);
+                });
+    }
+
+    /**
+     * streams every user as one JSON object per line, ordered by id. Rows are requested from the database in
+     * batches as the client reads, so a slow client holds back the query instead of filling the heap
+     * @return newline-delimited JSON
+     */
+    @GetMapping(value = "/users/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<User> exportAll() {
+        return this.repository.streamAll()
+                .limitRate(exportPrefetch);
+    }
+}
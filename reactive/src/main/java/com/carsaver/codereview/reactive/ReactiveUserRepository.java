@@ -0,0 +1,67 @@
+package com.carsaver.codereview.reactive;
+
+import com.carsaver.codereview.model.User;
+import io.r2dbc.spi.Row;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * User reads over R2DBC. Rows are mapped by hand since {@link User} carries JPA mapping, not Spring Data
+ * Relational mapping, so a column added to the entity has to be added to {@link #toUser} as well.
+ */
+@Repository
+public class ReactiveUserRepository {
+    private static final String SELECT_USER =
+            "select id, first_name, last_name, email, enabled, city, zip_code, normalized_email, version from user";
+
+    private final DatabaseClient databaseClient;
+
+    @Autowired
+    public ReactiveUserRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    public Mono<User> findById(Long id) {
+        return databaseClient.sql(SELECT_USER + " where id = :id")
+                .bind("id", id)
+                .map((row, metadata) -> toUser(row))
+                .one();
+    }
+
+    /**
+     * @param afterId - id of the last user of the previous page, null for the first page
+     */
+    public Flux<User> findPage(Long afterId, int limit) {
+        return databaseClient.sql(SELECT_USER + " where id > :afterId order by id limit :limit")
+                .bind("afterId", afterId == null ? Long.MIN_VALUE : afterId)
+                .bind("limit", limit)
+                .map((row, metadata) -> toUser(row))
+                .all();
+    }
+
+    /**
+     * @return - every user ordered by id, rows are only read as fast as the subscriber requests them
+     */
+    public Flux<User> streamAll() {
+        return databaseClient.sql(SELECT_USER + " order by id")
+                .map((row, metadata) -> toUser(row))
+                .all();
+    }
+
+    private static User toUser(Row row) {
+        User user = new User();
+        user.setId(row.get("id", Long.class));
+        user.setFirstName(row.get("first_name", String.class));
+        user.setLastName(row.get("last_name", String.class));
+        user.setEmail(row.get("email", String.class));
+        user.setEnabled(row.get("enabled", Boolean.class));
+        user.setCity(row.get("city", String.class));
+        user.setZipCode(row.get("zip_code", String.class));
+        user.setNormalizedEmail(row.get("normalized_email", String.class));
+        user.setVersion(row.get("version", Long.class));
+        return user;
+    }
+}
@@ -0,0 +1,67 @@
+package com.carsaver.codereview.reactive;
+
+import com.carsaver.codereview.model.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+@SpringBootTest
+@AutoConfigureWebTestClient
+class ReactiveUserControllerTest {
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Test
+    public void findById_shouldReturnSeededUser() {
+        webTestClient.get().uri("/user/1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.firstName").isEqualTo("Josh")
+                .jsonPath("$.normalizedEmail").doesNotExist();
+    }
+
+    @Test
+    public void findById_shouldReturnNotFound_whenUserDoesNotExist() {
+        webTestClient.get().uri("/user/-1")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void findAll_shouldReturnNoNextLink_whenLastPage() {
+        webTestClient.get().uri("/users?limit=1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(HttpHeaders.LINK)
+                .expectBodyList(User.class).hasSize(1);
+    }
+
+    @Test
+    public void findAll_shouldReturnEmptyPage_afterLastUser() {
+        webTestClient.get().uri("/users?afterId=1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(User.class).hasSize(0);
+    }
+
+    @Test
+    public void exportAll_shouldStreamUsersAsNdjson() {
+        Flux<User> users = webTestClient.get().uri("/users/export")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(User.class)
+                .getResponseBody();
+
+        StepVerifier.create(users)
+                .expectNextMatches(user -> user.getId() == 1L && "Josh".equals(user.getFirstName()))
+                .verifyComplete();
+    }
+}
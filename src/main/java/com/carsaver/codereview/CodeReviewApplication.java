@@ -2,8 +2,10 @@ package com.carsaver.codereview;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class CodeReviewApplication {
 
 	public static void main(String[] args) {
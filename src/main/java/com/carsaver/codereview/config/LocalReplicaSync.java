@@ -0,0 +1,105 @@
+package com.carsaver.codereview.config;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.service.UserChangedEvent;
+import liquibase.integration.spring.SpringLiquibase;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands in for replication when the replica is a second local H2 database. The replica gets its schema and seed
+ * rows from the application's changelog, then every user change is copied to it once the write commits, after
+ * {@code lag} when one is set so stale reads can be tried out. Only the user table is copied, it is the only one
+ * read-only transactions read. Writes go over connections of their own, not the replica's read pool.
+ */
+public class LocalReplicaSync implements InitializingBean, DisposableBean {
+    private static final String UPSERT = "MERGE INTO user (id, first_name, last_name, email, enabled, city, zip_code, "
+            + "normalized_email, normalized_city, normalized_last_name, version) KEY (id) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final DataSource replica;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final ResourceLoader resourceLoader;
+
+    private final String changeLog;
+
+    private final Duration lag;
+
+    private final ScheduledExecutorService executor;
+
+    public LocalReplicaSync(DataSourceProperties replicaProperties, ResourceLoader resourceLoader, String changeLog,
+                            Duration lag) {
+        this.replica = new DriverManagerDataSource(replicaProperties.determineUrl(),
+                replicaProperties.determineUsername(), replicaProperties.determinePassword());
+        this.jdbcTemplate = new JdbcTemplate(replica);
+        this.resourceLoader = resourceLoader;
+        this.changeLog = changeLog;
+        this.lag = lag;
+        this.executor = lag.isZero() ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "local-replica-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(replica);
+        liquibase.setChangeLog(changeLog);
+        liquibase.setResourceLoader(resourceLoader);
+        liquibase.afterPropertiesSet();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        Long id = event.getId();
+        User user = event.getUser() == null ? null : event.getUser().copy();
+        if (executor == null) {
+            apply(id, user);
+        } else {
+            executor.schedule(() -> apply(id, user), lag.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param user - the user as committed, null when it was deleted
+     */
+    synchronized void apply(Long id, User user) {
+        if (user == null) {
+            jdbcTemplate.update("DELETE FROM user WHERE id = ?", id);
+            return;
+        }
+
+        // concurrent writes to one user can commit in one order and arrive here in the other
+        List<Long> versions = jdbcTemplate.queryForList("SELECT version FROM user WHERE id = ?", Long.class, id);
+        if (!versions.isEmpty() && user.getVersion() != null && versions.get(0) >= user.getVersion()) {
+            return;
+        }
+        // normalized here, a user updated column by column never went through the entity's callbacks
+        jdbcTemplate.update(UPSERT, user.getId(), user.getFirstName(), user.getLastName(), user.getEmail(),
+                user.getEnabled(), user.getCity(), user.getZipCode(), user.getNormalizedEmail(),
+                User.normalizeName(user.getCity()), User.normalizeName(user.getLastName()), user.getVersion());
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
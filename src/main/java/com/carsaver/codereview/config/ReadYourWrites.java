@@ -0,0 +1,54 @@
+package com.carsaver.codereview.config;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Pins the reads of the current thread to the primary database until a point in time, so a client reads its own
+ * writes while the replica catches up. {@code ReadYourWritesFilter} pins each request that writes or follows a
+ * recent write; work a request hands to another thread takes the pin along with {@link #propagate}.
+ */
+public final class ReadYourWrites {
+    private static final ThreadLocal<Long> PINNED_UNTIL = new ThreadLocal<>();
+
+    private ReadYourWrites() {
+    }
+
+    public static boolean isPinned() {
+        Long until = PINNED_UNTIL.get();
+        return until != null && until > System.currentTimeMillis();
+    }
+
+    /**
+     * @param untilMillis - epoch millis up to which reads go to the primary
+     */
+    public static void pinUntil(long untilMillis) {
+        PINNED_UNTIL.set(untilMillis);
+    }
+
+    public static void clear() {
+        PINNED_UNTIL.remove();
+    }
+
+    /**
+     * @return - the task, running with the caller's pin on whichever thread ends up running it
+     */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        Long until = PINNED_UNTIL.get();
+        if (until == null) {
+            return task;
+        }
+        return () -> {
+            Long previous = PINNED_UNTIL.get();
+            PINNED_UNTIL.set(until);
+            try {
+                return task.call();
+            } finally {
+                if (previous == null) {
+                    PINNED_UNTIL.remove();
+                } else {
+                    PINNED_UNTIL.set(previous);
+                }
+            }
+        };
+    }
+}
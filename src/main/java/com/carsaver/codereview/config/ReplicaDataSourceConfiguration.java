@@ -0,0 +1,68 @@
+package com.carsaver.codereview.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ResourceLoader;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Splits the database into a primary pool for writes and a replica pool for read-only transactions, replacing
+ * Spring Boot's single pool when {@code codereview.datasource.replica.enabled} is set. The primary is configured
+ * as before from {@code spring.datasource.*}, the replica from {@code codereview.datasource.replica.*}, and each
+ * pool takes its own Hikari settings from the {@code hikari} prefix below it and reports under its pool name.
+ * <p>
+ * The pools are not beans of their own, Spring Boot initializes the database through the one data source
+ * there is and runs into a cycle as soon as it sees a second.
+ */
+@Configuration
+@ConditionalOnProperty(name = "codereview.datasource.replica.enabled", havingValue = "true")
+public class ReplicaDataSourceConfiguration {
+    /**
+     * Not a candidate for injection, Spring Boot's own beans expect a single {@link DataSourceProperties}.
+     */
+    @Bean(autowireCandidate = false)
+    @ConfigurationProperties("codereview.datasource.replica")
+    public DataSourceProperties replicaDataSourceProperties() {
+        return new DataSourceProperties();
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(DataSourceProperties properties, Environment environment,
+                                 ObjectProvider<LocalReplicaSync> localReplicaSync) {
+        // a local replica has its schema before anything can read from it
+        localReplicaSync.ifAvailable(sync -> { });
+        HikariDataSource primary = pool(properties, "primary", "spring.datasource.hikari", environment);
+        HikariDataSource replica = pool(replicaDataSourceProperties(), "replica", "codereview.datasource.replica.hikari",
+                environment);
+        return new ReplicaRoutingDataSource(primary, replica);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "codereview.datasource.replica.local-sync.enabled", havingValue = "true")
+    public LocalReplicaSync localReplicaSync(ResourceLoader resourceLoader,
+                                             @Value("${spring.liquibase.change-log:classpath:/db/changelog/db.changelog-master.yaml}") String changeLog,
+                                             @Value("${codereview.datasource.replica.local-sync.lag:0ms}") Duration lag) {
+        return new LocalReplicaSync(replicaDataSourceProperties(), resourceLoader, changeLog, lag);
+    }
+
+    private static HikariDataSource pool(DataSourceProperties properties, String name, String hikariPrefix,
+                                         Environment environment) {
+        HikariDataSource pool = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        pool.setPoolName(name);
+        Binder.get(environment).bind(hikariPrefix, Bindable.ofInstance(pool));
+        return pool;
+    }
+}
@@ -0,0 +1,65 @@
+package com.carsaver.codereview.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Closeable;
+import java.util.Map;
+
+/**
+ * Hands out replica connections to read-only transactions and primary connections to everything else: writes,
+ * work outside of a transaction and reads pinned by {@link ReadYourWrites}. The read-only flag is only set once
+ * the transaction has begun, so the connection is taken lazily, at the first statement. Owns both pools and binds
+ * their metrics, Spring Boot cannot find a pool behind the routing.
+ */
+class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy implements MeterBinder, Closeable {
+    enum Target {
+        PRIMARY, REPLICA
+    }
+
+    private final HikariDataSource primary;
+
+    private final HikariDataSource replica;
+
+    ReplicaRoutingDataSource(HikariDataSource primary, HikariDataSource replica) {
+        this.primary = primary;
+        this.replica = replica;
+        AbstractRoutingDataSource router = new AbstractRoutingDataSource() {
+            @Override
+            protected Target determineCurrentLookupKey() {
+                return target();
+            }
+        };
+        router.setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        router.setDefaultTargetDataSource(primary);
+        router.afterPropertiesSet();
+        setTargetDataSource(router);
+        afterPropertiesSet();
+    }
+
+    static Target target() {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly() && !ReadYourWrites.isPinned()) {
+            return Target.REPLICA;
+        }
+        return Target.PRIMARY;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (HikariDataSource pool : new HikariDataSource[]{primary, replica}) {
+            if (pool.getMetricRegistry() == null) {
+                pool.setMetricRegistry(registry);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        replica.close();
+        primary.close();
+    }
+}
@@ -0,0 +1,74 @@
+package com.carsaver.codereview.config;
+
+import com.carsaver.codereview.repository.UserShards;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out connections to the shard of {@link UserShards#connectionShard()}. A transaction learns its shard at
+ * the first user it touches, after it has begun, so the connection is taken lazily, at the first statement. Owns
+ * the shard pools and binds their metrics, Spring Boot cannot find a pool behind the routing.
+ */
+class ShardRoutingDataSource extends LazyConnectionDataSourceProxy implements MeterBinder, Closeable {
+    private final List<HikariDataSource> shards;
+
+    private final JdbcTemplate firstShard;
+
+    ShardRoutingDataSource(List<HikariDataSource> shards) {
+        this.shards = shards;
+        this.firstShard = new JdbcTemplate(shards.get(0));
+        Map<Object, Object> targets = new HashMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            targets.put(shard, shards.get(shard));
+        }
+        AbstractRoutingDataSource router = new AbstractRoutingDataSource() {
+            @Override
+            protected Integer determineCurrentLookupKey() {
+                return UserShards.connectionShard();
+            }
+        };
+        router.setTargetDataSources(targets);
+        router.setLenientFallback(false);
+        router.afterPropertiesSet();
+        setTargetDataSource(router);
+        afterPropertiesSet();
+    }
+
+    int count() {
+        return shards.size();
+    }
+
+    List<HikariDataSource> pools() {
+        return shards;
+    }
+
+    /**
+     * @return - the next value of the user sequence of the first shard, the one that hands out every user id
+     */
+    long nextUserIdBlock() {
+        return firstShard.queryForObject("SELECT NEXT VALUE FOR user_seq", Long.class);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (HikariDataSource pool : shards) {
+            if (pool.getMetricRegistry() == null) {
+                pool.setMetricRegistry(registry);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        shards.forEach(HikariDataSource::close);
+    }
+}
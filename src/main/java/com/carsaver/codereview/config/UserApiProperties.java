@@ -0,0 +1,39 @@
+package com.carsaver.codereview.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Settings of the user endpoints, bound from {@code codereview.users.*}.
+ */
+@Component
+@ConfigurationProperties(prefix = "codereview.users")
+@Data
+public class UserApiProperties {
+    /**
+     * Page size of GET /users when the client does not ask for one.
+     */
+    private int defaultPageSize = 100;
+
+    /**
+     * Largest page GET /users will return, bigger limits are capped to it.
+     */
+    private int maxPageSize = 1000;
+
+    /**
+     * Rows of a bulk import that are checked and inserted together in one transaction.
+     */
+    private int importChunkSize = 500;
+
+    /**
+     * Items of a bulk update that are loaded and written together in one transaction.
+     */
+    private int bulkUpdateChunkSize = 500;
+
+    /**
+     * Distinct zip codes of a bulk update resolved per lookup, the batches run in parallel on the zip lookup
+     * bulkhead when async mode is enabled.
+     */
+    private int bulkUpdateZipBatchSize = 100;
+}
@@ -0,0 +1,135 @@
+package com.carsaver.codereview.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Times the calls through the user stack, from the controller down to the repository, the zip code lookup and
+ * the confirmation emails. Every method gets a {@code <layer>} timer tagged with the method and the exception
+ * it failed with, or {@code none}, and a {@code <layer>.active} gauge of the calls in flight. Calls returning a
+ * {@link CompletionStage} are timed until it completes.
+ * <p>
+ * Meters are looked up once per method and kept, so a call costs a map lookup rather than building and
+ * registering a timer. Histogram buckets come from the {@code management.metrics.distribution.*} settings of
+ * the {@code codereview} prefix. Runs outside of the transaction advice so commits are part of the timing.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class UserMetricsAspect {
+    private static final String NO_EXCEPTION = "none";
+
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<Method, MethodMeters> meters = new ConcurrentHashMap<>();
+
+    /**
+     * Calls in flight by gauge name and method name, overloads of a method share one gauge.
+     */
+    private final ConcurrentMap<String, AtomicInteger> activeCalls = new ConcurrentHashMap<>();
+
+    @Autowired
+    public UserMetricsAspect(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Around("execution(public * com.carsaver.codereview.web.UserController.*(..))")
+    public Object timeController(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time("codereview.users.controller", joinPoint);
+    }
+
+    @Around("execution(public * com.carsaver.codereview.service.UserService.*(..))")
+    public Object timeService(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time("codereview.users.service", joinPoint);
+    }
+
+    @Around("execution(* com.carsaver.codereview.repository.UserRepository.*(..))")
+    public Object timeRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time("codereview.users.repository", joinPoint);
+    }
+
+    @Around("execution(* com.carsaver.codereview.service.ZipCodeLookupService.lookupCityByZip(..))")
+    public Object timeZipCodeLookup(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time("codereview.zip-lookup", joinPoint);
+    }
+
+    @Around("execution(* com.carsaver.codereview.service.EmailService.sendConfirmation(..))")
+    public Object timeConfirmationEmail(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time("codereview.email.confirmation", joinPoint);
+    }
+
+    private Object time(String name, ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        MethodMeters methodMeters = meters.computeIfAbsent(method, key -> new MethodMeters(name, key.getName()));
+
+        methodMeters.active.incrementAndGet();
+        long start = registry.config().clock().monotonicTime();
+        Object result;
+        try {
+            result = joinPoint.proceed();
+        } catch (Throwable exception) {
+            methodMeters.record(start, exception);
+            throw exception;
+        }
+
+        if (result instanceof CompletionStage) {
+            return ((CompletionStage<?>) result).whenComplete((value, exception) -> methodMeters.record(start,
+                    exception instanceof CompletionException && exception.getCause() != null ? exception.getCause() : exception));
+        }
+        methodMeters.record(start, null);
+        return result;
+    }
+
+    private final class MethodMeters {
+        private final String name;
+
+        private final Tags tags;
+
+        private final Timer succeeded;
+
+        private final ConcurrentMap<Class<?>, Timer> failed = new ConcurrentHashMap<>();
+
+        private final AtomicInteger active;
+
+        private MethodMeters(String name, String method) {
+            this.name = name;
+            this.tags = Tags.of("method", method);
+            this.succeeded = timer(NO_EXCEPTION);
+            this.active = activeCalls.computeIfAbsent(name + "#" + method,
+                    key -> registry.gauge(name + ".active", tags, new AtomicInteger()));
+        }
+
+        private void record(long start, Throwable exception) {
+            long duration = registry.config().clock().monotonicTime() - start;
+            active.decrementAndGet();
+            Timer timer = exception == null
+                    ? succeeded
+                    : failed.computeIfAbsent(exception.getClass(), type -> timer(type.getSimpleName()));
+            timer.record(duration, TimeUnit.NANOSECONDS);
+        }
+
+        private Timer timer(String exception) {
+            return Timer.builder(name)
+                    .tags(tags)
+                    .tag("exception", exception)
+                    .register(registry);
+        }
+    }
+}
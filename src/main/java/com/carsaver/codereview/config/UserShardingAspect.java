@@ -0,0 +1,546 @@
+package com.carsaver.codereview.config;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserName;
+import com.carsaver.codereview.repository.UserRepository;
+import com.carsaver.codereview.repository.UserShards;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Sends every call of the user repository to the shards that hold its users. Calls for one user go to the shard
+ * of its id, inside the caller's transaction, which is tied to that shard from then on. New users get their ids
+ * here, before the insert. Everything else is asked of every shard in parallel, each in a read-only transaction
+ * of its own, and the answers are merged: lists ordered by id with a k-way merge that honours the page or limit,
+ * streams by paging through each shard as the merge goes. Calls inside {@link UserShards#on} go to that shard as
+ * they are.
+ * <p>
+ * Methods without a route of their own are routed as reads by what they return: counts are summed, flags and
+ * optionals take the first shard that has an answer, lists and pages are merged in their {@link Sort}. Every method
+ * of {@link UserRepository} is checked against these routes when the aspect is created, so a method that fits none
+ * of them, such as a new write, stops the application from starting rather than failing at its first call.
+ */
+@Aspect
+@Component
+@ConditionalOnProperty(name = "codereview.users.sharding.enabled", havingValue = "true")
+public class UserShardingAspect {
+    /**
+     * Users read from each shard at a time by the merged streams.
+     */
+    static final int STREAM_PAGE_SIZE = 500;
+
+    private static final Comparator<User> BY_ID = Comparator.comparing(User::getId);
+
+    private static final Set<String> ROUTED = Set.of("flush", "save", "saveAndFlush", "findById", "existsById",
+            "deleteById", "getOne", "updateColumns", "delete", "saveAll", "deleteAll", "deleteInBatch",
+            "deleteAllInBatch", "findAllById", "findAllByOrderByIdAsc", "findByIdGreaterThanOrderByIdAsc", "search",
+            "findAllNames", "findUserByEmail", "existsByNormalizedEmail", "findExistingNormalizedEmails", "count",
+            "streamAllByOrderByIdAsc", "streamAllNormalizedEmails");
+
+    /**
+     * Query methods that only read. Ones that order by name cannot be merged in a {@link Sort}, they need a route.
+     */
+    private static final Pattern READ = Pattern.compile("(find|read|get|query|search|count|exists)(?!.*OrderBy).*");
+
+    private final UserShards shards;
+
+    private final TransactionTemplate readOnly;
+
+    @Autowired
+    public UserShardingAspect(UserShards shards, PlatformTransactionManager transactionManager) {
+        this.shards = shards;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        checkRouted(UserRepository.class);
+    }
+
+    /**
+     * @throws IllegalStateException - when a method of the repository has no route to the shards
+     */
+    static void checkRouted(Class<? extends UserRepository> repository) {
+        for (Method method : repository.getMethods()) {
+            if (!isRouted(method)) {
+                throw new IllegalStateException(repository.getSimpleName() + "." + method.getName()
+                        + " is not routed to the user shards");
+            }
+        }
+    }
+
+    static boolean isRouted(Method method) {
+        if (ROUTED.contains(method.getName())) {
+            return true;
+        }
+        Class<?> type = method.getReturnType();
+        return READ.matcher(method.getName()).matches() && (type == Optional.class || type == long.class
+                || type == Long.class || type == boolean.class || type == Boolean.class || type == Page.class
+                || type == Set.class || type == List.class || type == Collection.class || type == Iterable.class);
+    }
+
+    /**
+     * Matches on the target so the methods the repository inherits from Spring Data are routed too.
+     */
+    @Around("execution(* *(..)) && target(com.carsaver.codereview.repository.UserRepository)")
+    public Object route(ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        if (UserShards.isPinned() || method.getDeclaringClass() == Object.class
+                || !method.getDeclaringClass().isAssignableFrom(UserRepository.class)) {
+            return joinPoint.proceed();
+        }
+
+        Object[] args = joinPoint.getArgs();
+        UserRepository repository = (UserRepository) joinPoint.getTarget();
+        switch (method.getName()) {
+            case "flush":
+                return joinPoint.proceed();
+            case "save":
+            case "saveAndFlush":
+                User user = (User) args[0];
+                if (user.getId() == null) {
+                    user.setId(shards.allocate(1)[0]);
+                }
+                return onShardOf(user.getId(), joinPoint);
+            case "findById":
+            case "existsById":
+            case "deleteById":
+            case "getOne":
+            case "updateColumns":
+                return onShardOf((Long) args[0], joinPoint);
+            case "delete":
+                return onShardOf(((User) args[0]).getId(), joinPoint);
+            case "saveAll":
+                return saveAll(joinPoint, method, args);
+            case "deleteAll":
+            case "deleteInBatch":
+                if (args.length == 0) {
+                    return onEveryShard(method, repository);
+                }
+                List<User> deleted = new ArrayList<>();
+                ((Iterable<?>) args[0]).forEach(entity -> deleted.add((User) entity));
+                deleted.removeIf(entity -> entity.getId() == null);
+                return writeByShard(joinPoint, method, deleted);
+            case "deleteAllInBatch":
+                return onEveryShard(method, repository);
+            case "findAllById":
+                return findAllById(joinPoint, method, args);
+            case "findAllByOrderByIdAsc":
+                return args.length == 0
+                        ? merge(scatter(method, args, repository), BY_ID, 0, Integer.MAX_VALUE)
+                        : findPage(method, args, repository, (Pageable) args[0]);
+            case "findByIdGreaterThanOrderByIdAsc":
+                return findPage(method, args, repository, (Pageable) args[1]);
+            case "search":
+                return merge(scatter(method, args, repository), BY_ID, 0, (Integer) args[2]);
+            case "findAllNames":
+                return merge(scatter(method, args, repository), Comparator.comparing(UserName::getId), 0,
+                        Integer.MAX_VALUE);
+            case "findUserByEmail":
+                return this.<User>scatter(method, args, repository).stream()
+                        .filter(Objects::nonNull)
+                        .findFirst()
+                        .orElse(null);
+            case "existsByNormalizedEmail":
+                return this.<Boolean>scatter(method, args, repository).contains(Boolean.TRUE);
+            case "findExistingNormalizedEmails":
+                Set<String> existing = new HashSet<>();
+                this.<Set<String>>scatter(method, args, repository).forEach(existing::addAll);
+                return existing;
+            case "count":
+                return this.<Long>scatter(method, args, repository).stream().mapToLong(Long::longValue).sum();
+            case "streamAllByOrderByIdAsc":
+                return stream(repository);
+            case "streamAllNormalizedEmails":
+                return stream(repository).map(User::getNormalizedEmail);
+            default:
+                return scatterRead(method, args, repository);
+        }
+    }
+
+    /**
+     * Joins the caller's transaction on the user's shard, or runs in a transaction of its own there.
+     */
+    private Object onShardOf(Long id, ProceedingJoinPoint joinPoint) throws Throwable {
+        if (id == null) {
+            return joinPoint.proceed();
+        }
+        int shard = shards.shardOf(id);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            UserShards.bindToTransaction(shard);
+            return joinPoint.proceed();
+        }
+        return shards.on(shard, joinPoint::proceed);
+    }
+
+    /**
+     * New users get ids from one shard's range, so a batch of them is inserted in one transaction.
+     */
+    private Object saveAll(ProceedingJoinPoint joinPoint, Method method, Object[] args) throws Throwable {
+        List<User> users = new ArrayList<>();
+        ((Iterable<?>) args[0]).forEach(user -> users.add((User) user));
+        List<User> newUsers = users.stream().filter(user -> user.getId() == null).collect(Collectors.toList());
+        long[] ids = newUsers.isEmpty() ? new long[0] : shards.allocate(newUsers.size());
+        for (int i = 0; i < ids.length; i++) {
+            newUsers.get(i).setId(ids[i]);
+        }
+
+        return writeByShard(joinPoint, method, users);
+    }
+
+    /**
+     * Users of one shard are written in the caller's transaction, users of several in a transaction on each shard.
+     */
+    private Object writeByShard(ProceedingJoinPoint joinPoint, Method method, List<User> users) throws Throwable {
+        Map<Integer, List<User>> byShard = byShard(users, User::getId);
+        if (byShard.size() <= 1) {
+            return onShardOf(users.isEmpty() ? null : users.get(0).getId(), joinPoint);
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("One transaction cannot write users of " + byShard.size() + " shards");
+        }
+        List<User> written = new ArrayList<>();
+        for (Map.Entry<Integer, List<User>> shard : byShard.entrySet()) {
+            Object shardWritten = shards.on(shard.getKey(),
+                    () -> invoke(method, joinPoint.getTarget(), shard.getValue()));
+            if (shardWritten instanceof Collection) {
+                ((Collection<?>) shardWritten).forEach(user -> written.add((User) user));
+            }
+        }
+        return method.getReturnType() == void.class ? null : written;
+    }
+
+    /**
+     * Runs a write of the whole table on every shard in turn, each in a transaction on its shard.
+     */
+    private Object onEveryShard(Method method, Object repository) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("One transaction cannot write users of " + shards.count() + " shards");
+        }
+        for (int shard = 0; shard < shards.count(); shard++) {
+            shards.on(shard, () -> invoke(method, repository));
+        }
+        return null;
+    }
+
+    /**
+     * Reads of a method without a route of its own, see {@link #isRouted}. A sorted list or page is asked of every
+     * shard in its order with the id after it, so the merge is the same as the order one database would return.
+     */
+    private Object scatterRead(Method method, Object[] args, Object repository) {
+        Class<?> type = method.getReturnType();
+        Object last = args.length == 0 ? null : args[args.length - 1];
+        Object[] shardArgs = args.clone();
+        if (last instanceof Pageable && ((Pageable) last).isPaged()) {
+            Pageable pageable = (Pageable) last;
+            Sort sort = byIdLast(pageable.getSort());
+            shardArgs[args.length - 1] = PageRequest.of(0, (int) pageable.getOffset() + pageable.getPageSize(), sort);
+            List<Page<Object>> pages = scatter(method, shardArgs, repository);
+            List<Object> merged = merge(pages.stream().map(Page::getContent).collect(Collectors.toList()),
+                    orderOf(sort), pageable.getOffset(), pageable.getPageSize());
+            return new PageImpl<>(merged, pageable, pages.stream().mapToLong(Page::getTotalElements).sum());
+        }
+        if (last instanceof Sort) {
+            Sort sort = byIdLast((Sort) last);
+            shardArgs[args.length - 1] = sort;
+            List<Iterable<Object>> lists = scatter(method, shardArgs, repository);
+            return merge(lists.stream().map(UserShardingAspect::toList).collect(Collectors.toList()), orderOf(sort),
+                    0, Integer.MAX_VALUE);
+        }
+
+        List<Object> results = scatter(method, args, repository);
+        if (type == long.class || type == Long.class) {
+            return results.stream().mapToLong(count -> (Long) count).sum();
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return results.contains(Boolean.TRUE);
+        }
+        if (type == Optional.class) {
+            return results.stream().map(result -> (Optional<?>) result).filter(Optional::isPresent).findFirst()
+                    .orElse(Optional.empty());
+        }
+        if (type == Page.class) {
+            List<Object> content = new ArrayList<>();
+            results.forEach(page -> content.addAll(((Page<?>) page).getContent()));
+            return new PageImpl<>(content);
+        }
+        if (type == Set.class) {
+            Set<Object> union = new HashSet<>();
+            results.forEach(set -> union.addAll((Set<?>) set));
+            return union;
+        }
+        List<Object> all = new ArrayList<>();
+        results.forEach(list -> all.addAll(toList((Iterable<?>) list)));
+        return all;
+    }
+
+    private static Sort byIdLast(Sort sort) {
+        return sort.getOrderFor("id") != null ? sort : sort.and(Sort.by("id"));
+    }
+
+    /**
+     * Orders entities like the database orders them by the sort, which puts nulls before any value.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Comparator<Object> orderOf(Sort sort) {
+        Comparator<Object> order = (left, right) -> 0;
+        for (Sort.Order property : sort) {
+            Comparator<Comparable> values = property.getNullHandling() == Sort.NullHandling.NULLS_LAST
+                    ? Comparator.nullsLast(Comparator.naturalOrder())
+                    : Comparator.nullsFirst(Comparator.naturalOrder());
+            Comparator<Object> byProperty = Comparator.comparing(entity -> {
+                Object value = new BeanWrapperImpl(entity).getPropertyValue(property.getProperty());
+                return (Comparable) (property.isIgnoreCase() && value instanceof String
+                        ? ((String) value).toLowerCase(Locale.ROOT) : value);
+            }, values);
+            order = order.thenComparing(property.isAscending() ? byProperty : byProperty.reversed());
+        }
+        return order;
+    }
+
+    private static <T> List<T> toList(Iterable<T> values) {
+        List<T> list = new ArrayList<>();
+        values.forEach(list::add);
+        return list;
+    }
+
+    /**
+     * Ids of one shard are loaded in the caller's transaction, ids of several in parallel.
+     */
+    private Object findAllById(ProceedingJoinPoint joinPoint, Method method, Object[] args) throws Throwable {
+        List<Long> ids = new ArrayList<>();
+        ((Iterable<?>) args[0]).forEach(id -> ids.add((Long) id));
+        Map<Integer, List<Long>> byShard = byShard(ids, id -> id);
+        if (byShard.size() <= 1) {
+            return onShardOf(ids.isEmpty() ? null : ids.get(0), joinPoint);
+        }
+
+        List<CompletableFuture<List<User>>> finds = new ArrayList<>();
+        byShard.forEach((shard, shardIds) -> finds.add(onShard(shard, method, joinPoint.getTarget(), shardIds)));
+        List<User> found = new ArrayList<>();
+        for (CompletableFuture<List<User>> find : finds) {
+            found.addAll(join(find));
+        }
+        return found;
+    }
+
+    /**
+     * Every shard returns the whole of the page up to its end, the merge then skips to the page's offset.
+     */
+    private List<User> findPage(Method method, Object[] args, UserRepository repository, Pageable pageable) {
+        Object[] shardArgs = args.clone();
+        shardArgs[shardArgs.length - 1] = PageRequest.of(0, (int) pageable.getOffset() + pageable.getPageSize(),
+                pageable.getSort());
+        return merge(scatter(method, shardArgs, repository), BY_ID, pageable.getOffset(), pageable.getPageSize());
+    }
+
+    private <T> List<T> scatter(Method method, Object[] args, Object repository) {
+        List<CompletableFuture<T>> calls = new ArrayList<>();
+        for (int shard = 0; shard < shards.count(); shard++) {
+            calls.add(onShard(shard, method, repository, args));
+        }
+        List<T> results = new ArrayList<>();
+        for (CompletableFuture<T> call : calls) {
+            results.add(join(call));
+        }
+        return results;
+    }
+
+    private <T> CompletableFuture<T> onShard(int shard, Method method, Object repository, Object... args) {
+        return CompletableFuture.supplyAsync(() -> shards.on(shard, () ->
+                readOnly.execute(status -> this.<T>invoke(method, repository, args))), shards.scatter());
+    }
+
+    /**
+     * Merges lists that are each ordered, skipping {@code offset} elements and returning at most {@code limit}.
+     */
+    static <T> List<T> merge(List<List<T>> lists, Comparator<? super T> order, long offset, int limit) {
+        PriorityQueue<Cursor<T>> heads = new PriorityQueue<>((left, right) -> order.compare(left.head, right.head));
+        for (List<T> list : lists) {
+            Cursor<T> cursor = new Cursor<>(list.iterator());
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+
+        List<T> merged = new ArrayList<>();
+        long skipped = 0;
+        while (!heads.isEmpty() && merged.size() < limit) {
+            Cursor<T> cursor = heads.poll();
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                merged.add(cursor.head);
+            }
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Streams the users of every shard in id order, reading a page of each shard whenever the merge has used up
+     * the last one. Pages are read in transactions of their own, so the stream holds no connection in between.
+     */
+    private Stream<User> stream(UserRepository repository) {
+        PriorityQueue<Cursor<User>> heads = new PriorityQueue<>((left, right) -> BY_ID.compare(left.head, right.head));
+        for (int shard = 0; shard < shards.count(); shard++) {
+            Cursor<User> cursor = new Cursor<>(new ShardPages(shard, repository));
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+
+        Iterator<User> merged = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public User next() {
+                Cursor<User> cursor = heads.poll();
+                if (cursor == null) {
+                    throw new NoSuchElementException();
+                }
+                User user = cursor.head;
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+                return user;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private final class ShardPages implements Iterator<User> {
+        private final int shard;
+
+        private final UserRepository repository;
+
+        private Iterator<User> page;
+
+        private Long lastId = Long.MIN_VALUE;
+
+        private boolean last;
+
+        private ShardPages(int shard, UserRepository repository) {
+            this.shard = shard;
+            this.repository = repository;
+            this.page = List.<User>of().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!page.hasNext() && !last) {
+                List<User> users = join(CompletableFuture.supplyAsync(() -> shards.on(shard, () -> readOnly.execute(
+                        status -> repository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, STREAM_PAGE_SIZE)))),
+                        shards.scatter()));
+                last = users.size() < STREAM_PAGE_SIZE;
+                if (!users.isEmpty()) {
+                    lastId = users.get(users.size() - 1).getId();
+                }
+                page = users.iterator();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public User next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+    }
+
+    private static final class Cursor<T> {
+        private final Iterator<T> iterator;
+
+        private T head;
+
+        private Cursor(Iterator<T> iterator) {
+            this.iterator = iterator;
+        }
+
+        private boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            head = iterator.next();
+            return true;
+        }
+    }
+
+    private <T> Map<Integer, List<T>> byShard(Collection<T> values, ToLongFunction<T> id) {
+        Map<Integer, List<T>> byShard = new LinkedHashMap<>();
+        for (T value : values) {
+            byShard.computeIfAbsent(shards.shardOf(id.applyAsLong(value)), shard -> new ArrayList<>()).add(value);
+        }
+        return byShard;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T invoke(Method method, Object repository, Object... args) {
+        try {
+            return (T) method.invoke(repository, args);
+        } catch (InvocationTargetException exception) {
+            if (exception.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exception.getCause();
+            }
+            throw new IllegalStateException(exception.getCause());
+        } catch (IllegalAccessException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exception.getCause();
+            }
+            throw exception;
+        }
+    }
+}
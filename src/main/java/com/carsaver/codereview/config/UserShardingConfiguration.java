@@ -0,0 +1,167 @@
+package com.carsaver.codereview.config;
+
+import com.carsaver.codereview.repository.UserEmailClaims;
+import com.carsaver.codereview.repository.UserShards;
+import com.zaxxer.hikari.HikariDataSource;
+import liquibase.integration.spring.SpringLiquibase;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spreads the user table over several databases when {@code codereview.users.sharding.enabled} is set, see
+ * {@link UserShards} for the layout. Each of {@code codereview.users.sharding.shards[n]} is configured like
+ * {@code spring.datasource.*}, with its Hikari settings below it, and is migrated with the application's
+ * changelog before the application starts.
+ * <p>
+ * The first start on a shard records its place in the layout, leaves the changelog's seed users only on the shard
+ * that owns them and restarts its outbox sequence in a span of ids of its own, so the one id generator Hibernate
+ * keeps for the outbox never gives two messages the same id, whichever shard it reads. Its users' emails are then
+ * claimed on the first shard, see {@link UserEmailClaims}. Later starts only check the recorded layout and refuse
+ * to start on a different one, users are never moved or deleted to fit it.
+ */
+@Configuration
+public class UserShardingConfiguration {
+    private static final String SHARDS = "codereview.users.sharding.shards";
+
+    private static final int OUTBOX_ID_BLOCK = 50;
+
+    private static final long OUTBOX_ID_SPAN = 1L << 48;
+
+    /**
+     * Emails of the users changelog 1.0 inserts into every database, they are the only users a shard ever deletes.
+     */
+    private static final List<String> SEED_USER_EMAILS = List.of("josh.colbert@carsaver.com");
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "codereview.users.sharding.enabled", havingValue = "true")
+    public DataSource dataSource(Environment environment, ResourceLoader resourceLoader,
+                                 @Value("${spring.liquibase.change-log:classpath:/db/changelog/db.changelog-master.yaml}") String changeLog,
+                                 @Value("${codereview.users.sharding.range-size:100000}") long rangeSize,
+                                 @Value("${codereview.users.import-chunk-size:500}") int importChunkSize,
+                                 @Value("${spring.jpa.open-in-view:true}") boolean openInView,
+                                 @Value("${codereview.datasource.replica.enabled:false}") boolean replicaEnabled) throws Exception {
+        if (openInView) {
+            // the request's entity manager would hold one connection, and so one shard, for the whole request
+            throw new IllegalStateException("User sharding requires spring.jpa.open-in-view=false");
+        }
+        if (replicaEnabled) {
+            throw new IllegalStateException("User sharding and the read replica cannot be enabled together");
+        }
+        if (importChunkSize > rangeSize) {
+            throw new IllegalStateException("An import chunk of " + importChunkSize
+                    + " users does not fit in one shard's id range of " + rangeSize);
+        }
+
+        Binder binder = Binder.get(environment);
+        List<DataSourceProperties> shardProperties = binder.bind(SHARDS, Bindable.listOf(DataSourceProperties.class))
+                .orElseThrow(() -> new IllegalStateException("User sharding requires " + SHARDS + "[0].url"));
+        List<HikariDataSource> pools = new ArrayList<>();
+        for (int shard = 0; shard < shardProperties.size(); shard++) {
+            DataSourceProperties properties = shardProperties.get(shard);
+            properties.afterPropertiesSet();
+            HikariDataSource pool = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+            pool.setPoolName("shard-" + shard);
+            binder.bind(SHARDS + "[" + shard + "].hikari", Bindable.ofInstance(pool));
+            migrate(pool, shard == 0 ? pool : pools.get(0), shard, shardProperties.size(), rangeSize, resourceLoader,
+                    changeLog);
+            pools.add(pool);
+        }
+        return new ShardRoutingDataSource(pools);
+    }
+
+    @Bean
+    public UserShards userShards(ObjectProvider<DataSource> dataSource,
+                                 @Value("${codereview.users.sharding.enabled:false}") boolean enabled,
+                                 @Value("${codereview.users.sharding.range-size:100000}") long rangeSize,
+                                 @Value("${codereview.users.sharding.scatter-threads:8}") int scatterThreads) {
+        if (!enabled) {
+            return UserShards.single();
+        }
+        ShardRoutingDataSource shards = (ShardRoutingDataSource) dataSource.getObject();
+        return new UserShards(shards.count(), rangeSize, shards::nextUserIdBlock, scatterThreads);
+    }
+
+    @Bean
+    public UserEmailClaims userEmailClaims(ObjectProvider<DataSource> dataSource, UserShards shards,
+                                           @Value("${codereview.users.sharding.enabled:false}") boolean enabled,
+                                           @Value("${codereview.users.sharding.email-claim-lease:1m}") Duration lease) {
+        if (!enabled) {
+            return UserEmailClaims.none();
+        }
+        return new UserEmailClaims(shards, ((ShardRoutingDataSource) dataSource.getObject()).pools(), lease);
+    }
+
+    /**
+     * @param firstShard - where the emails of the users are claimed, migrated before any other shard
+     */
+    static void migrate(DataSource shard, DataSource firstShard, int index, int count, long rangeSize,
+                        ResourceLoader resourceLoader, String changeLog) throws Exception {
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(shard);
+        liquibase.setChangeLog(changeLog);
+        liquibase.setResourceLoader(resourceLoader);
+        liquibase.afterPropertiesSet();
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(shard);
+        List<Map<String, Object>> recorded = jdbcTemplate.queryForList(
+                "SELECT shard_index, shard_count, range_size FROM shard_topology");
+        if (!recorded.isEmpty()) {
+            Map<String, Object> topology = recorded.get(0);
+            if (((Number) topology.get("SHARD_INDEX")).intValue() != index
+                    || ((Number) topology.get("SHARD_COUNT")).intValue() != count
+                    || ((Number) topology.get("RANGE_SIZE")).longValue() != rangeSize) {
+                throw new IllegalStateException("Shard " + index + " of " + count + " with ranges of " + rangeSize
+                        + " ids was set up as shard " + topology.get("SHARD_INDEX") + " of " + topology.get("SHARD_COUNT")
+                        + " with ranges of " + topology.get("RANGE_SIZE") + " ids, its users would not be found");
+            }
+            return;
+        }
+
+        for (String email : SEED_USER_EMAILS) {
+            jdbcTemplate.update("DELETE FROM user WHERE email = ? AND MOD(id / ?, ?) <> ?", email, rangeSize, count, index);
+        }
+
+        // a value of the sequence covers the block of ids up to it, the first block starts past the ids in use
+        Long used = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM email_outbox_message", Long.class);
+        long restart = Math.max(used, index * OUTBOX_ID_SPAN) + OUTBOX_ID_BLOCK;
+        jdbcTemplate.execute("ALTER SEQUENCE email_outbox_message_seq RESTART WITH " + restart);
+        claimEmails(shard, firstShard, index, count, rangeSize);
+
+        // recorded last, a start that stops half way repeats the steps above next time
+        jdbcTemplate.update("INSERT INTO shard_topology (shard_index, shard_count, range_size) VALUES (?, ?, ?)",
+                index, count, rangeSize);
+    }
+
+    /**
+     * Claims the emails of the users a shard started with, see {@link UserEmailClaims}. Claims of an earlier
+     * attempt are replaced, an email that is on another shard as well stops the start.
+     */
+    private static void claimEmails(DataSource shard, DataSource firstShard, int index, int count, long rangeSize) {
+        JdbcTemplate claimTemplate = new JdbcTemplate(firstShard);
+        claimTemplate.update("DELETE FROM user_email_claim WHERE MOD(user_id / ?, ?) = ?", rangeSize, count, index);
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Object[]> claims = new JdbcTemplate(shard).query("SELECT normalized_email, id FROM user",
+                (row, rowNum) -> new Object[]{row.getString(1), row.getLong(2), now});
+        claimTemplate.batchUpdate(
+                "INSERT INTO user_email_claim (normalized_email, user_id, claimed_at) VALUES (?, ?, ?)", claims);
+    }
+}
@@ -0,0 +1,39 @@
+package com.carsaver.codereview.model;
+
+import lombok.Data;
+
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import java.time.Instant;
+
+@Entity
+@Data
+public class EmailOutboxMessage {
+    @Id
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="email_outbox_message_seq")
+    @SequenceGenerator(name="email_outbox_message_seq", sequenceName="email_outbox_message_seq", allocationSize=50)
+    private Long id;
+    private String email;
+    @Enumerated(EnumType.STRING)
+    private Status status;
+    private int attempts;
+    private Instant createdAt;
+    /**
+     * Due time of the next attempt, or while the message is SENDING, the end of its claim.
+     */
+    private Instant nextAttemptAt;
+    private String lastError;
+    /**
+     * Claim of the dispatch that is sending the message.
+     */
+    private String claimedBy;
+
+    public enum Status {
+        PENDING, SENDING, SENT, FAILED
+    }
+}
@@ -1,21 +1,34 @@
 package com.carsaver.codereview.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Version;
+import java.util.Locale;
 
 @Entity
+@DynamicUpdate
 @Data
 @Getter
 @Setter
 public class User {
     @Id
-    @GeneratedValue(strategy=GenerationType.IDENTITY)
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="user_seq")
+    @GenericGenerator(name="user_seq", strategy="com.carsaver.codereview.repository.UserIdGenerator", parameters={
+            @Parameter(name="sequence_name", value="user_seq"),
+            @Parameter(name="increment_size", value="50"),
+            @Parameter(name="optimizer", value="pooled")})
     private Long id;
     private String firstName;
     private String lastName;
@@ -23,8 +36,63 @@ public class User {
     private Boolean enabled;
     private String city;
     private String zipCode;
+    @JsonIgnore
+    private String normalizedEmail;
+    /**
+     * What searches compare the city and last name against, set from them whenever the user is written.
+     */
+    @JsonIgnore
+    private String normalizedCity;
+    @JsonIgnore
+    private String normalizedLastName;
+    /**
+     * Incremented on every update, guards against lost updates and is the user's ETag.
+     */
+    @Version
+    private Long version;
 
     public boolean isEnabled() {
         return enabled;
     }
+
+    /**
+     * @return - a detached copy of this user that can be handed out without sharing state.
+     */
+    public User copy() {
+        User copy = new User();
+        copy.setId(id);
+        copy.setFirstName(firstName);
+        copy.setLastName(lastName);
+        copy.setEmail(email);
+        copy.setEnabled(enabled);
+        copy.setCity(city);
+        copy.setZipCode(zipCode);
+        copy.setNormalizedEmail(normalizedEmail);
+        copy.setNormalizedCity(normalizedCity);
+        copy.setNormalizedLastName(normalizedLastName);
+        copy.setVersion(version);
+        return copy;
+    }
+
+    /**
+     * @return - the form of an email address that uniqueness is enforced on.
+     */
+    public static String normalizeEmail(String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return - the form of a city or last name that searches compare, it matches the computed search columns.
+     */
+    public static String normalizeName(String name) {
+        return name == null ? null : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    @PrePersist
+    @PreUpdate
+    void normalize() {
+        normalizedEmail = normalizeEmail(email);
+        normalizedCity = normalizeName(city);
+        normalizedLastName = normalizeName(lastName);
+    }
 }
@@ -0,0 +1,18 @@
+package com.carsaver.codereview.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * One item of a bulk update: the id of the user and the attributes to change, as in a PATCH of that user.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserBulkUpdate {
+    private Long id;
+    private Map<String, String> updates;
+}
@@ -0,0 +1,28 @@
+package com.carsaver.codereview.model;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk update, one {@link Item} per item of the payload in the order they were sent.
+ */
+@Value
+public class UserBulkUpdateReport {
+    int updated;
+    int failed;
+    List<Item> items;
+
+    @Value
+    public static class Item {
+        int index;
+        Long id;
+        Status status;
+        Long version;
+        String message;
+    }
+
+    public enum Status {
+        UPDATED, NOT_FOUND, INVALID, DUPLICATE, CONFLICT
+    }
+}
@@ -0,0 +1,28 @@
+package com.carsaver.codereview.model;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk user import, one {@link Row} per row of the payload in the order they were sent.
+ */
+@Value
+public class UserImportReport {
+    int created;
+    int rejected;
+    List<Row> rows;
+
+    @Value
+    public static class Row {
+        int row;
+        String email;
+        Status status;
+        Long id;
+        String message;
+    }
+
+    public enum Status {
+        CREATED, INVALID, DUPLICATE
+    }
+}
@@ -0,0 +1,10 @@
+package com.carsaver.codereview.model;
+
+/**
+ * Projection of {@link User} with only the columns needed to display a name.
+ */
+public interface UserName {
+    Long getId();
+    String getFirstName();
+    String getLastName();
+}
@@ -0,0 +1,15 @@
+package com.carsaver.codereview.model;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * One page of users ordered by id. {@code nextAfterId} is the cursor for the following page, it is null on the last page.
+ */
+@Value
+public class UserPage {
+    List<User> users;
+    Long nextAfterId;
+    int limit;
+}
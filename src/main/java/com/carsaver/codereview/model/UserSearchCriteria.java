@@ -0,0 +1,19 @@
+package com.carsaver.codereview.model;
+
+import lombok.Value;
+
+/**
+ * Filters of a user search, null filters are not applied. City and last name match case-insensitively, the last
+ * name as a prefix.
+ */
+@Value
+public class UserSearchCriteria {
+    String city;
+    String zipCode;
+    String lastNamePrefix;
+    Boolean enabled;
+
+    public boolean isEmpty() {
+        return city == null && zipCode == null && lastNamePrefix == null && enabled == null;
+    }
+}
@@ -0,0 +1,34 @@
+package com.carsaver.codereview.repository;
+
+import com.carsaver.codereview.model.EmailOutboxMessage;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface EmailOutboxRepository extends CrudRepository<EmailOutboxMessage, Long> {
+    @Query("select m.id from EmailOutboxMessage m where m.status in :statuses and m.nextAttemptAt <= :now order by m.id")
+    List<Long> findDueIds(@Param("statuses") Collection<EmailOutboxMessage.Status> statuses, @Param("now") Instant now, Pageable pageable);
+
+    /**
+     * Marks the messages that are still due as SENDING under the claim, messages another dispatch claimed first are left alone.
+     * @return - number of messages claimed
+     */
+    @Modifying
+    @Query("update EmailOutboxMessage m set m.status = :sending, m.claimedBy = :claim, m.nextAttemptAt = :claimedUntil "
+            + "where m.id in :ids and m.status in :statuses and m.nextAttemptAt <= :now")
+    int claim(@Param("ids") Collection<Long> ids, @Param("statuses") Collection<EmailOutboxMessage.Status> statuses,
+              @Param("now") Instant now, @Param("sending") EmailOutboxMessage.Status sending, @Param("claim") String claim,
+              @Param("claimedUntil") Instant claimedUntil);
+
+    List<EmailOutboxMessage> findByClaimedByOrderByIdAsc(String claimedBy);
+
+    long countByStatus(EmailOutboxMessage.Status status);
+}
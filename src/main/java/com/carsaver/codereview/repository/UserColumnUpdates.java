@@ -0,0 +1,16 @@
+package com.carsaver.codereview.repository;
+
+import java.util.Map;
+
+/**
+ * Repository fragment for updates that write only the given columns of a user, without loading it first.
+ */
+public interface UserColumnUpdates {
+    /**
+     * Sets the given attributes of the user in one UPDATE and increments its version, provided it is still at
+     * {@code version}. Bypasses the persistence context and its entity listeners, callers evict cached copies.
+     * @param values - entity attribute name to new value
+     * @return - 1 when the user was updated, 0 when it does not exist or is at another version
+     */
+    int updateColumns(Long id, Long version, Map<String, ?> values);
+}
@@ -0,0 +1,44 @@
+package com.carsaver.codereview.repository;
+
+import com.carsaver.codereview.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Root;
+import java.util.Map;
+
+class UserColumnUpdatesImpl implements UserColumnUpdates {
+    private final EntityManager entityManager;
+
+    @Autowired
+    UserColumnUpdatesImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    public int updateColumns(Long id, Long version, Map<String, ?> values) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<User> update = builder.createCriteriaUpdate(User.class);
+        Root<User> user = update.from(User.class);
+        values.forEach((attribute, value) -> update.set(user.get(attribute), value));
+        // what the entity's callbacks would have normalized
+        if (values.containsKey("city")) {
+            update.set(user.get("normalizedCity"), User.normalizeName((String) values.get("city")));
+        }
+        if (values.containsKey("lastName")) {
+            update.set(user.get("normalizedLastName"), User.normalizeName((String) values.get("lastName")));
+        }
+        update.set(user.<Long>get("version"), builder.sum(user.get("version"), 1L));
+        // bound rather than inlined, so every user shares one statement
+        ParameterExpression<Long> idParameter = builder.parameter(Long.class, "id");
+        ParameterExpression<Long> versionParameter = builder.parameter(Long.class, "version");
+        update.where(builder.equal(user.get("id"), idParameter), builder.equal(user.get("version"), versionParameter));
+        return entityManager.createQuery(update)
+                .setParameter(idParameter, id)
+                .setParameter(versionParameter, version)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,196 @@
+package com.carsaver.codereview.repository;
+
+import com.carsaver.codereview.model.User;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps normalized emails unique across the user shards, where each shard's unique index only covers its own users.
+ * Every email a write gives a user is claimed in the {@code user_email_claim} table of the first shard, whose primary
+ * key turns away a second claim of it. A claim is made in the user's transaction, after the user is written, but is
+ * committed on its own straight away, so two writes of one email on different shards cannot both succeed. When the
+ * transaction completes the claims it no longer needs are released: its own if it rolled back, the user's previous
+ * emails if it committed.
+ * <p>
+ * A claim whose release was lost, to a crash or a failed statement, is taken over once it is older than the lease
+ * and its user no longer holds the email. Without sharding there is nothing to claim, the unique index covers every
+ * user.
+ */
+public class UserEmailClaims {
+    private static final Object TRANSACTION_CLAIMS = new Object();
+
+    private final UserShards shards;
+
+    /**
+     * Directly on each shard's pool, outside of any transaction, so every statement commits on its own.
+     */
+    private final List<JdbcTemplate> shardTemplates;
+
+    private final Duration lease;
+
+    /**
+     * @param shardDataSources - the pool of each shard, in shard order
+     * @param lease - age after which a claim its user does not hold may be taken over, longer than any transaction
+     */
+    public UserEmailClaims(UserShards shards, List<? extends DataSource> shardDataSources, Duration lease) {
+        this.shards = shards;
+        this.shardTemplates = shardDataSources.stream().map(JdbcTemplate::new).collect(Collectors.toList());
+        this.lease = lease;
+    }
+
+    private UserEmailClaims() {
+        this.shards = null;
+        this.shardTemplates = null;
+        this.lease = null;
+    }
+
+    /**
+     * @return - the claims of an unsharded database, where the unique index alone keeps emails unique
+     */
+    public static UserEmailClaims none() {
+        return new UserEmailClaims();
+    }
+
+    public boolean isEnabled() {
+        return shardTemplates != null;
+    }
+
+    /**
+     * Claims the user's email for it, in the transaction that writes the user.
+     * @throws DuplicateKeyException - when the email belongs to another user
+     * @throws IllegalStateException - when there is no transaction to release the claim with
+     */
+    public void claim(User user) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Emails are claimed in the transaction that writes the user");
+        }
+
+        String email = User.normalizeEmail(user.getEmail());
+        boolean inserted = insert(email, user.getId());
+        Claims claims = transactionClaims();
+        claims.users.put(user.getId(), user);
+        if (inserted) {
+            claims.inserted.put(email, user.getId());
+        }
+    }
+
+    /**
+     * Releases every email of a user, once its delete has committed.
+     */
+    public void releaseAll(Long userId) {
+        if (isEnabled()) {
+            firstShard().update("DELETE FROM user_email_claim WHERE user_id = ?", userId);
+        }
+    }
+
+    /**
+     * @return - false when the user already held the claim
+     */
+    private boolean insert(String email, Long userId) {
+        try {
+            insertClaim(email, userId);
+            return true;
+        } catch (DuplicateKeyException exception) {
+            List<Map<String, Object>> claim = firstShard().queryForList(
+                    "SELECT user_id, claimed_at FROM user_email_claim WHERE normalized_email = ?", email);
+            if (claim.isEmpty()) {
+                // released in between, a concurrent claim may still win
+                insertClaim(email, userId);
+                return true;
+            }
+
+            long owner = ((Number) claim.get(0).get("USER_ID")).longValue();
+            if (owner == userId) {
+                return false;
+            }
+            Instant claimedAt = ((Timestamp) claim.get(0).get("CLAIMED_AT")).toInstant();
+            // a young claim may be a write that has not committed yet
+            if (claimedAt.plus(lease).isAfter(Instant.now()) || holds(owner, email)) {
+                throw exception;
+            }
+            firstShard().update("DELETE FROM user_email_claim WHERE normalized_email = ? AND user_id = ?", email, owner);
+            insertClaim(email, userId);
+            return true;
+        }
+    }
+
+    private void insertClaim(String email, Long userId) {
+        firstShard().update("INSERT INTO user_email_claim (normalized_email, user_id, claimed_at) VALUES (?, ?, ?)",
+                email, userId, Timestamp.from(Instant.now()));
+    }
+
+    private boolean holds(long userId, String email) {
+        return shardTemplates.get(shards.shardOf(userId))
+                .queryForList("SELECT normalized_email FROM user WHERE id = ?", String.class, userId)
+                .contains(email);
+    }
+
+    private JdbcTemplate firstShard() {
+        return shardTemplates.get(0);
+    }
+
+    private Claims transactionClaims() {
+        Claims claims = (Claims) TransactionSynchronizationManager.getResource(TRANSACTION_CLAIMS);
+        if (claims != null) {
+            return claims;
+        }
+
+        Claims created = new Claims();
+        TransactionSynchronizationManager.bindResource(TRANSACTION_CLAIMS, created);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void suspend() {
+                TransactionSynchronizationManager.unbindResource(TRANSACTION_CLAIMS);
+            }
+
+            @Override
+            public void resume() {
+                TransactionSynchronizationManager.bindResource(TRANSACTION_CLAIMS, created);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(TRANSACTION_CLAIMS);
+                // a release that fails here is logged by Spring, the claim is taken over once its lease is up
+                if (status == STATUS_COMMITTED) {
+                    created.users.forEach((id, user) -> firstShard().update(
+                            "DELETE FROM user_email_claim WHERE user_id = ? AND normalized_email <> ?",
+                            id, User.normalizeEmail(user.getEmail())));
+                } else if (status == STATUS_ROLLED_BACK) {
+                    created.inserted.forEach((email, id) -> firstShard().update(
+                            "DELETE FROM user_email_claim WHERE normalized_email = ? AND user_id = ?", email, id));
+                }
+            }
+        });
+        return created;
+    }
+
+    /**
+     * Claims of one transaction.
+     */
+    private static final class Claims {
+        /**
+         * Users whose emails were claimed, their emails once the transaction committed are the ones they keep.
+         */
+        private final Map<Long, User> users = new HashMap<>();
+
+        /**
+         * Normalized email to user id of the claims the transaction made, rather than found already held.
+         */
+        private final Map<String, Long> inserted = new HashMap<>();
+    }
+}
@@ -0,0 +1,18 @@
+package com.carsaver.codereview.repository;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+import java.io.Serializable;
+
+/**
+ * The user sequence, except that a new user that already has an id keeps it. With sharding the id decides the
+ * shard the user is inserted on, so it is allocated before the insert, see {@link UserShards#allocate}.
+ */
+public class UserIdGenerator extends SequenceStyleGenerator {
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        Serializable id = session.getEntityPersister(null, object).getIdentifier(object, session);
+        return id != null ? id : super.generate(session, object);
+    }
+}
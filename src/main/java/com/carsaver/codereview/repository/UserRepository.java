@@ -2,13 +2,51 @@ package com.carsaver.codereview.repository;
 
 
 import com.carsaver.codereview.model.User;
-import org.springframework.data.repository.CrudRepository;
+import com.carsaver.codereview.model.UserName;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 @Repository
-public interface UserRepository extends CrudRepository<User, Long> {
+public interface UserRepository extends JpaRepository<User, Long>, UserColumnUpdates, UserSearch {
     List<User> findAllByOrderByIdAsc();
+    List<User> findAllByOrderByIdAsc(Pageable pageable);
+    List<User> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
     User findUserByEmail(String email);
+    boolean existsByNormalizedEmail(String normalizedEmail);
+
+    @Query("select u.normalizedEmail from User u where u.normalizedEmail in :normalizedEmails")
+    Set<String> findExistingNormalizedEmails(@Param("normalizedEmails") Collection<String> normalizedEmails);
+
+    @Query("select u.id as id, u.firstName as firstName, u.lastName as lastName from User u")
+    List<UserName> findAllNames();
+
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HINT_READONLY, value = "true"),
+            @QueryHint(name = HINT_CACHEABLE, value = "false")
+    })
+    @Query("select u from User u order by u.id")
+    Stream<User> streamAllByOrderByIdAsc();
+
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HINT_READONLY, value = "true"),
+            @QueryHint(name = HINT_CACHEABLE, value = "false")
+    })
+    @Query("select u.normalizedEmail from User u")
+    Stream<String> streamAllNormalizedEmails();
 }
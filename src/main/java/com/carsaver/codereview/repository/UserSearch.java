@@ -0,0 +1,19 @@
+package com.carsaver.codereview.repository;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserSearchCriteria;
+
+import java.util.List;
+
+/**
+ * Repository fragment for searches by any combination of city, zip code, last name prefix and enabled.
+ */
+public interface UserSearch {
+    /**
+     * Finds the users matching every filter of the criteria, ordered by id. Each filter is served by an index
+     * of the search changelog, pages seek past {@code afterId} rather than skipping rows.
+     * @param afterId - id of the last user of the previous page, null for the first page
+     * @param limit - most users to return
+     */
+    List<User> search(UserSearchCriteria criteria, Long afterId, int limit);
+}
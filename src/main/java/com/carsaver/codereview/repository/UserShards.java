@@ -0,0 +1,221 @@
+package com.carsaver.codereview.repository;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Layout of the user table over its shards. Ids are cut into ranges of {@code rangeSize} that are dealt to the
+ * shards in turn, so the shard of a user follows from its id alone and new users spread over every shard. The
+ * email outbox rows of a write live on the shard of the user it wrote.
+ * <p>
+ * A transaction only ever talks to one shard: the first user it routes to, or the first shard when it touches the
+ * database before that. Work on another shard runs with {@link #on}, outside of the caller's transaction. Without
+ * sharding there is a single shard and none of this does anything.
+ */
+public class UserShards {
+    /**
+     * Ids the sequence hands out per value, the sequence's increment.
+     */
+    static final int ID_BLOCK = 50;
+
+    private static final ThreadLocal<Integer> PINNED = new ThreadLocal<>();
+
+    private static final Object TRANSACTION_SHARD = new Object();
+
+    private final int count;
+
+    private final long rangeSize;
+
+    private final LongSupplier sequence;
+
+    private final ExecutorService scatter;
+
+    private long nextId;
+
+    private long lastId = -1;
+
+    /**
+     * @param sequence - next value of the global id sequence, it covers the {@link #ID_BLOCK} ids up to it
+     * @param scatterThreads - threads that query the shards in parallel
+     */
+    public UserShards(int count, long rangeSize, LongSupplier sequence, int scatterThreads) {
+        this.count = count;
+        this.rangeSize = rangeSize;
+        this.sequence = sequence;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.scatter = Executors.newFixedThreadPool(scatterThreads, runnable -> {
+            Thread thread = new Thread(runnable, "user-shard-scatter-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private UserShards() {
+        this.count = 1;
+        this.rangeSize = Long.MAX_VALUE;
+        this.sequence = null;
+        this.scatter = null;
+    }
+
+    /**
+     * @return - the layout of an unsharded database, everything is on the one shard
+     */
+    public static UserShards single() {
+        return new UserShards();
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public boolean isSharded() {
+        return count > 1;
+    }
+
+    public long getRangeSize() {
+        return rangeSize;
+    }
+
+    public int shardOf(long id) {
+        return (int) Math.floorMod(Math.floorDiv(id, rangeSize), (long) count);
+    }
+
+    /**
+     * Allocates ids that all fall on one shard, so the users they go to can be inserted in one transaction. When
+     * the ids run into the next range the ones taken so far are dropped, the sequence leaves gaps anyway.
+     * @param ids - number of ids, at most the range size
+     */
+    public synchronized long[] allocate(int ids) {
+        if (ids > rangeSize) {
+            throw new IllegalArgumentException(ids + " ids do not fit in one shard's range of " + rangeSize);
+        }
+
+        long[] allocated = new long[ids];
+        int taken = 0;
+        long range = -1;
+        while (taken < ids) {
+            if (nextId > lastId) {
+                lastId = sequence.getAsLong();
+                nextId = lastId - ID_BLOCK + 1;
+            }
+            long id = nextId++;
+            if (Math.floorDiv(id, rangeSize) != range) {
+                range = Math.floorDiv(id, rangeSize);
+                taken = 0;
+            }
+            allocated[taken++] = id;
+        }
+        return allocated;
+    }
+
+    /**
+     * Ties the current transaction to the shard of the user, for transactions that write other tables before
+     * they get to the user.
+     */
+    public void useShardOf(Long id) {
+        if (isSharded() && TransactionSynchronizationManager.isSynchronizationActive()) {
+            bindToTransaction(shardOf(id));
+        }
+    }
+
+    /**
+     * Runs the work against one shard. A transaction it begins is on that shard, one it joins stays where it is,
+     * so work for another shard than the caller's transaction runs on a thread of its own.
+     */
+    public <T, E extends Throwable> T on(int shard, ShardWork<T, E> work) throws E {
+        Integer previous = PINNED.get();
+        PINNED.set(shard);
+        try {
+            return work.run();
+        } finally {
+            if (previous == null) {
+                PINNED.remove();
+            } else {
+                PINNED.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @return - the threads that query the shards in parallel, null without sharding
+     */
+    public ExecutorService scatter() {
+        return scatter;
+    }
+
+    /**
+     * Ties the current transaction to the shard, it gets its connection there.
+     * @throws IllegalStateException - when the transaction already works on another shard
+     */
+    public static void bindToTransaction(int shard) {
+        Integer bound = (Integer) TransactionSynchronizationManager.getResource(TRANSACTION_SHARD);
+        if (bound != null) {
+            if (bound != shard) {
+                throw new IllegalStateException("A transaction on shard " + bound + " cannot write to shard " + shard);
+            }
+            return;
+        }
+
+        TransactionSynchronizationManager.bindResource(TRANSACTION_SHARD, shard);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void suspend() {
+                TransactionSynchronizationManager.unbindResource(TRANSACTION_SHARD);
+            }
+
+            @Override
+            public void resume() {
+                TransactionSynchronizationManager.bindResource(TRANSACTION_SHARD, shard);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(TRANSACTION_SHARD);
+            }
+        });
+    }
+
+    /**
+     * @return - the shard a connection taken now belongs to: the one pinned with {@link #on}, else the one of the
+     * current transaction, else the first
+     */
+    public static int connectionShard() {
+        Integer pinned = PINNED.get();
+        if (pinned != null) {
+            return pinned;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return 0;
+        }
+        Integer bound = (Integer) TransactionSynchronizationManager.getResource(TRANSACTION_SHARD);
+        if (bound == null) {
+            // the transaction will hold this connection, later writes to users on other shards have to fail
+            bindToTransaction(0);
+            return 0;
+        }
+        return bound;
+    }
+
+    /**
+     * @return - whether the thread is running work for one shard, see {@link #on}
+     */
+    public static boolean isPinned() {
+        return PINNED.get() != null;
+    }
+
+    public void shutdown() {
+        if (scatter != null) {
+            scatter.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    public interface ShardWork<T, E extends Throwable> {
+        T run() throws E;
+    }
+}
@@ -0,0 +1,131 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.config.ReadYourWrites;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of threads for the calls to one dependency. When the pool and its queue are full further calls
+ * fail straight away with {@link BulkheadFullException}, and calls that take longer than the timeout fail with
+ * a {@link TimeoutException}, so a slow dependency can only tie up its own threads. A call that has started is
+ * left to finish rather than interrupted, its own timeouts bound it.
+ */
+public class Bulkhead {
+    private final String name;
+
+    private final Duration timeout;
+
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * @param threads - threads in the pool, 0 runs every call on the caller's thread with no isolation or timeout
+     */
+    public Bulkhead(String name, int threads, int queueCapacity, Duration timeout) {
+        this.name = name;
+        this.timeout = timeout;
+        if (threads <= 0) {
+            this.executor = null;
+            return;
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, name + "-bulkhead-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public <T> CompletableFuture<T> call(Callable<T> task) {
+        if (executor == null) {
+            try {
+                return CompletableFuture.completedFuture(task.call());
+            } catch (Exception exception) {
+                return CompletableFuture.failedFuture(exception);
+            }
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        // reads of the call stay on the primary when the caller's are. Completing the result runs the stages
+        // chained on it on this thread, so it has to happen before the pin is lifted too
+        Callable<Void> pinnedCall = ReadYourWrites.propagate(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Exception exception) {
+                result.completeExceptionally(exception);
+            }
+            return null;
+        });
+        Future<?> running;
+        try {
+            running = executor.submit(pinnedCall);
+        } catch (RejectedExecutionException exception) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(new BulkheadFullException(name, exception));
+        }
+
+        // a call still queued when it times out never runs, one already running is not interrupted, which could
+        // leave a JDBC connection half way through a statement
+        result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((value, exception) -> {
+                    if (exception instanceof TimeoutException) {
+                        timedOut.increment();
+                        running.cancel(false);
+                    }
+                });
+        return result;
+    }
+
+    /**
+     * @return - calls running on the pool, 0 when calls run on the caller's thread
+     */
+    public int activeCount() {
+        return executor != null ? executor.getActiveCount() : 0;
+    }
+
+    /**
+     * @return - calls waiting for a thread of the pool
+     */
+    public int queuedCount() {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    /**
+     * @return - calls turned away because the pool and its queue were full
+     */
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return - calls that failed because they took longer than the timeout
+     */
+    public long timedOutCount() {
+        return timedOut.sum();
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
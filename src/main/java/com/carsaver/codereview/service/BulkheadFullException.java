@@ -0,0 +1,8 @@
+package com.carsaver.codereview.service;
+
+public class BulkheadFullException extends RuntimeException {
+
+    public BulkheadFullException(String bulkhead, Throwable cause) {
+        super("Too many concurrent " + bulkhead + " calls", cause);
+    }
+}
@@ -0,0 +1,193 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves a user's city from their zip code in the background, so PATCH /users/{id} does not have to
+ * wait on the zip code lookup. The city is written back in its own transaction once it is known.
+ */
+@Service
+public class CityEnrichmentService {
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final ZipCodeLookupService zipCodeLookupService;
+
+    private final UserRepository repository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final boolean enabled;
+
+    private final int maxAttempts;
+
+    private final Duration retryBackoff;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Map<Long, String> pending = new ConcurrentHashMap<>();
+
+    private final Map<Long, Failure> failed = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CityEnrichmentService(ZipCodeLookupService zipCodeLookupService,
+                                 UserRepository repository,
+                                 PlatformTransactionManager transactionManager,
+                                 ApplicationEventPublisher eventPublisher,
+                                 @Value("${codereview.city-enrichment.enabled:false}") boolean enabled,
+                                 @Value("${codereview.city-enrichment.workers:2}") int workers,
+                                 @Value("${codereview.city-enrichment.queue-capacity:1000}") int queueCapacity,
+                                 @Value("${codereview.city-enrichment.max-attempts:3}") int maxAttempts,
+                                 @Value("${codereview.city-enrichment.retry-backoff:1s}") Duration retryBackoff) {
+        this.zipCodeLookupService = zipCodeLookupService;
+        this.repository = repository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "city-enrichment-" + THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues the city lookup for a user whose zip code was just saved. Inside a transaction the lookup is only
+     * handed to the workers once it commits, so they never read the row before the new zip is visible.
+     * @param userId - id of the saved user
+     * @param zipCode - zip code that was saved for the user
+     * @return - false when the queue is full and the caller has to resolve the city itself
+     */
+    public boolean enqueue(Long userId, String zipCode) {
+        if (executor.getQueue().remainingCapacity() == 0) {
+            return false;
+        }
+
+        pending.put(userId, zipCode);
+        failed.remove(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        submit(userId, zipCode);
+                    } else {
+                        pending.remove(userId, zipCode);
+                    }
+                }
+            });
+        } else {
+            submit(userId, zipCode);
+        }
+        return true;
+    }
+
+    /**
+     * @return - user id to zip code of every enrichment that has not completed yet.
+     */
+    public Map<Long, String> getPending() {
+        return Map.copyOf(pending);
+    }
+
+    /**
+     * @return - user id to the last failure of every enrichment that ran out of attempts.
+     */
+    public Map<Long, Failure> getFailed() {
+        return Map.copyOf(failed);
+    }
+
+    private void submit(Long userId, String zipCode) {
+        try {
+            executor.execute(() -> enrich(userId, zipCode));
+        } catch (RejectedExecutionException exception) {
+            // the queue filled up between the capacity check and the commit
+            pending.remove(userId, zipCode);
+            failed.put(userId, new Failure(zipCode, 0, String.valueOf(exception), Instant.now()));
+        }
+    }
+
+    private void enrich(Long userId, String zipCode) {
+        Exception lastFailure = null;
+        int attempt = 0;
+        while (attempt < maxAttempts) {
+            attempt++;
+            try {
+                String city = zipCodeLookupService.lookupCityByZip(zipCode);
+                writeCity(userId, zipCode, city);
+                pending.remove(userId, zipCode);
+                return;
+            } catch (Exception exception) {
+                lastFailure = exception;
+            }
+
+            if (attempt < maxAttempts && !sleep(retryBackoff.multipliedBy(attempt))) {
+                break;
+            }
+        }
+
+        pending.remove(userId, zipCode);
+        failed.put(userId, new Failure(zipCode, attempt, String.valueOf(lastFailure), Instant.now()));
+    }
+
+    private void writeCity(Long userId, String zipCode, String city) {
+        transactionTemplate.executeWithoutResult(status ->
+                // the zip may have changed again while we were looking it up, that newer update owns the city
+                repository.findById(userId)
+                        .filter(user -> zipCode.equals(user.getZipCode()))
+                        .ifPresent(user -> {
+                            user.setCity(city);
+                            repository.save(user);
+                            eventPublisher.publishEvent(UserChangedEvent.saved(user));
+                        }));
+    }
+
+    private static boolean sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+            return true;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @lombok.Value
+    public static class Failure {
+        String zipCode;
+        int attempts;
+        String error;
+        Instant failedAt;
+    }
+}
@@ -0,0 +1,212 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+/**
+ * Bloom filter of every normalized email in the user table. When it says an email is absent it definitely is,
+ * so signups for new addresses skip the existence check. It is built from a streaming scan once the application
+ * is up, updated on every write, and rebuilt periodically because a Bloom filter cannot forget deleted emails.
+ */
+@Component
+public class EmailBloomFilter {
+    private final UserRepository repository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+
+    private final long expectedInsertions;
+
+    private final double falsePositiveRate;
+
+    private volatile Bits bits;
+
+    // emails added while a rebuild is scanning the table, replayed into the new filter before it is swapped in
+    private List<String> addedDuringRebuild;
+
+    @Autowired
+    public EmailBloomFilter(UserRepository repository,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${codereview.users.email-filter.enabled:true}") boolean enabled,
+                            @Value("${codereview.users.email-filter.expected-insertions:1000000}") long expectedInsertions,
+                            @Value("${codereview.users.email-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.repository = repository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.enabled = enabled;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return - false only if no user has this email, true if one might.
+     */
+    public boolean mightContain(String email) {
+        Bits current = bits;
+        return current == null || current.mightContain(User.normalizeEmail(email));
+    }
+
+    public synchronized void put(String email) {
+        String normalizedEmail = User.normalizeEmail(email);
+        if (bits != null) {
+            bits.put(normalizedEmail);
+        }
+        if (addedDuringRebuild != null) {
+            addedDuringRebuild.add(normalizedEmail);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        if (enabled) {
+            rebuild();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${codereview.users.email-filter.rebuild-interval-ms:3600000}",
+            initialDelayString = "${codereview.users.email-filter.rebuild-interval-ms:3600000}")
+    public void scheduledRebuild() {
+        if (enabled) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Scans the user table into a new filter and swaps it in.
+     * @return - number of emails in the new filter
+     */
+    public long rebuild() {
+        synchronized (this) {
+            addedDuringRebuild = new ArrayList<>();
+        }
+
+        Bits rebuilt = new Bits(expectedInsertions, falsePositiveRate);
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<String> emails = repository.streamAllNormalizedEmails()) {
+                    emails.forEach(rebuilt::put);
+                }
+            });
+
+            synchronized (this) {
+                addedDuringRebuild.forEach(rebuilt::put);
+                bits = rebuilt;
+            }
+        } finally {
+            synchronized (this) {
+                addedDuringRebuild = null;
+            }
+        }
+        return rebuilt.count();
+    }
+
+    /**
+     * @return - false positive rate for the number of emails currently in the filter.
+     */
+    public double expectedFalsePositiveRate() {
+        Bits current = bits;
+        return current == null ? 1.0 : current.expectedFalsePositiveRate();
+    }
+
+    public long count() {
+        Bits current = bits;
+        return current == null ? 0 : current.count();
+    }
+
+    public long memoryBytes() {
+        Bits current = bits;
+        return current == null ? 0 : current.memoryBytes();
+    }
+
+    private static final class Bits {
+        private final AtomicLongArray words;
+
+        private final long bitSize;
+
+        private final int hashFunctions;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private Bits(long expectedInsertions, double falsePositiveRate) {
+            // standard sizing: m = -n ln p / (ln 2)^2 bits and k = m / n ln 2 hash functions
+            long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            int wordCount = (int) Math.max(1, (optimalBits + 63) / 64);
+            this.words = new AtomicLongArray(wordCount);
+            this.bitSize = wordCount * 64L;
+            this.hashFunctions = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+        }
+
+        private void put(String normalizedEmail) {
+            long hash1 = hash(normalizedEmail, 0xcbf29ce484222325L);
+            long hash2 = hash(normalizedEmail, 0x84222325cbf29ce4L);
+            for (int i = 0; i < hashFunctions; i++) {
+                long bit = Math.floorMod(hash1 + i * hash2, bitSize);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long current;
+                do {
+                    current = words.get(word);
+                } while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask));
+            }
+            count.incrementAndGet();
+        }
+
+        private boolean mightContain(String normalizedEmail) {
+            long hash1 = hash(normalizedEmail, 0xcbf29ce484222325L);
+            long hash2 = hash(normalizedEmail, 0x84222325cbf29ce4L);
+            for (int i = 0; i < hashFunctions; i++) {
+                long bit = Math.floorMod(hash1 + i * hash2, bitSize);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private double expectedFalsePositiveRate() {
+            return Math.pow(1 - Math.exp(-hashFunctions * (double) count.get() / bitSize), hashFunctions);
+        }
+
+        private long count() {
+            return count.get();
+        }
+
+        private long memoryBytes() {
+            return bitSize / 8;
+        }
+
+        // FNV-1a over the chars followed by a 64 bit finalizer, seeded so the two hashes are independent
+        private static long hash(String value, long seed) {
+            long hash = seed;
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.carsaver.codereview.service;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Hands mail to the mail sink. Callers should go through {@link EmailService} so sends are recorded
+ * in the outbox rather than made on the request path.
+ */
+@Component
+public class EmailClient {
+
+    public void sendConfirmation(String email) {
+        System.out.print("sending confirmation to " + email);
+    }
+
+}
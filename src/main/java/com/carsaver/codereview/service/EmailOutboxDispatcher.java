@@ -0,0 +1,183 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.EmailOutboxMessage;
+import com.carsaver.codereview.repository.EmailOutboxRepository;
+import com.carsaver.codereview.repository.UserShards;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Drains the email outbox in batches. Each batch is claimed before it is sent, so dispatchers on several
+ * instances never send the same message; a claim that is not settled within the claim lease, because its
+ * instance stopped, is taken over by the next dispatch. Messages for the same address are sent once per batch,
+ * and an address that was confirmed within the dedup window is not sent to again. Failed sends are retried with
+ * exponential backoff until they run out of attempts. With sharding every shard's outbox is drained in turn.
+ */
+@Component
+public class EmailOutboxDispatcher {
+    private static final List<EmailOutboxMessage.Status> CLAIMABLE =
+            List.of(EmailOutboxMessage.Status.PENDING, EmailOutboxMessage.Status.SENDING);
+
+    private final EmailOutboxRepository outboxRepository;
+
+    private final EmailClient emailClient;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final UserShards shards;
+
+    private final boolean enabled;
+
+    private final int batchSize;
+
+    private final int maxAttempts;
+
+    private final Duration retryBackoff;
+
+    private final Duration claimLease;
+
+    private final ExecutorService senders;
+
+    private final Cache<String, Boolean> recentlySent;
+
+    @Autowired
+    public EmailOutboxDispatcher(EmailOutboxRepository outboxRepository,
+                                 EmailClient emailClient,
+                                 PlatformTransactionManager transactionManager,
+                                 UserShards shards,
+                                 @Value("${codereview.email.outbox.enabled:true}") boolean enabled,
+                                 @Value("${codereview.email.outbox.batch-size:100}") int batchSize,
+                                 @Value("${codereview.email.outbox.concurrency:4}") int concurrency,
+                                 @Value("${codereview.email.outbox.max-attempts:5}") int maxAttempts,
+                                 @Value("${codereview.email.outbox.retry-backoff:30s}") Duration retryBackoff,
+                                 @Value("${codereview.email.outbox.dedup-window:10m}") Duration dedupWindow,
+                                 @Value("${codereview.email.outbox.claim-lease:5m}") Duration claimLease) {
+        this.outboxRepository = outboxRepository;
+        this.emailClient = emailClient;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.shards = shards;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+        this.claimLease = claimLease;
+        this.senders = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "email-outbox-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.recentlySent = Caffeine.newBuilder()
+                .expireAfterWrite(dedupWindow)
+                .maximumSize(100_000)
+                .build();
+    }
+
+    @Scheduled(fixedDelayString = "${codereview.email.outbox.poll-interval-ms:1000}")
+    public void dispatch() {
+        if (!enabled) {
+            return;
+        }
+
+        for (int shard = 0; shard < shards.count(); shard++) {
+            shards.on(shard, () -> {
+                // keep draining while batches come back full, a partial batch means the outbox is caught up
+                int dispatched;
+                do {
+                    dispatched = dispatchBatch();
+                } while (dispatched == batchSize);
+                return dispatched;
+            });
+        }
+    }
+
+    /**
+     * Claims one batch of due messages, sends them and records the outcome of each.
+     * @return - number of messages this dispatch claimed
+     */
+    public int dispatchBatch() {
+        Instant now = Instant.now();
+        String claim = UUID.randomUUID().toString();
+        List<EmailOutboxMessage> due = transactionTemplate.execute(status -> {
+            List<Long> ids = outboxRepository.findDueIds(CLAIMABLE, now, PageRequest.of(0, batchSize));
+            if (ids.isEmpty()) {
+                return List.of();
+            }
+            // only the rows this update changed are ours, another instance may have claimed the rest since the read
+            outboxRepository.claim(ids, CLAIMABLE, now, EmailOutboxMessage.Status.SENDING, claim, now.plus(claimLease));
+            return outboxRepository.findByClaimedByOrderByIdAsc(claim);
+        });
+        if (due == null || due.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, List<EmailOutboxMessage>> byAddress = new LinkedHashMap<>();
+        due.forEach(message -> byAddress.computeIfAbsent(normalize(message.getEmail()), key -> new ArrayList<>()).add(message));
+
+        List<CompletableFuture<Void>> sends = new ArrayList<>();
+        byAddress.forEach((address, messages) -> sends.add(CompletableFuture
+                .runAsync(() -> send(address, messages.get(0).getEmail()), senders)
+                .handle((ignored, exception) -> {
+                    messages.forEach(message -> recordOutcome(message, exception, now));
+                    return null;
+                })));
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).join();
+
+        transactionTemplate.executeWithoutResult(status -> outboxRepository.saveAll(due));
+        return due.size();
+    }
+
+    private void send(String address, String email) {
+        if (recentlySent.getIfPresent(address) != null) {
+            return;
+        }
+        emailClient.sendConfirmation(email);
+        recentlySent.put(address, Boolean.TRUE);
+    }
+
+    private void recordOutcome(EmailOutboxMessage message, Throwable exception, Instant now) {
+        message.setAttempts(message.getAttempts() + 1);
+        message.setClaimedBy(null);
+        if (exception == null) {
+            message.setStatus(EmailOutboxMessage.Status.SENT);
+            message.setLastError(null);
+            return;
+        }
+
+        message.setLastError(String.valueOf(exception.getCause() != null ? exception.getCause() : exception));
+        if (message.getAttempts() >= maxAttempts) {
+            message.setStatus(EmailOutboxMessage.Status.FAILED);
+        } else {
+            message.setStatus(EmailOutboxMessage.Status.PENDING);
+            message.setNextAttemptAt(now.plus(retryBackoff.multipliedBy(1L << (message.getAttempts() - 1))));
+        }
+    }
+
+    private static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        senders.shutdownNow();
+    }
+}
@@ -1,17 +1,68 @@
 package com.carsaver.codereview.service;
 
-import com.carsaver.codereview.model.User;
-import com.carsaver.codereview.repository.UserRepository;
+import com.carsaver.codereview.model.EmailOutboxMessage;
+import com.carsaver.codereview.repository.EmailOutboxRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-import java.util.Optional;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.stream.Collectors;
 
 @Service
 public class EmailService {
+    private final EmailOutboxRepository outboxRepository;
 
+    private final EmailClient emailClient;
+
+    private final boolean outboxEnabled;
+
+    @Autowired
+    public EmailService(EmailOutboxRepository outboxRepository, EmailClient emailClient,
+                        @Value("${codereview.email.outbox.enabled:true}") boolean outboxEnabled) {
+        this.outboxRepository = outboxRepository;
+        this.emailClient = emailClient;
+        this.outboxEnabled = outboxEnabled;
+    }
+
+    /**
+     * Records a confirmation email in the outbox, it joins the caller's transaction so the email is only
+     * sent if the user change commits. {@link EmailOutboxDispatcher} delivers it afterwards.
+     * @param email - address to confirm
+     */
     public void sendConfirmation(String email) {
-        System.out.print("sending confirmation to " + email);
+        if (!outboxEnabled) {
+            emailClient.sendConfirmation(email);
+            return;
+        }
+
+        outboxRepository.save(pendingMessage(email, Instant.now()));
+    }
+
+    /**
+     * Records confirmation emails for several addresses in one go, see {@link #sendConfirmation(String)}.
+     * @param emails - addresses to confirm
+     */
+    public void sendConfirmations(Collection<String> emails) {
+        if (!outboxEnabled) {
+            emails.forEach(emailClient::sendConfirmation);
+            return;
+        }
+
+        Instant now = Instant.now();
+        outboxRepository.saveAll(emails.stream()
+                .map(email -> pendingMessage(email, now))
+                .collect(Collectors.toList()));
+    }
+
+    private static EmailOutboxMessage pendingMessage(String email, Instant now) {
+        EmailOutboxMessage message = new EmailOutboxMessage();
+        message.setEmail(email);
+        message.setStatus(EmailOutboxMessage.Status.PENDING);
+        message.setCreatedAt(now);
+        message.setNextAttemptAt(now);
+        return message;
     }
 
 }
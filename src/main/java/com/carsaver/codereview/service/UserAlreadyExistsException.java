@@ -0,0 +1,8 @@
+package com.carsaver.codereview.service;
+
+public class UserAlreadyExistsException extends Exception {
+
+    public UserAlreadyExistsException(String email, Throwable cause) {
+        super("User already exist: " + email, cause);
+    }
+}
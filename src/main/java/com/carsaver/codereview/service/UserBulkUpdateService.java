@@ -0,0 +1,250 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.config.UserApiProperties;
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserBulkUpdate;
+import com.carsaver.codereview.model.UserBulkUpdateReport;
+import com.carsaver.codereview.repository.UserEmailClaims;
+import com.carsaver.codereview.repository.UserRepository;
+import com.carsaver.codereview.repository.UserShards;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Applies the same updates as PATCH /users/{id} to many users at once. The distinct zip codes of the whole
+ * payload are resolved first, in batches that run in parallel on the zip lookup bulkhead. The items are then
+ * handled in chunks: each chunk loads its users with one IN query and writes them in its own transaction,
+ * so the updates go out as JDBC batches. Confirmation emails go to the outbox with the chunk. With sharding a
+ * chunk only holds users of one shard, and the emails it changes are claimed across the shards before it commits,
+ * see {@link UserEmailClaims}.
+ */
+@Service
+public class UserBulkUpdateService {
+    private final UserRepository repository;
+
+    private final EmailService emailService;
+
+    private final ZipCodeLookupService zipCodeLookupService;
+
+    private final UserBulkheads bulkheads;
+
+    private final EmailBloomFilter emailFilter;
+
+    private final UserApiProperties properties;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final UserShards shards;
+
+    private final UserEmailClaims emailClaims;
+
+    @Autowired
+    public UserBulkUpdateService(UserRepository repository, EmailService emailService,
+                                 ZipCodeLookupService zipCodeLookupService, UserBulkheads bulkheads,
+                                 EmailBloomFilter emailFilter, UserApiProperties properties,
+                                 PlatformTransactionManager transactionManager, ApplicationEventPublisher eventPublisher,
+                                 UserShards shards, UserEmailClaims emailClaims) {
+        this.repository = repository;
+        this.emailService = emailService;
+        this.zipCodeLookupService = zipCodeLookupService;
+        this.bulkheads = bulkheads;
+        this.emailFilter = emailFilter;
+        this.properties = properties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.eventPublisher = eventPublisher;
+        this.shards = shards;
+        this.emailClaims = emailClaims;
+    }
+
+    /**
+     * @param updates - the users to update, an id may appear more than once, its updates apply in order
+     */
+    public UserBulkUpdateReport update(List<UserBulkUpdate> updates) {
+        BulkUpdate bulkUpdate = new BulkUpdate();
+        Map<Integer, List<Integer>> validByShard = new LinkedHashMap<>();
+        Set<String> zipCodes = new LinkedHashSet<>();
+        for (int index = 0; index < updates.size(); index++) {
+            UserBulkUpdate update = updates.get(index);
+            String invalid = validate(update);
+            if (invalid != null) {
+                bulkUpdate.reject(index, update, UserBulkUpdateReport.Status.INVALID, invalid);
+                continue;
+            }
+            validByShard.computeIfAbsent(shards.shardOf(update.getId()), shard -> new ArrayList<>()).add(index);
+            if (UserService.needsCityLookup(update.getUpdates())) {
+                zipCodes.add(update.getUpdates().get("zipCode"));
+            }
+        }
+
+        Map<String, String> cities = resolveCities(zipCodes);
+        int chunkSize = properties.getBulkUpdateChunkSize();
+        for (List<Integer> valid : validByShard.values()) {
+            for (int from = 0; from < valid.size(); from += chunkSize) {
+                List<Integer> chunk = valid.subList(from, Math.min(from + chunkSize, valid.size()));
+                bulkUpdate.flushChunk(chunk, updates, cities);
+            }
+        }
+        return bulkUpdate.finish();
+    }
+
+    /**
+     * Looks every zip code up once. A batch the bulkhead has no room for is looked up on the caller's thread.
+     * @return - zip code to city for the zip codes that have one
+     */
+    private Map<String, String> resolveCities(Set<String> zipCodes) {
+        if (zipCodes.isEmpty()) {
+            return Map.of();
+        }
+
+        List<String> pending = new ArrayList<>(zipCodes);
+        int batchSize = properties.getBulkUpdateZipBatchSize();
+        List<List<String>> batches = new ArrayList<>();
+        List<CompletableFuture<Map<String, String>>> lookups = new ArrayList<>();
+        for (int from = 0; from < pending.size(); from += batchSize) {
+            List<String> batch = pending.subList(from, Math.min(from + batchSize, pending.size()));
+            batches.add(batch);
+            lookups.add(bulkheads.zipLookup().call(() -> zipCodeLookupService.lookupCitiesByZip(batch)));
+        }
+
+        Map<String, String> cities = new HashMap<>();
+        for (int i = 0; i < lookups.size(); i++) {
+            try {
+                cities.putAll(lookups.get(i).join());
+            } catch (CompletionException exception) {
+                if (!(exception.getCause() instanceof BulkheadFullException)) {
+                    throw exception;
+                }
+                cities.putAll(zipCodeLookupService.lookupCitiesByZip(batches.get(i)));
+            }
+        }
+        return cities;
+    }
+
+    /**
+     * State of one running bulk update, the per-item report.
+     */
+    private class BulkUpdate {
+        private final List<UserBulkUpdateReport.Item> items = new ArrayList<>();
+
+        private int updated;
+
+        void flushChunk(List<Integer> chunk, List<UserBulkUpdate> updates, Map<String, String> cities) {
+            try {
+                write(chunk, updates, cities);
+            } catch (DataIntegrityViolationException | OptimisticLockingFailureException exception) {
+                // an email is taken or a user changed under us, fall back to one item at a time
+                for (Integer index : chunk) {
+                    UserBulkUpdate update = updates.get(index);
+                    try {
+                        write(List.of(index), updates, cities);
+                    } catch (DataIntegrityViolationException itemException) {
+                        reject(index, update, UserService.isDuplicateEmail(itemException)
+                                ? UserBulkUpdateReport.Status.DUPLICATE : UserBulkUpdateReport.Status.INVALID,
+                                itemException.getMostSpecificCause().getMessage());
+                    } catch (OptimisticLockingFailureException itemException) {
+                        reject(index, update, UserBulkUpdateReport.Status.CONFLICT, "User was changed concurrently");
+                    }
+                }
+            }
+        }
+
+        UserBulkUpdateReport finish() {
+            items.sort((left, right) -> Integer.compare(left.getIndex(), right.getIndex()));
+            return new UserBulkUpdateReport(updated, items.size() - updated, items);
+        }
+
+        /**
+         * Loads and updates the users of the chunk in one transaction, the report only changes once it commits.
+         */
+        private void write(List<Integer> chunk, List<UserBulkUpdate> updates, Map<String, String> cities) {
+            List<UserBulkUpdateReport.Item> chunkItems = transactionTemplate.execute(status -> {
+                Set<Long> ids = new HashSet<>();
+                chunk.forEach(index -> ids.add(updates.get(index).getId()));
+                Map<Long, User> users = repository.findAllById(ids).stream()
+                        .collect(Collectors.toMap(User::getId, Function.identity()));
+
+                List<String> emails = new ArrayList<>();
+                Map<Long, User> emailChanged = new LinkedHashMap<>();
+                for (Integer index : chunk) {
+                    UserBulkUpdate update = updates.get(index);
+                    User user = users.get(update.getId());
+                    if (user != null) {
+                        Map<String, String> changes = withCity(update.getUpdates(), cities);
+                        UserService.applyUpdates(user, changes);
+                        if (changes.containsKey("email")) {
+                            emails.add(changes.get("email"));
+                            emailChanged.put(user.getId(), user);
+                        }
+                        eventPublisher.publishEvent(UserChangedEvent.saved(user));
+                    }
+                }
+                repository.flush();
+                emailChanged.values().forEach(emailClaims::claim);
+                emails.forEach(emailFilter::put);
+                emailService.sendConfirmations(emails);
+
+                List<UserBulkUpdateReport.Item> written = new ArrayList<>();
+                for (Integer index : chunk) {
+                    UserBulkUpdate update = updates.get(index);
+                    User user = users.get(update.getId());
+                    if (user == null) {
+                        written.add(new UserBulkUpdateReport.Item(index, update.getId(), UserBulkUpdateReport.Status.NOT_FOUND, null, "User not found"));
+                    } else {
+                        written.add(new UserBulkUpdateReport.Item(index, update.getId(), UserBulkUpdateReport.Status.UPDATED, user.getVersion(), null));
+                    }
+                }
+                return written;
+            });
+
+            for (UserBulkUpdateReport.Item item : chunkItems) {
+                if (item.getStatus() == UserBulkUpdateReport.Status.UPDATED) {
+                    updated++;
+                }
+                items.add(item);
+            }
+        }
+
+        private void reject(int index, UserBulkUpdate update, UserBulkUpdateReport.Status status, String message) {
+            items.add(new UserBulkUpdateReport.Item(index, update == null ? null : update.getId(), status, null, message));
+        }
+    }
+
+    private static Map<String, String> withCity(Map<String, String> updates, Map<String, String> cities) {
+        if (!UserService.needsCityLookup(updates) || !cities.containsKey(updates.get("zipCode"))) {
+            return updates;
+        }
+        Map<String, String> resolved = new HashMap<>(updates);
+        resolved.put("city", cities.get(updates.get("zipCode")));
+        return resolved;
+    }
+
+    private static String validate(UserBulkUpdate update) {
+        if (update == null || update.getId() == null) {
+            return "id is required";
+        }
+        if (update.getUpdates() == null || update.getUpdates().isEmpty()) {
+            return "updates are required";
+        }
+        return null;
+    }
+}
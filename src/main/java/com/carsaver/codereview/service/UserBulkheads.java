@@ -0,0 +1,68 @@
+package com.carsaver.codereview.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+
+/**
+ * Bulkheads the user endpoints run their slow calls on when async mode is enabled: one for the database work
+ * and one for zip code lookups. With async mode off both run calls on the request thread, as before.
+ * Each reports its busy threads, queue and rejected and timed out calls, tagged with the bulkhead name.
+ */
+@Component
+public class UserBulkheads implements MeterBinder {
+    private final Bulkhead userStore;
+
+    private final Bulkhead zipLookup;
+
+    @Autowired
+    public UserBulkheads(@Value("${codereview.users.async.enabled:false}") boolean enabled,
+                         @Value("${codereview.users.async.user-store.threads:10}") int userStoreThreads,
+                         @Value("${codereview.users.async.user-store.queue-capacity:100}") int userStoreQueueCapacity,
+                         @Value("${codereview.users.async.user-store.timeout:5s}") Duration userStoreTimeout,
+                         @Value("${codereview.users.async.zip-lookup.threads:4}") int zipLookupThreads,
+                         @Value("${codereview.users.async.zip-lookup.queue-capacity:50}") int zipLookupQueueCapacity,
+                         @Value("${codereview.users.async.zip-lookup.timeout:10s}") Duration zipLookupTimeout) {
+        this.userStore = new Bulkhead("user-store", enabled ? userStoreThreads : 0, userStoreQueueCapacity, userStoreTimeout);
+        this.zipLookup = new Bulkhead("zip-lookup", enabled ? zipLookupThreads : 0, zipLookupQueueCapacity, zipLookupTimeout);
+    }
+
+    public Bulkhead userStore() {
+        return userStore;
+    }
+
+    public Bulkhead zipLookup() {
+        return zipLookup;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Bulkhead bulkhead : new Bulkhead[]{userStore, zipLookup}) {
+            Gauge.builder("codereview.bulkhead.active", bulkhead, Bulkhead::activeCount)
+                    .tag("bulkhead", bulkhead.getName())
+                    .register(registry);
+            Gauge.builder("codereview.bulkhead.queued", bulkhead, Bulkhead::queuedCount)
+                    .tag("bulkhead", bulkhead.getName())
+                    .register(registry);
+            FunctionCounter.builder("codereview.bulkhead.rejected", bulkhead, Bulkhead::rejectedCount)
+                    .tag("bulkhead", bulkhead.getName())
+                    .register(registry);
+            FunctionCounter.builder("codereview.bulkhead.timed-out", bulkhead, Bulkhead::timedOutCount)
+                    .tag("bulkhead", bulkhead.getName())
+                    .register(registry);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        userStore.shutdown();
+        zipLookup.shutdown();
+    }
+}
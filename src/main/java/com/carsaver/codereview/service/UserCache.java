@@ -0,0 +1,103 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.config.ReadYourWrites;
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Read-through cache of users by id. Ids that do not exist are cached too, for a shorter time. Entries are
+ * detached copies, callers get their own copy so nothing they change leaks into the cache. Writes evict through
+ * {@link UserCacheInvalidator}.
+ * <p>
+ * A miss is loaded by the reading thread outside of the cache's locks, concurrent readers of the same id wait on
+ * its future. Loading inside the cache would hold a map lock while waiting for a pooled connection, and a writer
+ * evicting a neighbouring key while holding the last connection would then wait on that lock forever.
+ */
+@Component
+public class UserCache implements MeterBinder {
+    private final UserRepository repository;
+
+    private final AsyncCache<Long, Optional<User>> users;
+
+    @Autowired
+    public UserCache(UserRepository repository,
+                     @Value("${codereview.users.cache.max-size:10000}") long maxSize,
+                     @Value("${codereview.users.cache.ttl:10m}") Duration ttl,
+                     @Value("${codereview.users.cache.negative-ttl:30s}") Duration negativeTtl) {
+        this.repository = repository;
+        this.users = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<Long, Optional<User>>() {
+                    @Override
+                    public long expireAfterCreate(Long id, Optional<User> user, long currentTime) {
+                        return (user.isPresent() ? ttl : negativeTtl).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Long id, Optional<User> user, long currentTime, long currentDuration) {
+                        return expireAfterCreate(id, user, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Long id, Optional<User> user, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .buildAsync();
+    }
+
+    public Optional<User> findById(Long id) {
+        if (ReadYourWrites.isPinned()) {
+            // the entry may have been loaded from a replica that had not caught up with this client's write
+            return repository.findById(id).map(User::copy);
+        }
+
+        CompletableFuture<Optional<User>> load = new CompletableFuture<>();
+        CompletableFuture<Optional<User>> user = users.get(id, (key, executor) -> load);
+        if (user == load) {
+            try {
+                load.complete(repository.findById(id).map(User::copy));
+            } catch (RuntimeException exception) {
+                // a failed future is dropped from the cache, the next read tries again
+                load.completeExceptionally(exception);
+                throw exception;
+            }
+        }
+        return user.join().map(User::copy);
+    }
+
+    public void evict(Long id) {
+        users.synchronous().invalidate(id);
+    }
+
+    /**
+     * @return - hit, miss and eviction counters of the user cache.
+     */
+    public CacheStats getStats() {
+        return users.synchronous().stats();
+    }
+
+    public long size() {
+        return users.synchronous().estimatedSize();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, users, "users");
+    }
+}
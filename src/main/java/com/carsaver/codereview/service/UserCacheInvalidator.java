@@ -0,0 +1,66 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JPA entity listener that keeps {@link UserCache} in line with every write to a user, whichever service made it.
+ * The entry is evicted when the change is flushed and again after commit, so a read that slipped in between
+ * cannot leave the old row cached. When reads go to a replica the entry is evicted once more after the sticky
+ * window, a read of a replica that had not caught up yet can leave the old row cached until then.
+ * <p>
+ * Registered on {@link User} in {@code META-INF/orm.xml}, the model is also shipped without the services.
+ */
+@Component
+public class UserCacheInvalidator {
+    // the entity manager factory builds this listener, so the cache (which needs the repository) is looked up lazily
+    private final ObjectProvider<UserCache> userCache;
+
+    /**
+     * How long the replica may lag behind a commit, zero when reads are not routed to a replica.
+     */
+    private final Duration replicaLag;
+
+    @Autowired
+    public UserCacheInvalidator(ObjectProvider<UserCache> userCache,
+                                @Value("${codereview.datasource.replica.enabled:false}") boolean replicaEnabled,
+                                @Value("${codereview.datasource.replica.sticky-window:5s}") Duration stickyWindow) {
+        this.userCache = userCache;
+        this.replicaLag = replicaEnabled ? stickyWindow : Duration.ZERO;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onWrite(User user) {
+        evict(user.getId());
+    }
+
+    public void evict(Long id) {
+        userCache.ifAvailable(cache -> cache.evict(id));
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    userCache.ifAvailable(cache -> cache.evict(id));
+                    if (!replicaLag.isZero()) {
+                        CompletableFuture.delayedExecutor(replicaLag.toMillis(), TimeUnit.MILLISECONDS)
+                                .execute(() -> userCache.ifAvailable(cache -> cache.evict(id)));
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+
+/**
+ * Published for every user a service saves or deletes. Listeners that keep their own copy of the users apply
+ * it once the write commits, see {@link UserReadModel}.
+ */
+public final class UserChangedEvent {
+    private final Long id;
+
+    private final User user;
+
+    private UserChangedEvent(Long id, User user) {
+        this.id = id;
+        this.user = user;
+    }
+
+    public static UserChangedEvent saved(User user) {
+        return new UserChangedEvent(user.getId(), user);
+    }
+
+    public static UserChangedEvent deleted(Long id) {
+        return new UserChangedEvent(id, null);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * @return - the saved user, its version is only final once the write has been flushed; null when deleted
+     */
+    public User getUser() {
+        return user;
+    }
+}
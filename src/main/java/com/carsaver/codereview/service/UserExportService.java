@@ -0,0 +1,70 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.repository.UserRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes every user as newline-delimited JSON straight from a database cursor. Rows are serialized as they are
+ * read and the persistence context is cleared as we go, so memory use does not grow with the table.
+ */
+@Service
+public class UserExportService {
+    private static final int CLEAR_INTERVAL = 500;
+
+    private final UserRepository repository;
+
+    private final EntityManager entityManager;
+
+    private final ObjectWriter userWriter;
+
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public UserExportService(UserRepository repository, EntityManager entityManager, ObjectMapper objectMapper) {
+        this.repository = repository;
+        this.entityManager = entityManager;
+        this.objectMapper = objectMapper;
+        // the writer would flush the stream after every user, the export flushes once per chunk instead
+        this.userWriter = objectMapper.writerFor(User.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * @param outputStream - stream to write to, it is flushed but not closed
+     * @return - number of users written
+     */
+    @Transactional(readOnly = true)
+    public long exportAll(OutputStream outputStream) throws IOException {
+        long count = 0;
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        try (Stream<User> users = repository.streamAllByOrderByIdAsc()) {
+            Iterator<User> iterator = users.iterator();
+            while (iterator.hasNext()) {
+                userWriter.writeValue(generator, iterator.next());
+                generator.writeRaw('\n');
+
+                if (++count % CLEAR_INTERVAL == 0) {
+                    generator.flush();
+                    entityManager.clear();
+                }
+            }
+        }
+
+        generator.flush();
+        return count;
+    }
+}
@@ -0,0 +1,275 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.config.UserApiProperties;
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserImportReport;
+import com.carsaver.codereview.repository.UserEmailClaims;
+import com.carsaver.codereview.repository.UserRepository;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Imports users in bulk. The payload is read row by row and handled in chunks: each chunk is validated, checked
+ * for duplicate emails against the rest of the payload and, with one query, against the database, and then
+ * inserted in its own transaction. Confirmation emails go to the outbox with the chunk. With sharding the chunk's
+ * emails are claimed across the shards before it commits, see {@link UserEmailClaims}.
+ */
+@Service
+public class UserImportService {
+    private static final String[] CSV_COLUMNS = {"firstName", "lastName", "email"};
+
+    private final UserRepository repository;
+
+    private final EmailService emailService;
+
+    private final UserNameDirectory userNameDirectory;
+
+    private final EmailBloomFilter emailFilter;
+
+    private final UserApiProperties properties;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ObjectReader userReader;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final UserEmailClaims emailClaims;
+
+    @Autowired
+    public UserImportService(UserRepository repository, EmailService emailService, UserNameDirectory userNameDirectory,
+                             EmailBloomFilter emailFilter, UserApiProperties properties, PlatformTransactionManager transactionManager,
+                             ObjectMapper objectMapper, ApplicationEventPublisher eventPublisher,
+                             UserEmailClaims emailClaims) {
+        this.repository = repository;
+        this.emailService = emailService;
+        this.userNameDirectory = userNameDirectory;
+        this.emailFilter = emailFilter;
+        this.properties = properties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.userReader = objectMapper.readerFor(User.class);
+        this.eventPublisher = eventPublisher;
+        this.emailClaims = emailClaims;
+    }
+
+    /**
+     * @param reader - CSV with a header line naming the firstName, lastName and email columns, values may not
+     *               contain commas
+     */
+    public UserImportReport importCsv(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String header = lines.readLine();
+        if (header == null) {
+            return new UserImportReport(0, 0, List.of());
+        }
+
+        int[] columns = csvColumns(header.split(","));
+        Import userImport = new Import();
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (!line.isBlank()) {
+                String[] values = line.split(",", -1);
+                User user = new User();
+                user.setFirstName(csvValue(values, columns[0]));
+                user.setLastName(csvValue(values, columns[1]));
+                user.setEmail(csvValue(values, columns[2]));
+                userImport.add(user);
+            }
+        }
+        return userImport.finish();
+    }
+
+    /**
+     * @param inputStream - JSON array of objects with firstName, lastName and email
+     */
+    public UserImportReport importJson(InputStream inputStream) throws IOException {
+        Import userImport = new Import();
+        try (JsonParser parser = userReader.getFactory().createParser(inputStream)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a JSON array of users");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                // the id, version, city, zip code and enabled flag are the server's, a re-imported export keeps none of them
+                User parsed = userReader.readValue(parser);
+                User user = new User();
+                user.setFirstName(parsed.getFirstName());
+                user.setLastName(parsed.getLastName());
+                user.setEmail(parsed.getEmail());
+                userImport.add(user);
+            }
+        }
+        return userImport.finish();
+    }
+
+    private static int[] csvColumns(String[] header) throws IOException {
+        int[] columns = new int[CSV_COLUMNS.length];
+        for (int column = 0; column < CSV_COLUMNS.length; column++) {
+            columns[column] = -1;
+            for (int position = 0; position < header.length; position++) {
+                if (CSV_COLUMNS[column].equalsIgnoreCase(header[position].trim())) {
+                    columns[column] = position;
+                }
+            }
+            if (columns[column] < 0) {
+                throw new IOException("CSV header is missing the " + CSV_COLUMNS[column] + " column");
+            }
+        }
+        return columns;
+    }
+
+    private static String csvValue(String[] values, int column) {
+        return column < values.length ? values[column].trim() : null;
+    }
+
+    /**
+     * State of one running import. Only the current chunk and the normalized emails seen so far are kept,
+     * plus the per-row report.
+     */
+    private class Import {
+        private final List<UserImportReport.Row> rows = new ArrayList<>();
+
+        private final Set<String> seenEmails = new HashSet<>();
+
+        private final List<User> chunk = new ArrayList<>();
+
+        private final List<Integer> chunkRows = new ArrayList<>();
+
+        private int rowNumber;
+
+        private int created;
+
+        void add(User user) {
+            rowNumber++;
+            String invalid = validate(user);
+            if (invalid != null) {
+                reject(rowNumber, user, UserImportReport.Status.INVALID, invalid);
+                return;
+            }
+            if (!seenEmails.add(User.normalizeEmail(user.getEmail()))) {
+                reject(rowNumber, user, UserImportReport.Status.DUPLICATE, "Email appears earlier in the import");
+                return;
+            }
+
+            chunk.add(user);
+            chunkRows.add(rowNumber);
+            if (chunk.size() >= properties.getImportChunkSize()) {
+                flushChunk();
+            }
+        }
+
+        UserImportReport finish() {
+            flushChunk();
+            rows.sort((left, right) -> Integer.compare(left.getRow(), right.getRow()));
+            return new UserImportReport(created, rows.size() - created, rows);
+        }
+
+        private void flushChunk() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+
+            // only emails the Bloom filter might have seen need to go to the database
+            List<String> candidates = chunk.stream()
+                    .map(user -> User.normalizeEmail(user.getEmail()))
+                    .filter(email -> !emailFilter.isEnabled() || emailFilter.mightContain(email))
+                    .collect(Collectors.toList());
+            Set<String> existing = candidates.isEmpty() ? Set.of() : repository.findExistingNormalizedEmails(candidates);
+
+            List<User> inserts = new ArrayList<>();
+            List<Integer> insertRows = new ArrayList<>();
+            for (int i = 0; i < chunk.size(); i++) {
+                User user = chunk.get(i);
+                if (existing.contains(User.normalizeEmail(user.getEmail()))) {
+                    reject(chunkRows.get(i), user, UserImportReport.Status.DUPLICATE, "User already exist");
+                } else {
+                    user.setEnabled(!user.getEmail().contains(UserService.TEST_EMAIL_DOMAIN));
+                    inserts.add(user);
+                    insertRows.add(chunkRows.get(i));
+                }
+            }
+
+            try {
+                List<User> saved = insert(inserts);
+                for (int i = 0; i < saved.size(); i++) {
+                    accept(insertRows.get(i), saved.get(i));
+                }
+            } catch (DataIntegrityViolationException exception) {
+                // a concurrent signup took one of the emails after our check, fall back to one row at a time
+                for (int i = 0; i < inserts.size(); i++) {
+                    User user = inserts.get(i);
+                    // the rolled back insert left an id and version behind, without both the user would be merged
+                    user.setId(null);
+                    user.setVersion(null);
+                    try {
+                        accept(insertRows.get(i), insert(List.of(user)).get(0));
+                    } catch (DataIntegrityViolationException rowException) {
+                        reject(insertRows.get(i), user, UserService.isDuplicateEmail(rowException)
+                                ? UserImportReport.Status.DUPLICATE : UserImportReport.Status.INVALID,
+                                rowException.getMostSpecificCause().getMessage());
+                    }
+                }
+            }
+
+            chunk.clear();
+            chunkRows.clear();
+        }
+
+        private List<User> insert(List<User> users) {
+            if (users.isEmpty()) {
+                return List.of();
+            }
+
+            return transactionTemplate.execute(status -> {
+                List<User> saved = repository.saveAll(users);
+                repository.flush();
+                saved.forEach(emailClaims::claim);
+                saved.forEach(userNameDirectory::onSaved);
+                saved.forEach(user -> eventPublisher.publishEvent(UserChangedEvent.saved(user)));
+                saved.forEach(user -> emailFilter.put(user.getEmail()));
+                emailService.sendConfirmations(saved.stream()
+                        .filter(User::isEnabled)
+                        .map(User::getEmail)
+                        .collect(Collectors.toList()));
+                return saved;
+            });
+        }
+
+        private void accept(int row, User user) {
+            created++;
+            rows.add(new UserImportReport.Row(row, user.getEmail(), UserImportReport.Status.CREATED, user.getId(), null));
+        }
+
+        private void reject(int row, User user, UserImportReport.Status status, String message) {
+            rows.add(new UserImportReport.Row(row, user.getEmail(), status, null, message));
+        }
+    }
+
+    private static String validate(User user) {
+        if (!StringUtils.hasText(user.getFirstName()) || !StringUtils.hasText(user.getLastName())) {
+            return "firstName and lastName are required";
+        }
+        if (!StringUtils.hasText(user.getEmail()) || !user.getEmail().contains("@")) {
+            return "email is not valid";
+        }
+        return null;
+    }
+}
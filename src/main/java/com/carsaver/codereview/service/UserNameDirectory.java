@@ -0,0 +1,105 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserName;
+import com.carsaver.codereview.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Id to display name of every user. It is loaded once from a projection query and then kept current by
+ * {@link UserService} writes, so reads never scan the user table.
+ */
+@Component
+public class UserNameDirectory {
+    private final UserRepository repository;
+
+    private volatile Map<Long, String> names = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded;
+
+    private final Object changes = new Object();
+
+    // saves and deletes that committed while the projection was being read, null when no load is running
+    private List<Consumer<Map<Long, String>>> pending;
+
+    @Autowired
+    public UserNameDirectory(UserRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * @return - read-only view of user id to "firstName, lastName".
+     */
+    public Map<Long, String> getNames() {
+        if (!loaded) {
+            load();
+        }
+        return Collections.unmodifiableMap(names);
+    }
+
+    public void onSaved(User user) {
+        String name = displayName(user.getFirstName(), user.getLastName());
+        afterCommit(() -> apply(names -> names.put(user.getId(), name)));
+    }
+
+    public void onDeleted(Long id) {
+        afterCommit(() -> apply(names -> names.remove(id)));
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (changes) {
+            pending = new ArrayList<>();
+        }
+        Map<Long, String> loading = new ConcurrentHashMap<>();
+        for (UserName userName : repository.findAllNames()) {
+            loading.put(userName.getId(), displayName(userName.getFirstName(), userName.getLastName()));
+        }
+        synchronized (changes) {
+            // the rows may or may not include a write that landed while we were loading, replaying it is newer either way
+            pending.forEach(change -> change.accept(loading));
+            pending = null;
+            names = loading;
+        }
+        loaded = true;
+    }
+
+    private void apply(Consumer<Map<Long, String>> change) {
+        synchronized (changes) {
+            if (pending != null) {
+                pending.add(change);
+            }
+            change.accept(names);
+        }
+    }
+
+    private static String displayName(String firstName, String lastName) {
+        return firstName + ", " + lastName;
+    }
+
+    private static void afterCommit(Runnable change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            change.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                change.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,636 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Read side copy of every user, kept as an immutable column-oriented {@link Snapshot}: ids and versions in
+ * {@code long[]}s, names and emails in {@code String[]}s, and cities and zip codes as codes into a dictionary
+ * since few distinct values repeat across many users. Readers only dereference the current snapshot, they never
+ * take a lock or touch Hibernate.
+ * <p>
+ * The snapshot is loaded by streaming the user table at startup and then kept current by the
+ * {@link UserChangedEvent}s of committed writes. A transaction's changes are collected until it commits and queued
+ * together, and whichever committing thread gets the write lock merges everything queued into one new snapshot and
+ * swaps it in, so a transaction or a burst of writes costs one copy. Reports the users held, the estimated heap they
+ * take, the snapshots swapped in and the lag from commit to a change being readable.
+ */
+@Component
+public class UserReadModel {
+    private static final int CLEAR_INTERVAL = 500;
+
+    private static final Object TRANSACTION_CHANGES = new Object();
+
+    private final UserRepository repository;
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+
+    private final Timer lag;
+
+    private final Counter swaps;
+
+    private final Queue<Change> pending = new ConcurrentLinkedQueue<>();
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // only used under the write lock
+    private final Dictionary cities = new Dictionary();
+
+    private final Dictionary zipCodes = new Dictionary();
+
+    private volatile Snapshot snapshot;
+
+    @Autowired
+    public UserReadModel(UserRepository repository, EntityManager entityManager, PlatformTransactionManager transactionManager,
+                         MeterRegistry registry, @Value("${codereview.users.read-model.enabled:false}") boolean enabled) {
+        this.repository = repository;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.enabled = enabled;
+        this.lag = Timer.builder("codereview.read-model.lag")
+                .description("Time from a user write committing to the read model serving it")
+                .register(registry);
+        this.swaps = Counter.builder("codereview.read-model.swaps")
+                .description("Snapshots swapped in for committed writes")
+                .register(registry);
+        Gauge.builder("codereview.read-model.users", this, model -> model.current().size)
+                .register(registry);
+        Gauge.builder("codereview.read-model.bytes", this, model -> model.current().estimatedBytes)
+                .description("Estimated heap taken by the snapshot")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("codereview.read-model.pending", pending, Queue::size)
+                .register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return - whether reads can be served, false while disabled or until the startup load has finished
+     */
+    public boolean isLoaded() {
+        return snapshot != null;
+    }
+
+    public Optional<User> findById(Long id) {
+        return Optional.ofNullable(current().get(id));
+    }
+
+    /**
+     * @param afterId - only users with a greater id, null for the first users
+     * @param limit - most users to return
+     * @return - users ordered by id, each one a new instance the caller may change
+     */
+    public List<User> findPage(Long afterId, int limit) {
+        return current().page(afterId, limit);
+    }
+
+    public List<User> findAll() {
+        return current().page(null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return - read-only view of user id to "firstName, lastName" over the current snapshot.
+     */
+    public Map<Long, String> getNames() {
+        return current().names();
+    }
+
+    /**
+     * @return - estimated heap per user of the current snapshot, dictionaries included
+     */
+    public long getBytesPerUser() {
+        Snapshot current = current();
+        return current.size == 0 ? 0 : current.estimatedBytes / current.size;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+
+        SnapshotBuilder builder = new SnapshotBuilder(cities, zipCodes, 1024, 0);
+        writeLock.lock();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<User> users = repository.streamAllByOrderByIdAsc()) {
+                    Iterator<User> iterator = users.iterator();
+                    int count = 0;
+                    while (iterator.hasNext()) {
+                        builder.add(iterator.next());
+                        if (++count % CLEAR_INTERVAL == 0) {
+                            entityManager.clear();
+                        }
+                    }
+                }
+            });
+            snapshot = builder.build();
+        } finally {
+            writeLock.unlock();
+        }
+        // writes that committed while we were streaming are queued, the version decides which copy is newer
+        applyPending();
+    }
+
+    /**
+     * Collects the change until the transaction commits, or queues it straight away when there is no transaction.
+     * A rolled back transaction's changes are dropped.
+     */
+    @EventListener
+    public void onUserChanged(UserChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            commit(List.of(event));
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<UserChangedEvent> changes = (List<UserChangedEvent>) TransactionSynchronizationManager.getResource(TRANSACTION_CHANGES);
+        if (changes == null) {
+            List<UserChangedEvent> collected = new ArrayList<>();
+            changes = collected;
+            TransactionSynchronizationManager.bindResource(TRANSACTION_CHANGES, collected);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void suspend() {
+                    TransactionSynchronizationManager.unbindResource(TRANSACTION_CHANGES);
+                }
+
+                @Override
+                public void resume() {
+                    TransactionSynchronizationManager.bindResource(TRANSACTION_CHANGES, collected);
+                }
+
+                @Override
+                public void afterCommit() {
+                    commit(collected);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(TRANSACTION_CHANGES);
+                }
+            });
+        }
+        changes.add(event);
+    }
+
+    private void commit(List<UserChangedEvent> events) {
+        // copied only now, a saved user's version is final once the write has been flushed
+        long now = System.nanoTime();
+        for (UserChangedEvent event : events) {
+            pending.add(new Change(event.getId(), event.getUser() == null ? null : event.getUser().copy(), now));
+        }
+        applyPending();
+    }
+
+    private void applyPending() {
+        // a thread that finds the lock taken leaves its change to the holder, which checks the queue after unlocking
+        while (snapshot != null && !pending.isEmpty() && writeLock.tryLock()) {
+            List<Change> applied = new ArrayList<>();
+            try {
+                TreeMap<Long, Change> changes = new TreeMap<>();
+                Change change;
+                while ((change = pending.poll()) != null) {
+                    applied.add(change);
+                    changes.merge(change.id, change, Change::newer);
+                }
+                snapshot = merge(snapshot, changes);
+                swaps.increment();
+            } finally {
+                writeLock.unlock();
+            }
+
+            long now = System.nanoTime();
+            applied.forEach(change -> lag.record(now - change.committedNanos, TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private Snapshot merge(Snapshot base, TreeMap<Long, Change> changes) {
+        SnapshotBuilder builder = new SnapshotBuilder(cities, zipCodes, base.size + changes.size(), base.stringBytes);
+        int row = 0;
+        for (Change change : changes.values()) {
+            int found = Arrays.binarySearch(base.ids, row, base.size, change.id);
+            int next = found >= 0 ? found : -found - 1;
+            // rows between changes are copied in bulk
+            builder.copy(base, row, next);
+            row = next;
+            if (found < 0) {
+                if (change.user != null) {
+                    builder.add(change.user);
+                }
+                continue;
+            }
+
+            if (change.user != null && base.versions[found] > version(change.user)) {
+                builder.copy(base, found, found + 1);
+            } else {
+                builder.drop(base, found);
+                if (change.user != null) {
+                    builder.add(change.user);
+                }
+            }
+            row++;
+        }
+        builder.copy(base, row, base.size);
+        return builder.build();
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        return current != null ? current : Snapshot.EMPTY;
+    }
+
+    private static long version(User user) {
+        return user.getVersion() == null ? 0 : user.getVersion();
+    }
+
+    private static final class Change {
+        private final Long id;
+
+        /**
+         * The user as committed, null when it was deleted.
+         */
+        private final User user;
+
+        private final long committedNanos;
+
+        private Change(Long id, User user, long committedNanos) {
+            this.id = id;
+            this.user = user;
+            this.committedNanos = committedNanos;
+        }
+
+        /**
+         * Of two queued changes to one user the delete or else the higher version wins, ids are never reused.
+         */
+        private static Change newer(Change older, Change newer) {
+            if (older.user == null || newer.user == null) {
+                return older.user == null ? older : newer;
+            }
+            return version(older.user) > version(newer.user) ? older : newer;
+        }
+    }
+
+    /**
+     * Distinct values of a column and their codes. Codes never change and values are only appended, a snapshot
+     * shares the array and never reads past the values that existed when it was built.
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+
+        private String[] values = new String[64];
+
+        private int size;
+
+        private long stringBytes;
+
+        int code(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = value;
+            codes.put(value, size);
+            stringBytes += Snapshot.string(value);
+            return size++;
+        }
+    }
+
+    private static final class SnapshotBuilder {
+        private final Dictionary cities;
+
+        private final Dictionary zipCodes;
+
+        private long[] ids;
+
+        private long[] versions;
+
+        private byte[] enabled;
+
+        private String[] firstNames;
+
+        private String[] lastNames;
+
+        private String[] emails;
+
+        private int[] cityCodes;
+
+        private int[] zipCodeCodes;
+
+        private int size;
+
+        /**
+         * Heap of the first names, last names and emails of the rows added so far, kept as rows are added and
+         * dropped so a swap does not have to walk every string.
+         */
+        private long stringBytes;
+
+        private SnapshotBuilder(Dictionary cities, Dictionary zipCodes, int capacity, long stringBytes) {
+            this.cities = cities;
+            this.zipCodes = zipCodes;
+            this.stringBytes = stringBytes;
+            ids = new long[capacity];
+            versions = new long[capacity];
+            enabled = new byte[capacity];
+            firstNames = new String[capacity];
+            lastNames = new String[capacity];
+            emails = new String[capacity];
+            cityCodes = new int[capacity];
+            zipCodeCodes = new int[capacity];
+        }
+
+        void add(User user) {
+            ensureCapacity(size + 1);
+            ids[size] = user.getId();
+            versions[size] = version(user);
+            enabled[size] = user.getEnabled() == null ? Snapshot.UNSET : user.getEnabled() ? Snapshot.TRUE : Snapshot.FALSE;
+            firstNames[size] = user.getFirstName();
+            lastNames[size] = user.getLastName();
+            emails[size] = user.getEmail();
+            cityCodes[size] = cities.code(user.getCity());
+            zipCodeCodes[size] = zipCodes.code(user.getZipCode());
+            stringBytes += Snapshot.string(user.getFirstName()) + Snapshot.string(user.getLastName()) + Snapshot.string(user.getEmail());
+            size++;
+        }
+
+        /**
+         * Copies rows {@code from} to {@code to}, exclusive, of the source. Their strings are already counted in
+         * the bytes the builder started from.
+         */
+        void copy(Snapshot source, int from, int to) {
+            int length = to - from;
+            if (length <= 0) {
+                return;
+            }
+            ensureCapacity(size + length);
+            System.arraycopy(source.ids, from, ids, size, length);
+            System.arraycopy(source.versions, from, versions, size, length);
+            System.arraycopy(source.enabled, from, enabled, size, length);
+            System.arraycopy(source.firstNames, from, firstNames, size, length);
+            System.arraycopy(source.lastNames, from, lastNames, size, length);
+            System.arraycopy(source.emails, from, emails, size, length);
+            System.arraycopy(source.cityCodes, from, cityCodes, size, length);
+            System.arraycopy(source.zipCodeCodes, from, zipCodeCodes, size, length);
+            size += length;
+        }
+
+        /**
+         * Leaves a row of the source out, it was deleted or replaced by a newer version.
+         */
+        void drop(Snapshot source, int row) {
+            stringBytes -= Snapshot.string(source.firstNames[row]) + Snapshot.string(source.lastNames[row])
+                    + Snapshot.string(source.emails[row]);
+        }
+
+        Snapshot build() {
+            return new Snapshot(Arrays.copyOf(ids, size), Arrays.copyOf(versions, size), Arrays.copyOf(enabled, size),
+                    Arrays.copyOf(firstNames, size), Arrays.copyOf(lastNames, size), Arrays.copyOf(emails, size),
+                    Arrays.copyOf(cityCodes, size), Arrays.copyOf(zipCodeCodes, size),
+                    cities.values, zipCodes.values, stringBytes, cities.stringBytes + zipCodes.stringBytes);
+        }
+
+        private void ensureCapacity(int required) {
+            if (required <= ids.length) {
+                return;
+            }
+            int capacity = Math.max(required, ids.length * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            versions = Arrays.copyOf(versions, capacity);
+            enabled = Arrays.copyOf(enabled, capacity);
+            firstNames = Arrays.copyOf(firstNames, capacity);
+            lastNames = Arrays.copyOf(lastNames, capacity);
+            emails = Arrays.copyOf(emails, capacity);
+            cityCodes = Arrays.copyOf(cityCodes, capacity);
+            zipCodeCodes = Arrays.copyOf(zipCodeCodes, capacity);
+        }
+    }
+
+    /**
+     * Every user at one point in time, ordered by id. Never changed once built.
+     */
+    static final class Snapshot {
+        static final byte UNSET = 0;
+
+        static final byte FALSE = 1;
+
+        static final byte TRUE = 2;
+
+        static final Snapshot EMPTY = new Snapshot(new long[0], new long[0], new byte[0], new String[0], new String[0],
+                new String[0], new int[0], new int[0], new String[0], new String[0], 0, 0);
+
+        // 64-bit JVM with compressed oops, strings assumed to be Latin-1
+        private static final int ARRAY_HEADER_BYTES = 16;
+
+        private static final int REFERENCE_BYTES = 4;
+
+        private static final int STRING_BYTES = 24;
+
+        private final long[] ids;
+
+        private final long[] versions;
+
+        private final byte[] enabled;
+
+        private final String[] firstNames;
+
+        private final String[] lastNames;
+
+        private final String[] emails;
+
+        private final int[] cityCodes;
+
+        private final int[] zipCodeCodes;
+
+        private final String[] cities;
+
+        private final String[] zipCodes;
+
+        private final int size;
+
+        private final long stringBytes;
+
+        private final long estimatedBytes;
+
+        private Snapshot(long[] ids, long[] versions, byte[] enabled, String[] firstNames, String[] lastNames,
+                         String[] emails, int[] cityCodes, int[] zipCodeCodes, String[] cities, String[] zipCodes,
+                         long stringBytes, long dictionaryStringBytes) {
+            this.ids = ids;
+            this.versions = versions;
+            this.enabled = enabled;
+            this.firstNames = firstNames;
+            this.lastNames = lastNames;
+            this.emails = emails;
+            this.cityCodes = cityCodes;
+            this.zipCodeCodes = zipCodeCodes;
+            this.cities = cities;
+            this.zipCodes = zipCodes;
+            this.size = ids.length;
+            this.stringBytes = stringBytes;
+            this.estimatedBytes = array(Long.BYTES, size) * 2 + array(1, size) + array(Integer.BYTES, size) * 2
+                    + array(REFERENCE_BYTES, size) * 3 + array(REFERENCE_BYTES, cities.length)
+                    + array(REFERENCE_BYTES, zipCodes.length) + stringBytes + dictionaryStringBytes;
+        }
+
+        User get(Long id) {
+            int row = id == null ? -1 : Arrays.binarySearch(ids, id);
+            return row >= 0 ? user(row) : null;
+        }
+
+        List<User> page(Long afterId, int limit) {
+            int from = 0;
+            if (afterId != null) {
+                int row = Arrays.binarySearch(ids, afterId);
+                from = row >= 0 ? row + 1 : -row - 1;
+            }
+            int to = (int) Math.min(size, (long) from + limit);
+            List<User> users = new ArrayList<>(Math.max(0, to - from));
+            for (int row = from; row < to; row++) {
+                users.add(user(row));
+            }
+            return users;
+        }
+
+        Map<Long, String> names() {
+            return new Names(this);
+        }
+
+        private String name(int row) {
+            return firstNames[row] + ", " + lastNames[row];
+        }
+
+        private User user(int row) {
+            User user = new User();
+            user.setId(ids[row]);
+            user.setVersion(versions[row]);
+            user.setEnabled(enabled[row] == UNSET ? null : enabled[row] == TRUE);
+            user.setFirstName(firstNames[row]);
+            user.setLastName(lastNames[row]);
+            user.setEmail(emails[row]);
+            user.setNormalizedEmail(User.normalizeEmail(emails[row]));
+            user.setCity(cityCodes[row] < 0 ? null : cities[cityCodes[row]]);
+            user.setZipCode(zipCodeCodes[row] < 0 ? null : zipCodes[zipCodeCodes[row]]);
+            return user;
+        }
+
+        private static long array(int elementBytes, int length) {
+            return align(ARRAY_HEADER_BYTES + (long) elementBytes * length);
+        }
+
+        static long string(String value) {
+            return value == null ? 0 : STRING_BYTES + array(1, value.length());
+        }
+
+        private static long align(long bytes) {
+            return (bytes + 7) & ~7L;
+        }
+    }
+
+    /**
+     * Id to display name map over a snapshot, names are built as they are read rather than stored.
+     */
+    private static final class Names extends AbstractMap<Long, String> {
+        private final Snapshot snapshot;
+
+        private Names(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public String get(Object key) {
+            int row = key instanceof Long ? Arrays.binarySearch(snapshot.ids, (Long) key) : -1;
+            return row >= 0 ? snapshot.name(row) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Long && Arrays.binarySearch(snapshot.ids, (Long) key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return snapshot.size;
+        }
+
+        @Override
+        public Set<Entry<Long, String>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Long, String>> iterator() {
+                    return new Iterator<>() {
+                        private int row;
+
+                        @Override
+                        public boolean hasNext() {
+                            return row < snapshot.size;
+                        }
+
+                        @Override
+                        public Entry<Long, String> next() {
+                            if (row >= snapshot.size) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<Long, String> entry = new SimpleImmutableEntry<>(snapshot.ids[row], snapshot.name(row));
+                            row++;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return snapshot.size;
+                }
+            };
+        }
+    }
+}
@@ -1,51 +1,192 @@
 package com.carsaver.codereview.service;
 
+import com.carsaver.codereview.config.UserApiProperties;
 import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserPage;
+import com.carsaver.codereview.model.UserSearchCriteria;
+import com.carsaver.codereview.repository.UserEmailClaims;
 import com.carsaver.codereview.repository.UserRepository;
+import com.carsaver.codereview.repository.UserShards;
+import org.hibernate.exception.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.StreamSupport;
-
-import static java.util.stream.Collectors.toMap;
 
 @Service
 public class UserService {
+    /**
+     * The unique index on the normalized email, as changelog 1.3 names it.
+     */
+    static final String UNIQUE_EMAIL_INDEX = "user_normalized_email_uidx";
+
+    private static final String UNIQUE_VIOLATION_SQL_STATE = "23505";
+
+    static final String TEST_EMAIL_DOMAIN = "@test.com";
+
+    /**
+     * Seconds the statements of a user store call may run, the bulkhead only stops waiting for a call that times out.
+     */
+    static final String USER_STORE_TIMEOUT = "${codereview.users.async.user-store.transaction-timeout-seconds:5}";
+
+    /**
+     * Attributes a PATCH can write without the old row, email is left out since changing it confirms the address.
+     */
+    private static final List<String> COLUMN_UPDATES = List.of("zipCode", "city");
+
     private final UserRepository repository;
 
     private final EmailService emailService;
 
     private final ZipCodeLookupService zipCodeLookupService;
 
+    private final CityEnrichmentService cityEnrichmentService;
+
+    private final UserNameDirectory userNameDirectory;
+
+    private final UserCache userCache;
+
+    private final UserCacheInvalidator userCacheInvalidator;
+
+    private final EmailBloomFilter emailFilter;
+
+    private final UserApiProperties properties;
+
+    private final UserReadModel readModel;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final UserShards shards;
+
+    private final UserEmailClaims emailClaims;
+
     @Autowired
-    public UserService(UserRepository repository, EmailService emailService, ZipCodeLookupService zipCodeLookupService) {
+    public UserService(UserRepository repository, EmailService emailService, ZipCodeLookupService zipCodeLookupService,
+                       CityEnrichmentService cityEnrichmentService, UserNameDirectory userNameDirectory,
+                       UserCache userCache, UserCacheInvalidator userCacheInvalidator, EmailBloomFilter emailFilter,
+                       UserApiProperties properties, UserReadModel readModel, ApplicationEventPublisher eventPublisher,
+                       UserShards shards, UserEmailClaims emailClaims) {
         this.repository = repository;
         this.emailService = emailService;
         this.zipCodeLookupService = zipCodeLookupService;
+        this.cityEnrichmentService = cityEnrichmentService;
+        this.userNameDirectory = userNameDirectory;
+        this.userCache = userCache;
+        this.userCacheInvalidator = userCacheInvalidator;
+        this.emailFilter = emailFilter;
+        this.properties = properties;
+        this.readModel = readModel;
+        this.eventPublisher = eventPublisher;
+        this.shards = shards;
+        this.emailClaims = emailClaims;
     }
 
+    @Transactional(readOnly = true)
     public List<User> findAll() {
+        if (readModel.isLoaded()) {
+            return readModel.findAll();
+        }
         return this.repository.findAllByOrderByIdAsc();
     }
 
-    public Optional<User> findById(Long id) {
-        return this.repository.findById(id);
+    /**
+     * Seeks past {@code afterId} on the primary key instead of skipping rows, so every page costs the same
+     * no matter how deep into the table it is. Served from the read model once it is loaded.
+     * @param afterId - id of the last user of the previous page, null for the first page
+     * @param limit - requested page size, null for the default, capped at the configured maximum
+     * @return - the page and the cursor for the next one
+     */
+    @Transactional(readOnly = true)
+    public UserPage findPage(Long afterId, Integer limit) {
+        int pageSize = pageSize(limit);
+        if (readModel.isLoaded()) {
+            return page(readModel.findPage(afterId, pageSize + 1), pageSize);
+        }
+        // one extra row tells us whether there is a next page without a count query
+        PageRequest pageRequest = PageRequest.of(0, pageSize + 1);
+        List<User> users = afterId == null
+                ? this.repository.findAllByOrderByIdAsc(pageRequest)
+                : this.repository.findByIdGreaterThanOrderByIdAsc(afterId, pageRequest);
+        return page(users, pageSize);
     }
 
-    public User createUser(User user) throws Exception {
-        if (!Objects.isNull(this.repository.findUserByEmail(user.getEmail()))) {
-            throw new Exception("User already exist");
+    /**
+     * Finds the users matching the criteria one page at a time, paged like {@link #findPage}.
+     * @param afterId - id of the last user of the previous page, null for the first page
+     * @param limit - requested page size, null for the default, capped at the configured maximum
+     * @return - the page and the cursor for the next one
+     */
+    @Transactional(readOnly = true)
+    public UserPage search(UserSearchCriteria criteria, Long afterId, Integer limit) {
+        if (criteria.isEmpty()) {
+            throw new IllegalArgumentException("At least one of city, zipCode, lastName or enabled is required");
         }
+        int pageSize = pageSize(limit);
+        return page(this.repository.search(criteria, afterId, pageSize + 1), pageSize);
+    }
+
+    private int pageSize(Integer limit) {
+        return Math.max(1, Math.min(limit == null ? properties.getDefaultPageSize() : limit, properties.getMaxPageSize()));
+    }
+
+    private static UserPage page(List<User> users, int pageSize) {
+        if (users.size() <= pageSize) {
+            return new UserPage(users, null, pageSize);
+        }
+        List<User> page = users.subList(0, pageSize);
+        return new UserPage(page, page.get(pageSize - 1).getId(), pageSize);
+    }
 
-        if (!user.getEmail().contains("@test.com")) {
+    @Transactional(readOnly = true, timeoutString = USER_STORE_TIMEOUT)
+    public Optional<User> findById(Long id) {
+        if (readModel.isLoaded()) {
+            return readModel.findById(id);
+        }
+        return this.userCache.findById(id);
+    }
+
+    /**
+     * Inserts the user and lets the unique index on the normalized email reject duplicates, so there is no
+     * read before the write and two concurrent signups for one address cannot both succeed. Emails the Bloom
+     * filter has seen before are checked with an index lookup first, so a repeat signup is turned away without
+     * a failed insert. With sharding the unique index only covers the user's shard, the email is also claimed
+     * across the shards before the user commits, see {@link UserEmailClaims}.
+     * @throws UserAlreadyExistsException - when a user with the same normalized email exists
+     */
+    @Transactional(rollbackFor = UserAlreadyExistsException.class, timeoutString = USER_STORE_TIMEOUT)
+    public User createUser(User user) throws Exception {
+        if (!user.getEmail().contains(TEST_EMAIL_DOMAIN)) {
             user.setEnabled(true);
         }
+        boolean mightExist = emailFilter.isEnabled() && emailFilter.mightContain(user.getEmail());
+        if (mightExist && this.repository.existsByNormalizedEmail(User.normalizeEmail(user.getEmail()))) {
+            throw new UserAlreadyExistsException(user.getEmail(), null);
+        }
 
-        User newUser = this.repository.save(user);
+        User newUser;
+        try {
+            newUser = this.repository.save(user);
+            this.repository.flush();
+            emailClaims.claim(newUser);
+        } catch (DataIntegrityViolationException exception) {
+            if (isDuplicateEmail(exception)) {
+                throw new UserAlreadyExistsException(user.getEmail(), exception);
+            }
+            throw exception;
+        }
+        userNameDirectory.onSaved(newUser);
+        eventPublisher.publishEvent(UserChangedEvent.saved(newUser));
+        emailFilter.put(newUser.getEmail());
 
         if (newUser.isEnabled()) {
             emailService.sendConfirmation(newUser.getEmail());
@@ -53,45 +194,169 @@ public class UserService {
         return newUser;
     }
 
-    public User updateUserInformation(User userFound, Map<String, String> updates) {
-        setUserInformation(userFound, updates);
-        return this.repository.save(userFound);
+    /**
+     * Applies the updates to the user. Zip code and city changes are written with a single UPDATE of just those
+     * columns, guarded by the version of {@code userFound} (usually a cached copy), instead of a merge that reads
+     * the row and writes it back. Email changes and zip codes whose city is still to be looked up go through
+     * the entity so its listeners, confirmation email and city enrichment run.
+     * @param userFound - the user as the caller last saw it, its version must still be current
+     * @throws ObjectOptimisticLockingFailureException - when the user was changed or deleted since
+     * @throws UserAlreadyExistsException - when the new email is claimed by a user on another shard
+     */
+    @Transactional(rollbackFor = UserAlreadyExistsException.class, timeoutString = USER_STORE_TIMEOUT)
+    public User updateUserInformation(User userFound, Map<String, String> updates) throws UserAlreadyExistsException {
+        if (canUpdateColumns(userFound, updates)) {
+            return updateColumns(userFound, updates);
+        }
+
+        // the confirmation email goes to the outbox before the user is saved, on the user's shard
+        shards.useShardOf(userFound.getId());
+        boolean enrichCityLater = needsCityLookup(updates) && cityEnrichmentService.isEnabled();
+        setUserInformation(userFound, updates, !enrichCityLater);
+        User savedUser = this.repository.save(userFound);
+        if (updates.containsKey("email")) {
+            try {
+                emailClaims.claim(savedUser);
+            } catch (DuplicateKeyException exception) {
+                throw new UserAlreadyExistsException(updates.get("email"), exception);
+            }
+        }
+        userNameDirectory.onSaved(savedUser);
+
+        // the enrichment has to be queued after the save, it only writes the city if the saved zip still matches
+        if (enrichCityLater && !cityEnrichmentService.enqueue(savedUser.getId(), savedUser.getZipCode())) {
+            savedUser.setCity(zipCodeLookupService.lookupCityByZip(savedUser.getZipCode()));
+            savedUser = this.repository.save(savedUser);
+        }
+        eventPublisher.publishEvent(UserChangedEvent.saved(savedUser));
+        return savedUser;
     }
 
-    private void setUserInformation(User userFound, Map<String, String> updates) {
+    /**
+     * Looks up the city for a zip code update ahead of {@link #updateUserInformation}, so the lookup can run on
+     * its own bulkhead and outside of the update's transaction.
+     * @return - the updates with the city filled in, or the given updates when there is nothing to look up
+     */
+    public Map<String, String> resolveCity(Map<String, String> updates) {
+        if (!needsCityLookup(updates) || cityEnrichmentService.isEnabled()) {
+            return updates;
+        }
+
+        String city = zipCodeLookupService.lookupCityByZip(updates.get("zipCode"));
+        if (city == null) {
+            return updates;
+        }
+        Map<String, String> resolved = new HashMap<>(updates);
+        resolved.put("city", city);
+        return resolved;
+    }
+
+    private static boolean canUpdateColumns(User userFound, Map<String, String> updates) {
+        return userFound.getVersion() != null && !updates.containsKey("email") && !needsCityLookup(updates);
+    }
+
+    private User updateColumns(User userFound, Map<String, String> updates) {
+        Map<String, String> columns = new HashMap<>();
+        for (String attribute : COLUMN_UPDATES) {
+            if (updates.containsKey(attribute)) {
+                columns.put(attribute, updates.get(attribute));
+            }
+        }
+        if (columns.isEmpty()) {
+            return userFound;
+        }
+
+        if (this.repository.updateColumns(userFound.getId(), userFound.getVersion(), columns) == 0) {
+            throw new ObjectOptimisticLockingFailureException(User.class, userFound.getId());
+        }
+        // the UPDATE bypasses the entity listener that normally evicts the cached user
+        userCacheInvalidator.evict(userFound.getId());
+        setUserInformation(userFound, columns, false);
+        userFound.setVersion(userFound.getVersion() + 1);
+        eventPublisher.publishEvent(UserChangedEvent.saved(userFound));
+        return userFound;
+    }
+
+    private void setUserInformation(User userFound, Map<String, String> updates, boolean lookupCity) {
+        applyUpdates(userFound, updates);
+        if (updates.containsKey("email")) {
+            emailFilter.put(updates.get("email"));
+            emailService.sendConfirmation(updates.get("email"));
+        }
+        if (lookupCity && needsCityLookup(updates)) {
+            userFound.setCity(zipCodeLookupService.lookupCityByZip(updates.get("zipCode")));
+        }
+    }
+
+    /**
+     * Copies the zip code, city and email of a PATCH onto the user. A zip code without a city clears the city,
+     * looking the city up and confirming a new email are left to the caller.
+     */
+    static void applyUpdates(User user, Map<String, String> updates) {
         updates.forEach((key, value) -> {
             switch (key) {
                 case "zipCode":
-                    userFound.setZipCode(value);
+                    user.setZipCode(value);
                     break;
                 case "city":
-                    userFound.setCity(value);
+                    user.setCity(value);
                     break;
                 case "email":
-                    updateEmail(userFound, value);
+                    user.setEmail(value);
                     break;
             }
         });
 
-        if((updates.get("city") == null) && (updates.get("zipCode") != null)) {
-            userFound.setCity(zipCodeLookupService.lookupCityByZip(updates.get("zipCode")));
+        if (needsCityLookup(updates)) {
+            user.setCity(null);
         }
     }
 
+    static boolean needsCityLookup(Map<String, String> updates) {
+        return (updates.get("city") == null) && (updates.get("zipCode") != null);
+    }
+
     public void deleteById(Long id) {
         repository.deleteById(id);
+        emailClaims.releaseAll(id);
+        userNameDirectory.onDeleted(id);
+        eventPublisher.publishEvent(UserChangedEvent.deleted(id));
     }
 
+    @Transactional(readOnly = true)
     public Map<Long, String> getNames() {
-        return StreamSupport.stream(repository.findAll().spliterator(), false)
-                .collect(toMap(User::getId, user -> {
-                    return user.getFirstName() + ", " + user.getFirstName();
-                }));
+        if (readModel.isLoaded()) {
+            return readModel.getNames();
+        }
+        return userNameDirectory.getNames();
+    }
 
+    /**
+     * @return - whether the violation is the unique index on the normalized email, rather than any other constraint.
+     * When the driver names no constraint, any unique violation counts, ids are generated so it can only be the email.
+     */
+    public static boolean isDuplicateEmail(DataIntegrityViolationException exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException) {
+                ConstraintViolationException violation = (ConstraintViolationException) cause;
+                if (violation.getConstraintName() != null) {
+                    return isUniqueEmailIndex(violation.getConstraintName());
+                }
+                return UNIQUE_VIOLATION_SQL_STATE.equals(violation.getSQLState());
+            }
+            if (cause instanceof SQLException) {
+                return UNIQUE_VIOLATION_SQL_STATE.equals(((SQLException) cause).getSQLState());
+            }
+        }
+        return false;
     }
 
-    private void updateEmail(User userFound, String value) {
-        userFound.setEmail(value);
-        emailService.sendConfirmation(value);
+    /**
+     * Dialects name the index as it is or qualified by its schema, H2's name is also quoted and followed by the
+     * indexed columns and values.
+     */
+    private static boolean isUniqueEmailIndex(String constraintName) {
+        String name = constraintName.replace("\"", "").trim().split("\\s+")[0];
+        return UNIQUE_EMAIL_INDEX.equalsIgnoreCase(name.substring(name.lastIndexOf('.') + 1));
     }
 }
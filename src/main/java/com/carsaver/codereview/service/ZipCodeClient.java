@@ -0,0 +1,50 @@
+package com.carsaver.codereview.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Client for the upstream zip code service. Every call is a remote round trip, callers should
+ * go through {@link ZipCodeLookupService} rather than using this directly.
+ */
+@Component
+public class ZipCodeClient {
+
+    /**
+     * @param zipCode
+     * @return - returns city for the given zipCode.
+     */
+    public String lookupCityByZip(String zipCode) {
+        System.out.print("looking up city by zipCode (this might take a while)");
+        simulateRoundTrip();
+
+        return "37067";
+    }
+
+    /**
+     * Resolves several zip codes in a single round trip.
+     * @param zipCodes
+     * @return - returns zipCode to city for every zipCode the upstream service knows.
+     */
+    public Map<String, String> lookupCitiesByZip(Collection<String> zipCodes) {
+        System.out.print("looking up cities for " + zipCodes.size() + " zipCodes (this might take a while)");
+        simulateRoundTrip();
+
+        Map<String, String> cities = new LinkedHashMap<>();
+        zipCodes.forEach(zipCode -> cities.put(zipCode, "37067"));
+        return cities;
+    }
+
+    private void simulateRoundTrip() {
+        try {
+            //simulating a high latency call
+            Thread.sleep(5000);
+        } catch(Exception ignore) {
+
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.carsaver.codereview.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory zip code to city index loaded from the reference file shipped with the deployment. Lines have the
+ * form {@code zipCode,city}. Zip codes are kept as a sorted {@code int[]} next to an {@code int[]} of ids into a
+ * de-duplicated city table, so a lookup is a binary search and the heap cost is a few bytes per zip.
+ */
+@Component
+public class ZipCodeIndex {
+    private final ResourceLoader resourceLoader;
+
+    private final String location;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    @Autowired
+    public ZipCodeIndex(ResourceLoader resourceLoader,
+                        @Value("${codereview.zip-lookup.local-index.location:}") String location) {
+        this.resourceLoader = resourceLoader;
+        this.location = location;
+    }
+
+    @PostConstruct
+    public void load() {
+        if (isConfigured()) {
+            reload();
+        }
+    }
+
+    /**
+     * @return - whether a reference file is configured, without one the index stays empty
+     */
+    public boolean isConfigured() {
+        return StringUtils.hasText(location);
+    }
+
+    /**
+     * Re-reads the reference file and swaps the index in one step, lookups keep using the previous
+     * index until the new one is complete.
+     * @return - number of zip codes in the new index
+     * @throws IllegalStateException - when no reference file is configured
+     */
+    public int reload() {
+        if (!isConfigured()) {
+            throw new IllegalStateException("No zip code index location is configured");
+        }
+        Resource resource = resourceLoader.getResource(location);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+            snapshot = Snapshot.read(reader);
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Could not load zip code index from " + location, exception);
+        }
+        return snapshot.size();
+    }
+
+    /**
+     * @param zipCode - 5 digit zip code, a ZIP+4 suffix is ignored
+     * @return - returns city for the given zipCode, or null if the index does not have it.
+     */
+    public String lookupCityByZip(String zipCode) {
+        int zip = parseZip(zipCode);
+        return zip < 0 ? null : snapshot.lookup(zip);
+    }
+
+    public int size() {
+        return snapshot.size();
+    }
+
+    private static int parseZip(String zipCode) {
+        if (zipCode == null || zipCode.length() < 5 || (zipCode.length() > 5 && zipCode.charAt(5) != '-')) {
+            return -1;
+        }
+
+        int zip = 0;
+        for (int i = 0; i < 5; i++) {
+            char digit = zipCode.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            zip = zip * 10 + (digit - '0');
+        }
+        return zip;
+    }
+
+    private static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(new int[0], new int[0], new String[0]);
+
+        private final int[] zips;
+
+        private final int[] cityIds;
+
+        private final String[] cities;
+
+        private Snapshot(int[] zips, int[] cityIds, String[] cities) {
+            this.zips = zips;
+            this.cityIds = cityIds;
+            this.cities = cities;
+        }
+
+        private static Snapshot read(BufferedReader reader) throws IOException {
+            Map<String, Integer> cityIdsByName = new HashMap<>();
+            List<String> cities = new ArrayList<>();
+            // zip in the high half and city id in the low half, so one primitive sort orders both arrays
+            long[] entries = new long[1024];
+            int count = 0;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comma = line.indexOf(',');
+                int zip = comma < 0 ? -1 : parseZip(line.substring(0, comma).trim());
+                if (zip < 0) {
+                    continue;
+                }
+
+                String city = line.substring(comma + 1).trim();
+                int cityId = cityIdsByName.computeIfAbsent(city, name -> {
+                    cities.add(name);
+                    return cities.size() - 1;
+                });
+
+                if (count == entries.length) {
+                    entries = Arrays.copyOf(entries, count * 2);
+                }
+                entries[count++] = ((long) zip << 32) | cityId;
+            }
+
+            Arrays.sort(entries, 0, count);
+
+            int[] zips = new int[count];
+            int[] cityIds = new int[count];
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                int zip = (int) (entries[i] >>> 32);
+                // a zip listed more than once keeps a single entry
+                if (size > 0 && zips[size - 1] == zip) {
+                    size--;
+                }
+                zips[size] = zip;
+                cityIds[size] = (int) entries[i];
+                size++;
+            }
+
+            return new Snapshot(Arrays.copyOf(zips, size), Arrays.copyOf(cityIds, size), cities.toArray(new String[0]));
+        }
+
+        private String lookup(int zip) {
+            int position = Arrays.binarySearch(zips, zip);
+            return position < 0 ? null : cities[cityIds[position]];
+        }
+
+        private int size() {
+            return zips.length;
+        }
+    }
+}
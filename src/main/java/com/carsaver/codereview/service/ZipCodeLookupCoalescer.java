@@ -0,0 +1,127 @@
+package com.carsaver.codereview.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects single zip code lookups from concurrent callers and sends them upstream as one batch, either
+ * when the coalescing window closes or when the batch is full. The upstream service charges per round trip,
+ * so a burst of address updates costs one call instead of one per zip. Batches go upstream on a bulkhead of
+ * their own, so a slow upstream ties up a bounded number of threads; a batch the bulkhead has no room for, or
+ * that times out, fails its callers with {@link BulkheadFullException} or a {@link java.util.concurrent.TimeoutException}.
+ */
+@Component
+public class ZipCodeLookupCoalescer {
+    private final ZipCodeClient zipCodeClient;
+
+    private final boolean enabled;
+
+    private final Duration window;
+
+    private final int maxBatchSize;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "zip-lookup-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Bulkhead batchBulkhead;
+
+    private final Object lock = new Object();
+
+    private Map<String, CompletableFuture<String>> batch = new LinkedHashMap<>();
+
+    @Autowired
+    public ZipCodeLookupCoalescer(ZipCodeClient zipCodeClient,
+                                  @Value("${codereview.zip-lookup.coalescing.enabled:false}") boolean enabled,
+                                  @Value("${codereview.zip-lookup.coalescing.window:50ms}") Duration window,
+                                  @Value("${codereview.zip-lookup.coalescing.max-batch-size:100}") int maxBatchSize,
+                                  @Value("${codereview.zip-lookup.coalescing.threads:4}") int batchThreads,
+                                  @Value("${codereview.zip-lookup.coalescing.queue-capacity:20}") int batchQueueCapacity,
+                                  @Value("${codereview.zip-lookup.coalescing.timeout:10s}") Duration batchTimeout) {
+        this.zipCodeClient = zipCodeClient;
+        this.enabled = enabled;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        this.batchBulkhead = new Bulkhead("zip-lookup-batch", enabled ? batchThreads : 0, batchQueueCapacity, batchTimeout);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param zipCode
+     * @return - completes with the city for the given zipCode, or null if upstream does not know it, once the
+     * batch it was added to has been resolved.
+     */
+    public CompletableFuture<String> lookupCityByZip(String zipCode) {
+        Map<String, CompletableFuture<String>> fullBatch = null;
+        CompletableFuture<String> city;
+
+        synchronized (lock) {
+            Map<String, CompletableFuture<String>> currentBatch = batch;
+            city = currentBatch.computeIfAbsent(zipCode, key -> new CompletableFuture<>());
+
+            if (currentBatch.size() == 1) {
+                scheduler.schedule(() -> flush(currentBatch), window.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            if (currentBatch.size() >= maxBatchSize) {
+                fullBatch = detach(currentBatch);
+            }
+        }
+
+        if (fullBatch != null) {
+            dispatch(fullBatch);
+        }
+        return city;
+    }
+
+    private void flush(Map<String, CompletableFuture<String>> expectedBatch) {
+        Map<String, CompletableFuture<String>> closedBatch;
+        synchronized (lock) {
+            // the batch may already have been sent because it filled up before the window closed
+            closedBatch = detach(expectedBatch);
+        }
+
+        if (closedBatch != null) {
+            dispatch(closedBatch);
+        }
+    }
+
+    private Map<String, CompletableFuture<String>> detach(Map<String, CompletableFuture<String>> expectedBatch) {
+        if (batch != expectedBatch) {
+            return null;
+        }
+        batch = new LinkedHashMap<>();
+        return expectedBatch;
+    }
+
+    private void dispatch(Map<String, CompletableFuture<String>> closedBatch) {
+        batchBulkhead.call(() -> zipCodeClient.lookupCitiesByZip(closedBatch.keySet()))
+                .whenComplete((cities, exception) -> {
+                    if (exception != null) {
+                        closedBatch.values().forEach(city -> city.completeExceptionally(exception));
+                    } else {
+                        closedBatch.forEach((zipCode, city) -> city.complete(cities.get(zipCode)));
+                    }
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        batchBulkhead.shutdown();
+    }
+}
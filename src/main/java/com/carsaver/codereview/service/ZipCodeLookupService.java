@@ -1,25 +1,152 @@
 package com.carsaver.codereview.service;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
 @Service
-public class ZipCodeLookupService {
+public class ZipCodeLookupService implements MeterBinder {
+    private final ZipCodeClient zipCodeClient;
+
+    private final ZipCodeLookupCoalescer zipCodeLookupCoalescer;
+
+    private final ZipCodeIndex zipCodeIndex;
+
+    private final AsyncCache<String, String> cityCache;
+
+    @Autowired
+    public ZipCodeLookupService(ZipCodeClient zipCodeClient,
+                                ZipCodeLookupCoalescer zipCodeLookupCoalescer,
+                                ZipCodeIndex zipCodeIndex,
+                                @Value("${codereview.zip-lookup.cache.max-size:1000}") long maxSize,
+                                @Value("${codereview.zip-lookup.cache.ttl:24h}") Duration ttl) {
+        this.zipCodeClient = zipCodeClient;
+        this.zipCodeLookupCoalescer = zipCodeLookupCoalescer;
+        this.zipCodeIndex = zipCodeIndex;
+        // the first miss of a zip installs a future and looks it up outside of the cache's lock, concurrent misses
+        // for the same zip wait on that future
+        this.cityCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+    }
 
     /**
      * @param zipCode
-     * @return - returns city for the given zipCode.
+     * @return - returns city for the given zipCode, served from the local index or the cache when possible.
      */
     public String lookupCityByZip(String zipCode) {
-        System.out.print("looking up city by zipCode (this might take a while)");
+        String city = zipCodeIndex.lookupCityByZip(zipCode);
+        if (city != null) {
+            return city;
+        }
 
-        try {
-            //simulating a high latency call
-            Thread.sleep(5000);
-        } catch(Exception ignore) {
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> cached = cityCache.get(zipCode, (key, executor) -> load);
+        if (cached == load) {
+            try {
+                // a null city removes the entry again
+                load.complete(fetchCity(zipCode));
+            } catch (RuntimeException exception) {
+                // a failed future is dropped from the cache, the next lookup tries again
+                load.completeExceptionally(exception);
+                throw exception;
+            }
+        }
+        return join(cached);
+    }
 
+    /**
+     * Resolves every zip code that is neither in the local index nor cached in one upstream round trip.
+     * @param zipCodes
+     * @return - returns zipCode to city for every zipCode that could be resolved.
+     */
+    public Map<String, String> lookupCitiesByZip(Collection<String> zipCodes) {
+        Map<String, String> cities = new LinkedHashMap<>();
+        List<String> remote = new ArrayList<>();
+        zipCodes.forEach(zipCode -> {
+            String city = zipCodeIndex.lookupCityByZip(zipCode);
+            if (city != null) {
+                cities.put(zipCode, city);
+            } else {
+                remote.add(zipCode);
+            }
+        });
+
+        if (!remote.isEmpty()) {
+            CompletableFuture<Map<String, String>> load = new CompletableFuture<>();
+            Set<String> missing = new HashSet<>();
+            CompletableFuture<Map<String, String>> cached = cityCache.getAll(remote, (keys, executor) -> {
+                keys.forEach(missing::add);
+                return load;
+            });
+            if (!missing.isEmpty()) {
+                try {
+                    // zip codes the client has no city for are left out, and removed from the cache again
+                    load.complete(zipCodeClient.lookupCitiesByZip(remote.stream()
+                            .filter(missing::contains)
+                            .distinct()
+                            .collect(Collectors.toList())));
+                } catch (RuntimeException exception) {
+                    load.completeExceptionally(exception);
+                    throw exception;
+                }
+            }
+            cities.putAll(join(cached));
         }
+        return cities;
+    }
 
-        return "37067";
+    /**
+     * @return - hit, miss and eviction counters of the zip code cache.
+     */
+    public CacheStats getCacheStats() {
+        return cityCache.synchronous().stats();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cityCache, "zip-codes");
+    }
+
+    private String fetchCity(String zipCode) {
+        if (zipCodeLookupCoalescer.isEnabled()) {
+            return join(zipCodeLookupCoalescer.lookupCityByZip(zipCode));
+        }
+        return zipCodeClient.lookupCityByZip(zipCode);
+    }
+
+    /**
+     * A failed lookup reaches every caller as itself, so a full batch bulkhead can be answered with 503.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exception.getCause();
+            }
+            throw exception;
+        }
     }
 
 }
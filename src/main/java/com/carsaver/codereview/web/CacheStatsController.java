@@ -0,0 +1,55 @@
+package com.carsaver.codereview.web;
+
+import com.carsaver.codereview.service.EmailBloomFilter;
+import com.carsaver.codereview.service.UserCache;
+import com.carsaver.codereview.service.ZipCodeLookupService;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+public class CacheStatsController {
+    private final UserCache userCache;
+
+    private final ZipCodeLookupService zipCodeLookupService;
+
+    private final EmailBloomFilter emailFilter;
+
+    @Autowired
+    public CacheStatsController(UserCache userCache, ZipCodeLookupService zipCodeLookupService,
+                                EmailBloomFilter emailFilter) {
+        this.userCache = userCache;
+        this.zipCodeLookupService = zipCodeLookupService;
+        this.emailFilter = emailFilter;
+    }
+
+    @GetMapping("/caches/stats")
+    public ResponseEntity<Map<String, Map<String, Number>>> findStats() {
+        Map<String, Map<String, Number>> stats = new LinkedHashMap<>();
+        stats.put("users", toMap(this.userCache.getStats()));
+        stats.put("zipCodes", toMap(this.zipCodeLookupService.getCacheStats()));
+
+        Map<String, Number> emailFilterStats = new LinkedHashMap<>();
+        emailFilterStats.put("count", this.emailFilter.count());
+        emailFilterStats.put("expectedFalsePositiveRate", this.emailFilter.expectedFalsePositiveRate());
+        emailFilterStats.put("memoryBytes", this.emailFilter.memoryBytes());
+        stats.put("emailFilter", emailFilterStats);
+        return new ResponseEntity<>(stats, HttpStatus.OK);
+    }
+
+    private static Map<String, Number> toMap(CacheStats cacheStats) {
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put("hitCount", cacheStats.hitCount());
+        values.put("missCount", cacheStats.missCount());
+        values.put("hitRate", cacheStats.hitRate());
+        values.put("evictionCount", cacheStats.evictionCount());
+        values.put("averageLoadPenaltyNanos", cacheStats.averageLoadPenalty());
+        return values;
+    }
+}
@@ -0,0 +1,30 @@
+package com.carsaver.codereview.web;
+
+import com.carsaver.codereview.service.CityEnrichmentService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+public class CityEnrichmentController {
+    private final CityEnrichmentService cityEnrichmentService;
+
+    @Autowired
+    public CityEnrichmentController(CityEnrichmentService cityEnrichmentService) {
+        this.cityEnrichmentService = cityEnrichmentService;
+    }
+
+    @GetMapping("/enrichments/city/pending")
+    public ResponseEntity<Map<Long, String>> findPending() {
+        return new ResponseEntity<>(this.cityEnrichmentService.getPending(), HttpStatus.OK);
+    }
+
+    @GetMapping("/enrichments/city/failed")
+    public ResponseEntity<Map<Long, CityEnrichmentService.Failure>> findFailed() {
+        return new ResponseEntity<>(this.cityEnrichmentService.getFailed(), HttpStatus.OK);
+    }
+}
@@ -0,0 +1,81 @@
+package com.carsaver.codereview.web;
+
+import com.carsaver.codereview.config.ReadYourWrites;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Gives clients read-your-writes when reads go to a replica. A request that may write reads from the primary
+ * throughout and hands back a cookie that keeps the client's reads on the primary for the sticky window, counted
+ * from when the write arrived, so the window has to cover the replica's lag plus the time a write takes. The
+ * cookie carries the time itself, any instance can honor it without shared state.
+ */
+@Component
+@ConditionalOnProperty(name = "codereview.datasource.replica.enabled", havingValue = "true")
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+    static final String COOKIE = "codereview-primary-until";
+
+    private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS", "TRACE");
+
+    private final Duration stickyWindow;
+
+    @Autowired
+    public ReadYourWritesFilter(@Value("${codereview.datasource.replica.sticky-window:5s}") Duration stickyWindow) {
+        this.stickyWindow = stickyWindow;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long now = System.currentTimeMillis();
+        if (!SAFE_METHODS.contains(request.getMethod())) {
+            // the response may be committed before the write is, so the cookie goes out up front
+            Cookie cookie = new Cookie(COOKIE, Long.toString(now + stickyWindow.toMillis()));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) Math.max(1, (stickyWindow.toMillis() + 999) / 1000));
+            response.addCookie(cookie);
+            ReadYourWrites.pinUntil(Long.MAX_VALUE);
+        } else {
+            long pinnedUntil = pinnedUntil(request);
+            if (pinnedUntil > now) {
+                ReadYourWrites.pinUntil(pinnedUntil);
+            }
+        }
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ReadYourWrites.clear();
+        }
+    }
+
+    private static long pinnedUntil(HttpServletRequest request) {
+        if (request.getCookies() == null) {
+            return 0;
+        }
+        for (Cookie cookie : request.getCookies()) {
+            if (COOKIE.equals(cookie.getName())) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException exception) {
+                    // not one of ours, read from the replica
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,33 @@
+package com.carsaver.codereview.web;
+
+import com.carsaver.codereview.model.UserBulkUpdate;
+import com.carsaver.codereview.model.UserBulkUpdateReport;
+import com.carsaver.codereview.service.UserBulkUpdateService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+public class UserBulkUpdateController {
+    private final UserBulkUpdateService userBulkUpdateService;
+
+    @Autowired
+    public UserBulkUpdateController(UserBulkUpdateService userBulkUpdateService) {
+        this.userBulkUpdateService = userBulkUpdateService;
+    }
+
+    /**
+     * updates many users from a JSON array body of objects with an id and the updates of a PATCH of that user
+     * @return per-item outcome of the update
+     */
+    @PatchMapping(value = "/users", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<UserBulkUpdateReport> updateUsers(@RequestBody List<UserBulkUpdate> updates) {
+        return new ResponseEntity<>(this.userBulkUpdateService.update(updates), HttpStatus.OK);
+    }
+}
@@ -1,36 +1,120 @@
 package com.carsaver.codereview.web;
 
 import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserPage;
+import com.carsaver.codereview.model.UserSearchCriteria;
+import com.carsaver.codereview.service.BulkheadFullException;
+import com.carsaver.codereview.service.UserAlreadyExistsException;
+import com.carsaver.codereview.service.UserBulkheads;
 import com.carsaver.codereview.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 public class UserController {
     private final UserService userService;
 
+    private final UserBulkheads bulkheads;
+
     @Autowired
-    public UserController(UserService userService) {
+    public UserController(UserService userService, UserBulkheads bulkheads) {
         this.userService = userService;
+        this.bulkheads = bulkheads;
     }
 
+    /**
+     * returns users ordered by id, one page at a time
+     * @param afterId - cursor from the previous page's next link, omit for the first page
+     * @param limit - page size, capped at the configured maximum
+     * @return page of users, with a Link header pointing at the next page unless this is the last one. The page's
+     * ETag changes with any user on it, a request whose If-None-Match still matches gets 304 and no body
+     */
     @GetMapping("/users")
-    public ResponseEntity<List<User>> findAll() throws RuntimeException{
-        List<User> users;
+    public ResponseEntity<List<User>> findAll(@RequestParam(required = false) Long afterId,
+                                              @RequestParam(required = false) Integer limit) throws RuntimeException{
+        UserPage page;
         try {
-            users = this.userService.findAll();
+            page = this.userService.findPage(afterId, limit);
         } catch (Exception exception) {
             return new ResponseEntity(exception, HttpStatus.NOT_FOUND);
         }
 
-        return new ResponseEntity(users, HttpStatus.OK);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(UserETags.of(page));
+        if (page.getNextAfterId() != null) {
+            headers.add(HttpHeaders.LINK, "</users?afterId=" + page.getNextAfterId() + "&limit=" + page.getLimit() + ">; rel=\"next\"");
+        }
+        return new ResponseEntity<>(page.getUsers(), headers, HttpStatus.OK);
     }
 
+    /**
+     * returns the users matching every given filter ordered by id, one page at a time
+     * @param city - city, ignoring case
+     * @param lastName - start of the last name, ignoring case
+     * @param afterId - cursor from the previous page's next link, omit for the first page
+     * @param limit - page size, capped at the configured maximum
+     * @return page of users with a Link header to the next page like GET /users, 400 when no filter is given
+     */
+    @GetMapping("/users/search")
+    public ResponseEntity<List<User>> search(@RequestParam(required = false) String city,
+                                             @RequestParam(required = false) String zipCode,
+                                             @RequestParam(required = false) String lastName,
+                                             @RequestParam(required = false) Boolean enabled,
+                                             @RequestParam(required = false) Long afterId,
+                                             @RequestParam(required = false) Integer limit) {
+        UserPage page;
+        try {
+            page = this.userService.search(new UserSearchCriteria(city, zipCode, lastName, enabled), afterId, limit);
+        } catch (IllegalArgumentException exception) {
+            return new ResponseEntity(exception.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(UserETags.of(page));
+        if (page.getNextAfterId() != null) {
+            String next = UriComponentsBuilder.fromPath("/users/search")
+                    .queryParamIfPresent("city", Optional.ofNullable(city))
+                    .queryParamIfPresent("zipCode", Optional.ofNullable(zipCode))
+                    .queryParamIfPresent("lastName", Optional.ofNullable(lastName))
+                    .queryParamIfPresent("enabled", Optional.ofNullable(enabled))
+                    .queryParam("afterId", page.getNextAfterId())
+                    .queryParam("limit", page.getLimit())
+                    .encode()
+                    .toUriString();
+            headers.add(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return new ResponseEntity<>(page.getUsers(), headers, HttpStatus.OK);
+    }
+
+    @GetMapping("/users/names")
+    public ResponseEntity<Map<Long, String>> getNames() {
+        Map<Long, String> names;
+        try {
+            names = this.userService.getNames();
+        } catch (Exception exception) {
+            return new ResponseEntity(exception, HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(names, HttpStatus.OK);
+    }
+
+    /**
+     * returns the user with its version as ETag, a request whose If-None-Match still matches gets 304 and no body
+     */
     @GetMapping("/user/{id}")
     public ResponseEntity<User> findById(@PathVariable Long id){
         User user;
@@ -39,47 +123,85 @@ public class UserController {
         } catch (Exception exception) {
             return new ResponseEntity(exception, HttpStatus.NOT_FOUND);
         }
-        return new ResponseEntity(user, HttpStatus.OK);
+        return new ResponseEntity(user, UserETags.headers(user), HttpStatus.OK);
     }
 
+    /**
+     * creates a user, on the user store bulkhead when async mode is enabled
+     * @return created User, 409 when the email is taken, 503 when the bulkhead is full, 504 when it timed out
+     */
     @PostMapping("/users")
-    public ResponseEntity<User> createUser(
+    public CompletableFuture<ResponseEntity<User>> createUser(
             @RequestParam String firstName,
             @RequestParam String lastName,
             @RequestParam String email
     ) {
-        User createdUser;
-
         User user = new User();
         user.setFirstName(firstName);
         user.setLastName(lastName);
         user.setEmail(email);
 
-        try {
-            createdUser = this.userService.createUser(user);
-        } catch (Exception exception) {
-            return new ResponseEntity(exception, HttpStatus.BAD_REQUEST);
-        }
-        return new ResponseEntity(createdUser, HttpStatus.CREATED);
+        return this.bulkheads.userStore().call(() -> this.userService.createUser(user))
+                .handle((createdUser, failure) -> {
+                    if (failure == null) {
+                        return new ResponseEntity(createdUser, HttpStatus.CREATED);
+                    }
+                    Throwable exception = unwrap(failure);
+                    if (exception instanceof UserAlreadyExistsException) {
+                        return new ResponseEntity(exception.getMessage(), HttpStatus.CONFLICT);
+                    }
+                    return failureResponse(exception);
+                });
     }
 
     /**
-     * updates user's address
+     * updates user's address. When async mode is enabled the city lookup runs on the zip lookup bulkhead and
+     * the update on the user store bulkhead
      * @param id - assume valid existing id
      * @param updates - accepts key value pairs for email, zipcode, city
-     * @return updated User
+     * @param ifMatch - ETags of the versions the update may apply to, optional
+     * @return updated User with its new ETag, 412 when the user is no longer at a version If-Match accepts, 409
+     * when it kept changing concurrently without If-Match or the email belongs to another user, 400 for any other
+     * rejected value, 503 when a bulkhead is full, 504 when a call timed out
      */
     @PatchMapping("/users/{id}")
-    public ResponseEntity<User> updateUserInformation(@PathVariable Long id, @RequestBody Map<String, String> updates) throws Exception {
-        User user;
-        try {
-            User userFound = this.userService.findById(id).orElseThrow();
-            user = this.userService.updateUserInformation(userFound, updates);
-        } catch (Exception exception) {
-            return new ResponseEntity(exception, HttpStatus.BAD_REQUEST);
-        }
-
-        return new ResponseEntity(user, HttpStatus.OK);
+    public CompletableFuture<ResponseEntity<User>> updateUserInformation(@PathVariable Long id, @RequestBody Map<String, String> updates,
+                                                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Set<Long> acceptedVersions = ifMatch == null ? null : UserETags.versions(ifMatch);
+        return this.bulkheads.zipLookup().call(() -> this.userService.resolveCity(updates))
+                .thenCompose(resolvedUpdates -> this.bulkheads.userStore().call(() -> {
+                    User userFound = this.userService.findById(id).orElseThrow();
+                    // the save checks the version again, so a change committed after this read still fails
+                    if (acceptedVersions != null && !acceptedVersions.contains(userFound.getVersion())) {
+                        throw new ObjectOptimisticLockingFailureException(User.class, id);
+                    }
+                    try {
+                        return this.userService.updateUserInformation(userFound, resolvedUpdates);
+                    } catch (OptimisticLockingFailureException exception) {
+                        if (ifMatch != null) {
+                            throw exception;
+                        }
+                        // without If-Match the last write wins, apply it once more to the user as it is now
+                        return this.userService.updateUserInformation(this.userService.findById(id).orElseThrow(), resolvedUpdates);
+                    }
+                }))
+                .handle((user, failure) -> {
+                    if (failure == null) {
+                        return new ResponseEntity(user, UserETags.headers(user), HttpStatus.OK);
+                    }
+                    Throwable exception = unwrap(failure);
+                    if (exception instanceof OptimisticLockingFailureException) {
+                        return new ResponseEntity(null, ifMatch != null ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT);
+                    }
+                    if (exception instanceof UserAlreadyExistsException) {
+                        return new ResponseEntity(exception.getMessage(), HttpStatus.CONFLICT);
+                    }
+                    if (exception instanceof DataIntegrityViolationException
+                            && UserService.isDuplicateEmail((DataIntegrityViolationException) exception)) {
+                        return new ResponseEntity("User already exist: " + updates.get("email"), HttpStatus.CONFLICT);
+                    }
+                    return failureResponse(exception);
+                });
     }
 
     @GetMapping("/users/{id}")
@@ -87,4 +209,20 @@ public class UserController {
         this.userService.deleteById(id);
         return new ResponseEntity(null, HttpStatus.NO_CONTENT);
     }
+
+    private static ResponseEntity failureResponse(Throwable exception) {
+        if (exception instanceof BulkheadFullException) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.add(HttpHeaders.RETRY_AFTER, "1");
+            return new ResponseEntity(exception.getMessage(), headers, HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        if (exception instanceof TimeoutException) {
+            return new ResponseEntity(null, HttpStatus.GATEWAY_TIMEOUT);
+        }
+        return new ResponseEntity(exception, HttpStatus.BAD_REQUEST);
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
 }
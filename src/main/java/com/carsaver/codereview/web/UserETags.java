@@ -0,0 +1,70 @@
+package com.carsaver.codereview.web;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserPage;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.DigestUtils;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Strong ETags of users and pages of users. A user's ETag is its quoted version, a page's is a hash of the ids and
+ * versions on it, so any update, insert or delete that changes what the page shows changes its ETag. Neither
+ * needs the response to be serialized, Spring answers a matching If-None-Match with 304 and skips the body.
+ */
+final class UserETags {
+    private static final String ANY = "*";
+
+    private UserETags() {
+    }
+
+    /**
+     * @return - headers carrying the user's ETag, none for a user that was never saved
+     */
+    static HttpHeaders headers(User user) {
+        HttpHeaders headers = new HttpHeaders();
+        if (user != null && user.getVersion() != null) {
+            headers.setETag(quote(user.getVersion().toString()));
+        }
+        return headers;
+    }
+
+    static String of(UserPage page) {
+        ByteBuffer buffer = ByteBuffer.allocate((page.getUsers().size() * 2 + 1) * Long.BYTES);
+        for (User user : page.getUsers()) {
+            buffer.putLong(user.getId());
+            buffer.putLong(user.getVersion() == null ? -1 : user.getVersion());
+        }
+        // whether there is a next page changes the Link header
+        buffer.putLong(page.getNextAfterId() == null ? -1 : page.getNextAfterId());
+        return quote(DigestUtils.md5DigestAsHex(buffer.array()));
+    }
+
+    /**
+     * Reads the versions an If-Match header accepts. Weak ETags never match, If-Match compares strongly.
+     * @return - the accepted versions, null when any version is accepted
+     */
+    static Set<Long> versions(String ifMatch) {
+        Set<Long> versions = new HashSet<>();
+        for (String eTag : ifMatch.split(",")) {
+            String value = eTag.trim();
+            if (ANY.equals(value)) {
+                return null;
+            }
+            if (value.length() > 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                try {
+                    versions.add(Long.parseLong(value.substring(1, value.length() - 1)));
+                } catch (NumberFormatException exception) {
+                    // not one of our ETags, it cannot match
+                }
+            }
+        }
+        return versions;
+    }
+
+    private static String quote(String value) {
+        return "\"" + value + "\"";
+    }
+}
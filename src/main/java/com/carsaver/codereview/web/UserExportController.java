@@ -0,0 +1,32 @@
+package com.carsaver.codereview.web;
+
+import com.carsaver.codereview.service.UserExportService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+@RestController
+public class UserExportController {
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final UserExportService userExportService;
+
+    @Autowired
+    public UserExportController(UserExportService userExportService) {
+        this.userExportService = userExportService;
+    }
+
+    /**
+     * streams every user as one JSON object per line, ordered by id. Written on the request thread rather than as an
+     * async request, so a full export is not cut off by the async request timeout after the 200 has been sent
+     */
+    @GetMapping("/users/export")
+    public void exportAll(HttpServletResponse response) throws IOException {
+        response.setContentType(APPLICATION_NDJSON.toString());
+        this.userExportService.exportAll(response.getOutputStream());
+    }
+}
@@ -0,0 +1,55 @@
+package com.carsaver.codereview.web;
+
+import com.carsaver.codereview.model.UserImportReport;
+import com.carsaver.codereview.service.UserImportService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+@RestController
+public class UserImportController {
+    private final UserImportService userImportService;
+
+    @Autowired
+    public UserImportController(UserImportService userImportService) {
+        this.userImportService = userImportService;
+    }
+
+    /**
+     * imports users from a CSV body with a firstName,lastName,email header
+     * @return per-row outcome of the import
+     */
+    @PostMapping(value = "/users/import", consumes = "text/csv")
+    public ResponseEntity<UserImportReport> importCsv(InputStream body) {
+        UserImportReport report;
+        try {
+            report = this.userImportService.importCsv(new InputStreamReader(body, StandardCharsets.UTF_8));
+        } catch (IOException exception) {
+            return new ResponseEntity(exception.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(report, HttpStatus.OK);
+    }
+
+    /**
+     * imports users from a JSON array body of objects with firstName, lastName and email
+     * @return per-row outcome of the import
+     */
+    @PostMapping(value = "/users/import", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<UserImportReport> importJson(InputStream body) {
+        UserImportReport report;
+        try {
+            report = this.userImportService.importJson(body);
+        } catch (IOException exception) {
+            return new ResponseEntity(exception.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(report, HttpStatus.OK);
+    }
+}
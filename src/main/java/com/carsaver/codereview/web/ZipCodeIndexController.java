@@ -0,0 +1,38 @@
+package com.carsaver.codereview.web;
+
+import com.carsaver.codereview.service.ZipCodeIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+public class ZipCodeIndexController {
+    private final ZipCodeIndex zipCodeIndex;
+
+    @Autowired
+    public ZipCodeIndexController(ZipCodeIndex zipCodeIndex) {
+        this.zipCodeIndex = zipCodeIndex;
+    }
+
+    /**
+     * reloads the local zip code index from its reference file without a restart
+     * @return number of zip codes in the reloaded index, 404 when no local index is configured
+     */
+    @PostMapping("/zip-index/reload")
+    public ResponseEntity<Map<String, Integer>> reload() {
+        if (!this.zipCodeIndex.isConfigured()) {
+            return new ResponseEntity(null, HttpStatus.NOT_FOUND);
+        }
+        int size;
+        try {
+            size = this.zipCodeIndex.reload();
+        } catch (Exception exception) {
+            return new ResponseEntity(exception, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        return new ResponseEntity<>(Map.of("size", size), HttpStatus.OK);
+    }
+}
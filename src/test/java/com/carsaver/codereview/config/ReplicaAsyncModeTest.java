@@ -0,0 +1,60 @@
+package com.carsaver.codereview.config;
+
+import com.carsaver.codereview.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import javax.servlet.http.Cookie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Runs the async endpoints against a replica that lags an hour behind, so a stage of a call that loses the
+ * caller's pin reads a user that is not there yet.
+ */
+@SpringBootTest(properties = {"codereview.datasource.replica.enabled=true",
+        "codereview.datasource.replica.local-sync.lag=1h",
+        "codereview.users.async.enabled=true"})
+@AutoConfigureMockMvc
+class ReplicaAsyncModeTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void patch_shouldReadFromThePrimary_inEveryStage_forAClientThatJustWrote() throws Exception {
+        MvcResult created = perform(post("/users")
+                .param("firstName", "Async")
+                .param("lastName", "Colbert")
+                .param("email", "async.colbert@carsaver.com"));
+        assertEquals(201, created.getResponse().getStatus());
+        Cookie cookie = created.getResponse().getCookie("codereview-primary-until");
+        User user = objectMapper.readValue(created.getResponse().getContentAsString(), User.class);
+
+        // the city lookup runs on the zip lookup bulkhead, the read and the update after it on the user store one
+        MvcResult updated = perform(patch("/users/" + user.getId())
+                .cookie(cookie)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"email\": \"async.colbert2@carsaver.com\"}"));
+        assertEquals(200, updated.getResponse().getStatus());
+        assertEquals("async.colbert2@carsaver.com",
+                objectMapper.readValue(updated.getResponse().getContentAsString(), User.class).getEmail());
+    }
+
+    private MvcResult perform(RequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        return result.getRequest().isAsyncStarted() ? mockMvc.perform(asyncDispatch(result)).andReturn() : result;
+    }
+}
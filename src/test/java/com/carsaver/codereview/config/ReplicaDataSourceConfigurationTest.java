@@ -0,0 +1,71 @@
+package com.carsaver.codereview.config;
+
+import com.carsaver.codereview.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import javax.servlet.http.Cookie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Runs against a local replica that lags an hour behind, so every read the replica serves is visibly stale.
+ */
+@SpringBootTest(properties = {"codereview.datasource.replica.enabled=true",
+        "codereview.datasource.replica.local-sync.lag=1h"})
+@AutoConfigureMockMvc
+class ReplicaDataSourceConfigurationTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private LocalReplicaSync localReplicaSync;
+
+    @Test
+    void reads_shouldGoToTheReplica_exceptForAClientThatJustWrote() throws Exception {
+        MvcResult created = perform(post("/users")
+                .param("firstName", "Replica")
+                .param("lastName", "Colbert")
+                .param("email", "replica.colbert@carsaver.com"));
+        assertEquals(201, created.getResponse().getStatus());
+        Cookie cookie = created.getResponse().getCookie("codereview-primary-until");
+        assertNotNull(cookie);
+        User user = objectMapper.readValue(created.getResponse().getContentAsString(), User.class);
+        String page = "/users?afterId=" + (user.getId() - 1) + "&limit=1";
+
+        // the replica has not seen the insert yet, the writer reads it from the primary
+        assertFalse(perform(get(page)).getResponse().getContentAsString().contains("replica.colbert"));
+        assertTrue(perform(get(page).cookie(cookie)).getResponse().getContentAsString().contains("replica.colbert"));
+        assertEquals(404, perform(get("/user/" + user.getId())).getResponse().getStatus());
+        assertEquals(200, perform(get("/user/" + user.getId()).cookie(cookie)).getResponse().getStatus());
+        assertTrue(registry.get("hikaricp.connections.acquire").tag("pool", "replica").timer().count() > 0);
+
+        user.setNormalizedEmail(User.normalizeEmail(user.getEmail()));
+        localReplicaSync.apply(user.getId(), user);
+        assertTrue(perform(get(page)).getResponse().getContentAsString().contains("replica.colbert"));
+    }
+
+    private MvcResult perform(RequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        return result.getRequest().isAsyncStarted() ? mockMvc.perform(asyncDispatch(result)).andReturn() : result;
+    }
+}
@@ -0,0 +1,51 @@
+package com.carsaver.codereview.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicaRoutingDataSourceTest {
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        ReadYourWrites.clear();
+    }
+
+    @Test
+    void target_shouldBeTheReplica_onlyForUnpinnedReadOnlyTransactions() {
+        assertEquals(ReplicaRoutingDataSource.Target.PRIMARY, ReplicaRoutingDataSource.target());
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        assertEquals(ReplicaRoutingDataSource.Target.REPLICA, ReplicaRoutingDataSource.target());
+
+        ReadYourWrites.pinUntil(System.currentTimeMillis() + 60_000);
+        assertEquals(ReplicaRoutingDataSource.Target.PRIMARY, ReplicaRoutingDataSource.target());
+
+        // the pin has run out
+        ReadYourWrites.pinUntil(System.currentTimeMillis() - 1);
+        assertEquals(ReplicaRoutingDataSource.Target.REPLICA, ReplicaRoutingDataSource.target());
+    }
+
+    @Test
+    void propagate_shouldCarryThePinToAnotherThread() throws Exception {
+        ReadYourWrites.pinUntil(Long.MAX_VALUE);
+        Callable<Boolean> pinned = ReadYourWrites.propagate(ReadYourWrites::isPinned);
+        ReadYourWrites.clear();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(executor.submit(pinned).get());
+            assertFalse(executor.submit(ReadYourWrites::isPinned).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
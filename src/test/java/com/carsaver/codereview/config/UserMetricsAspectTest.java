@@ -0,0 +1,89 @@
+package com.carsaver.codereview.config;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.service.Bulkhead;
+import com.carsaver.codereview.service.UserBulkheads;
+import com.carsaver.codereview.service.UserService;
+import com.carsaver.codereview.service.ZipCodeClient;
+import com.carsaver.codereview.service.ZipCodeIndex;
+import com.carsaver.codereview.service.ZipCodeLookupCoalescer;
+import com.carsaver.codereview.service.ZipCodeLookupService;
+import com.carsaver.codereview.web.UserController;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserMetricsAspectTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Mock
+    private ZipCodeClient mockZipCodeClient;
+
+    @Mock
+    private ZipCodeLookupCoalescer mockZipCodeLookupCoalescer;
+
+    @Mock
+    private ZipCodeIndex mockZipCodeIndex;
+
+    @Mock
+    private UserService mockUserService;
+
+    @Mock
+    private UserBulkheads mockBulkheads;
+
+    @Mock
+    private Bulkhead mockBulkhead;
+
+    @Test
+    void lookupCityByZip_shouldRecordTimerByOutcome() {
+        ZipCodeLookupService zipCodeLookupService = proxy(new ZipCodeLookupService(mockZipCodeClient,
+                mockZipCodeLookupCoalescer, mockZipCodeIndex, 100, Duration.ofHours(1)));
+        when(mockZipCodeClient.lookupCityByZip("37064")).thenReturn("Franklin");
+        when(mockZipCodeClient.lookupCityByZip("00000")).thenThrow(new IllegalStateException("lookup failed"));
+
+        assertEquals("Franklin", zipCodeLookupService.lookupCityByZip("37064"));
+        assertThrows(IllegalStateException.class, () -> zipCodeLookupService.lookupCityByZip("00000"));
+
+        assertEquals(1, registry.get("codereview.zip-lookup").tags("method", "lookupCityByZip", "exception", "none").timer().count());
+        assertEquals(1, registry.get("codereview.zip-lookup").tags("exception", "IllegalStateException").timer().count());
+        assertEquals(0, registry.get("codereview.zip-lookup.active").gauge().value());
+    }
+
+    @Test
+    void createUser_shouldCountCallInFlight_untilFutureCompletes() {
+        CompletableFuture<Object> created = new CompletableFuture<>();
+        when(mockBulkheads.userStore()).thenReturn(mockBulkhead);
+        when(mockBulkhead.call(any())).thenReturn(created);
+        UserController userController = proxy(new UserController(mockUserService, mockBulkheads));
+
+        CompletableFuture<?> response = userController.createUser("Josh", "Colbert", "josh.colbert@carsaver.com");
+
+        assertEquals(1, registry.get("codereview.users.controller.active").tags("method", "createUser").gauge().value());
+        assertEquals(0, registry.get("codereview.users.controller").timer().count());
+
+        created.complete(new User());
+
+        assertTrue(response.isDone());
+        assertEquals(0, registry.get("codereview.users.controller.active").gauge().value());
+        assertEquals(1, registry.get("codereview.users.controller").tags("exception", "none").timer().count());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(T target) {
+        AspectJProxyFactory proxyFactory = new AspectJProxyFactory(target);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAspect(new UserMetricsAspect(registry));
+        return (T) proxyFactory.getProxy();
+    }
+}
@@ -0,0 +1,66 @@
+package com.carsaver.codereview.config;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserShardingAspectTest {
+    @Test
+    public void isRouted_shouldHoldForEveryMethodOfTheRepository() {
+        for (Method method : UserRepository.class.getMethods()) {
+            assertTrue(UserShardingAspect.isRouted(method), method.toString());
+        }
+        UserShardingAspect.checkRouted(UserRepository.class);
+    }
+
+    @Test
+    public void checkRouted_shouldFail_forAWriteOrAnOrderedFinderWithoutARoute() {
+        assertThrows(IllegalStateException.class, () -> UserShardingAspect.checkRouted(WithWrite.class));
+        assertThrows(IllegalStateException.class, () -> UserShardingAspect.checkRouted(WithOrderedFinder.class));
+        UserShardingAspect.checkRouted(WithFinder.class);
+    }
+
+    @Test
+    public void merge_shouldOrderBySort_withNullsFirstAndTheIdLast() {
+        List<User> first = List.of(user(4L, null), user(1L, "Colbert"), user(3L, "Smith"));
+        List<User> second = List.of(user(2L, "colbert"), user(5L, "Smith"));
+        Sort sort = Sort.by(Sort.Order.asc("lastName").ignoreCase(), Sort.Order.asc("id"));
+
+        List<User> merged = UserShardingAspect.merge(List.of(first, second), UserShardingAspect.orderOf(sort), 1, 3);
+
+        assertEquals(List.of(1L, 2L, 3L), merged.stream().map(User::getId).collect(Collectors.toList()));
+        List<User> descending = new ArrayList<>(first);
+        descending.addAll(second);
+        descending.sort(UserShardingAspect.orderOf(Sort.by(Sort.Direction.DESC, "id")));
+        assertEquals(5L, descending.get(0).getId());
+    }
+
+    private static User user(Long id, String lastName) {
+        User user = new User();
+        user.setId(id);
+        user.setLastName(lastName);
+        return user;
+    }
+
+    private interface WithWrite extends UserRepository {
+        int disableAll();
+    }
+
+    private interface WithOrderedFinder extends UserRepository {
+        List<User> findByCityOrderByLastNameAsc(String city);
+    }
+
+    private interface WithFinder extends UserRepository {
+        List<User> findByCity(String city);
+    }
+}
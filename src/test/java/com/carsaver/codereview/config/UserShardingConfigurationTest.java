@@ -0,0 +1,213 @@
+package com.carsaver.codereview.config;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserBulkUpdateReport;
+import com.carsaver.codereview.repository.UserRepository;
+import com.carsaver.codereview.repository.UserShards;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Runs on the three local shards of the sharded profile with ranges of ten ids, so a handful of users already
+ * spreads over all of them.
+ */
+@SpringBootTest(properties = {"codereview.users.sharding.range-size=10", "codereview.users.import-chunk-size=10"})
+@ActiveProfiles("sharded")
+@AutoConfigureMockMvc
+class UserShardingConfigurationTest {
+    private static final String CHANGE_LOG = "classpath:/db/changelog/db.changelog-master.yaml";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UserShards shards;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ResourceLoader resourceLoader;
+
+    @Test
+    void users_shouldLiveOnTheShardOfTheirId_andReadBackMergedInIdOrder() throws Exception {
+        String body = objectMapper.writeValueAsString(IntStream.range(0, 35)
+                .mapToObj(i -> new ImportedUser("Shard", "Colbert" + i, "shard.colbert" + i + "@carsaver.com"))
+                .collect(Collectors.toList()));
+        assertEquals(200, perform(post("/users/import").contentType(MediaType.APPLICATION_JSON).content(body))
+                .getResponse().getStatus());
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        List<Long> all = new ArrayList<>();
+        for (int shard = 0; shard < shards.count(); shard++) {
+            int index = shard;
+            List<Long> ids = shards.on(shard, () -> jdbcTemplate.queryForList("SELECT id FROM user", Long.class));
+            assertTrue(ids.stream().allMatch(id -> shards.shardOf(id) == index), "shard " + shard + " holds " + ids);
+            assertTrue(!ids.isEmpty(), "shard " + shard + " is empty");
+            all.addAll(ids);
+        }
+        all.sort(null);
+
+        // page through every shard at once, in steps that do not line up with the id ranges
+        List<Long> paged = new ArrayList<>();
+        String next = "/users?limit=7";
+        while (next != null) {
+            MvcResult page = perform(get(next));
+            for (User user : objectMapper.readValue(page.getResponse().getContentAsString(), User[].class)) {
+                paged.add(user.getId());
+            }
+            String link = page.getResponse().getHeader(HttpHeaders.LINK);
+            next = link == null ? null : link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+        }
+        assertEquals(all, paged);
+
+        String export = perform(get("/users/export")).getResponse().getContentAsString();
+        assertEquals(all.size(), export.lines().count());
+
+        Long last = all.get(all.size() - 1);
+        User user = objectMapper.readValue(perform(get("/user/" + last)).getResponse().getContentAsString(), User.class);
+        assertEquals(last, user.getId());
+    }
+
+    @Test
+    void emails_shouldBeUniqueAcrossShards() throws Exception {
+        User first = create("Unique", "Colbert", "unique.colbert@carsaver.com");
+        User other = create("Other", "Colbert", "other.colbert@carsaver.com");
+        while (shards.shardOf(other.getId()) == shards.shardOf(first.getId())) {
+            other = create("Other", "Colbert", "other.colbert" + other.getId() + "@carsaver.com");
+        }
+
+        assertEquals(409, perform(post("/users")
+                .param("firstName", "Unique")
+                .param("lastName", "Colbert")
+                .param("email", "Unique.Colbert@carsaver.com")).getResponse().getStatus());
+        assertEquals(409, perform(patch("/users/" + other.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"email\": \"unique.colbert@carsaver.com\"}")).getResponse().getStatus());
+
+        MvcResult bulk = perform(patch("/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"id\": " + other.getId() + ", \"updates\": {\"email\": \"UNIQUE.colbert@carsaver.com\"}}]"));
+        assertEquals(UserBulkUpdateReport.Status.DUPLICATE.name(), objectMapper
+                .readTree(bulk.getResponse().getContentAsString()).path("items").path(0).path("status").asText());
+        assertEquals(other.getEmail(), userRepository.findById(other.getId()).orElseThrow().getEmail());
+    }
+
+    @Test
+    void inheritedRepositoryMethods_shouldReadAndWriteEveryShard() throws Exception {
+        List<User> created = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            created.add(create("Inherited", "Colbert" + (i % 7), "inherited.colbert" + i + "@carsaver.com"));
+        }
+        assertTrue(created.stream().map(user -> shards.shardOf(user.getId())).distinct().count() > 1);
+
+        List<User> all = userRepository.findAll();
+        assertEquals(userRepository.count(), all.size());
+        List<Long> expected = all.stream()
+                .sorted(Comparator.comparing(User::getLastName).thenComparing(User::getId, Comparator.reverseOrder()))
+                .skip(5)
+                .limit(5)
+                .map(User::getId)
+                .collect(Collectors.toList());
+        Page<User> page = userRepository.findAll(PageRequest.of(1, 5, Sort.by("lastName").and(Sort.by(Sort.Direction.DESC, "id"))));
+        assertEquals(expected, page.getContent().stream().map(User::getId).collect(Collectors.toList()));
+        assertEquals(all.size(), page.getTotalElements());
+        assertEquals(all.size(), userRepository.findAll(Sort.by("email")).size());
+
+        userRepository.deleteAll(created);
+        assertEquals(all.size() - created.size(), userRepository.count());
+    }
+
+    @Test
+    void restart_shouldKeepEveryUser_andRefuseAnotherLayout() throws Exception {
+        SingleConnectionDataSource shard = new SingleConnectionDataSource(
+                "jdbc:h2:mem:shard-restart;DB_CLOSE_DELAY=-1", "admin", "password", true);
+        try {
+            UserShardingConfiguration.migrate(shard, shard, 1, 3, 10, resourceLoader, CHANGE_LOG);
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(shard);
+            // the seed user is owned by shard 0
+            assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user", Integer.class));
+
+            // a user this layout would not place here, left by hand or by an earlier layout
+            jdbcTemplate.update("INSERT INTO user (id, first_name, last_name, email, normalized_email) "
+                    + "VALUES (5, 'Josh', 'Colbert', 'josh@carsaver.com', 'josh@carsaver.com')");
+            Long outbox = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR email_outbox_message_seq", Long.class);
+
+            UserShardingConfiguration.migrate(shard, shard, 1, 3, 10, resourceLoader, CHANGE_LOG);
+            assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user", Integer.class));
+            assertTrue(jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR email_outbox_message_seq", Long.class) > outbox);
+
+            assertThrows(IllegalStateException.class,
+                    () -> UserShardingConfiguration.migrate(shard, shard, 1, 4, 10, resourceLoader, CHANGE_LOG));
+            assertThrows(IllegalStateException.class,
+                    () -> UserShardingConfiguration.migrate(shard, shard, 1, 3, 20, resourceLoader, CHANGE_LOG));
+            assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user", Integer.class));
+        } finally {
+            shard.destroy();
+        }
+    }
+
+    private User create(String firstName, String lastName, String email) throws Exception {
+        MvcResult created = perform(post("/users")
+                .param("firstName", firstName)
+                .param("lastName", lastName)
+                .param("email", email));
+        assertEquals(201, created.getResponse().getStatus());
+        return objectMapper.readValue(created.getResponse().getContentAsString(), User.class);
+    }
+
+    private MvcResult perform(RequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        return result.getRequest().isAsyncStarted() ? mockMvc.perform(asyncDispatch(result)).andReturn() : result;
+    }
+
+    private static final class ImportedUser {
+        public final String firstName;
+
+        public final String lastName;
+
+        public final String email;
+
+        private ImportedUser(String firstName, String lastName, String email) {
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.email = email;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.carsaver.codereview.repository;
+
+import com.carsaver.codereview.model.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserEmailClaimsTest {
+    private final UserShards shards = new UserShards(2, 10, () -> UserShards.ID_BLOCK, 1);
+
+    private List<SingleConnectionDataSource> shardDataSources;
+
+    private UserEmailClaims claims;
+
+    @BeforeEach
+    void setUp() {
+        shardDataSources = List.of(shard(0), shard(1));
+        claims = new UserEmailClaims(shards, shardDataSources, Duration.ofMinutes(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        shards.shutdown();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        for (SingleConnectionDataSource shard : shardDataSources) {
+            new JdbcTemplate(shard).execute("DROP ALL OBJECTS");
+            shard.destroy();
+        }
+    }
+
+    @Test
+    public void claim_shouldRejectAnEmailClaimedOnAnotherShard_untilItsTransactionRollsBack() {
+        TransactionSynchronizationManager.initSynchronization();
+        claims.claim(user(1L, "Josh@CarSaver.com"));
+
+        // a concurrent transaction writing a user of the other shard
+        assertThrows(DuplicateKeyException.class, () -> claims.claim(user(12L, "josh@carsaver.com")));
+
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        TransactionSynchronizationManager.initSynchronization();
+        claims.claim(user(12L, "josh@carsaver.com"));
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertEquals(List.of(12L), claimants("josh@carsaver.com"));
+    }
+
+    @Test
+    public void claim_shouldReleaseThePreviousEmail_whenTheChangeCommits() {
+        TransactionSynchronizationManager.initSynchronization();
+        claims.claim(user(1L, "old@carsaver.com"));
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        TransactionSynchronizationManager.initSynchronization();
+        User user = user(1L, "new@carsaver.com");
+        claims.claim(user);
+        // claiming the same email again in one transaction is not a duplicate
+        claims.claim(user);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertEquals(List.of(), claimants("old@carsaver.com"));
+        assertEquals(List.of(1L), claimants("new@carsaver.com"));
+
+        claims.releaseAll(1L);
+        assertEquals(List.of(), claimants("new@carsaver.com"));
+    }
+
+    @Test
+    public void claim_shouldTakeOverAnExpiredClaim_onlyWhenItsUserDoesNotHoldTheEmail() {
+        JdbcTemplate firstShard = new JdbcTemplate(shardDataSources.get(0));
+        Timestamp expired = Timestamp.from(Instant.now().minus(Duration.ofHours(1)));
+        firstShard.update("INSERT INTO user_email_claim VALUES ('held@carsaver.com', 12, ?)", expired);
+        firstShard.update("INSERT INTO user_email_claim VALUES ('lost@carsaver.com', 13, ?)", expired);
+        new JdbcTemplate(shardDataSources.get(1)).update("INSERT INTO user VALUES (12, 'held@carsaver.com')");
+
+        TransactionSynchronizationManager.initSynchronization();
+        assertThrows(DuplicateKeyException.class, () -> claims.claim(user(1L, "held@carsaver.com")));
+        claims.claim(user(2L, "lost@carsaver.com"));
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertEquals(List.of(12L), claimants("held@carsaver.com"));
+        assertEquals(List.of(2L), claimants("lost@carsaver.com"));
+    }
+
+    @Test
+    public void claim_shouldDoNothing_withoutSharding() {
+        UserEmailClaims none = UserEmailClaims.none();
+
+        assertFalse(none.isEnabled());
+        none.claim(user(1L, "josh@carsaver.com"));
+        none.releaseAll(1L);
+    }
+
+    private void complete(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        if (status == TransactionSynchronization.STATUS_COMMITTED) {
+            synchronizations.forEach(TransactionSynchronization::afterCommit);
+        }
+        synchronizations.forEach(synchronization -> synchronization.afterCompletion(status));
+    }
+
+    private List<Long> claimants(String email) {
+        return new JdbcTemplate(shardDataSources.get(0))
+                .queryForList("SELECT user_id FROM user_email_claim WHERE normalized_email = ?", Long.class, email);
+    }
+
+    private static SingleConnectionDataSource shard(int shard) {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource(
+                "jdbc:h2:mem:user-email-claims-" + shard + ";DB_CLOSE_DELAY=-1", "admin", "password", true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE user (id BIGINT PRIMARY KEY, normalized_email VARCHAR(255))");
+        jdbcTemplate.execute("CREATE TABLE user_email_claim (normalized_email VARCHAR(255) PRIMARY KEY, "
+                + "user_id BIGINT NOT NULL, claimed_at TIMESTAMP NOT NULL)");
+        return dataSource;
+    }
+
+    private static User user(Long id, String email) {
+        User user = new User();
+        user.setId(id);
+        user.setEmail(email);
+        return user;
+    }
+}
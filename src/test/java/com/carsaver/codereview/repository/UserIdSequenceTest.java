@@ -0,0 +1,104 @@
+package com.carsaver.codereview.repository;
+
+import com.carsaver.codereview.service.UserImportService;
+import liquibase.integration.spring.SpringLiquibase;
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the pooled sequences of changelog 1.4 let Hibernate batch the inserts of an import, and that the
+ * changelog restarts the sequences past the ids already in use.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session.events.auto="
+        + "com.carsaver.codereview.repository.UserIdSequenceTest$BatchCounter")
+class UserIdSequenceTest {
+    @Autowired
+    private UserImportService userImportService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ResourceLoader resourceLoader;
+
+    @Test
+    void importJson_shouldInsertInJdbcBatches() throws Exception {
+        String body = IntStream.range(0, 120)
+                .mapToObj(i -> "{\"firstName\": \"Batch\", \"lastName\": \"Colbert" + i
+                        + "\", \"email\": \"batch.colbert" + i + "@carsaver.com\"}")
+                .collect(Collectors.joining(",", "[", "]"));
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        BatchCounter.batches.set(0);
+
+        userImportService.importJson(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+        // 120 users and 120 outbox messages, 50 to a batch
+        assertEquals(240, statistics.getEntityInsertCount());
+        assertEquals(6, BatchCounter.batches.get());
+        assertTrue(statistics.getPrepareStatementCount() <= 10,
+                statistics.getPrepareStatementCount() + " statements prepared for 240 inserts");
+    }
+
+    @Test
+    void changelog_shouldRestartTheSequencesPastTheIdsInUse() throws Exception {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource(
+                "jdbc:h2:mem:user-id-sequence;DB_CLOSE_DELAY=-1", "admin", "password", true);
+        try {
+            for (String version : List.of("1.0", "1.1", "1.2", "1.3")) {
+                migrate(dataSource, version);
+            }
+            JdbcTemplate existing = new JdbcTemplate(dataSource);
+            existing.update("INSERT INTO user (id, first_name, last_name, email, normalized_email) "
+                    + "VALUES (1000, 'Josh', 'Colbert', 'josh@carsaver.com', 'josh@carsaver.com')");
+            existing.update("INSERT INTO email_outbox_message (id, email, status, attempts, created_at, next_attempt_at) "
+                    + "VALUES (777, 'josh@carsaver.com', 'SENT', 1, NOW(), NOW())");
+
+            migrate(dataSource, "1.4");
+
+            // the pooled optimizer hands out the 50 ids up to each value
+            assertTrue(existing.queryForObject("SELECT NEXT VALUE FOR user_seq", Long.class) - 49 > 1000);
+            assertTrue(existing.queryForObject("SELECT NEXT VALUE FOR email_outbox_message_seq", Long.class) - 49 > 777);
+        } finally {
+            dataSource.destroy();
+        }
+    }
+
+    private void migrate(SingleConnectionDataSource dataSource, String version) throws Exception {
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(dataSource);
+        liquibase.setChangeLog("classpath:/db/changelog/db.changelog-" + version + ".yaml");
+        liquibase.setResourceLoader(resourceLoader);
+        liquibase.afterPropertiesSet();
+    }
+
+    /**
+     * Counts the JDBC batches Hibernate executes, there is no such counter in its statistics.
+     */
+    public static class BatchCounter extends BaseSessionEventListener {
+        static final AtomicInteger batches = new AtomicInteger();
+
+        @Override
+        public void jdbcExecuteBatchStart() {
+            batches.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.carsaver.codereview.repository;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserSearchCriteria;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs every combination of search filters, with and without a cursor, and checks H2's plan of the SQL Hibernate
+ * generated for it, so a filter that is not covered by an index fails here rather than scanning the table.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "com.carsaver.codereview.repository.UserSearchQueryPlanTest$LastStatement")
+class UserSearchQueryPlanTest {
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void search_shouldUseAnIndex_forEveryCombinationOfFilters() {
+        for (int filters = 1; filters < 16; filters++) {
+            UserSearchCriteria criteria = new UserSearchCriteria(
+                    (filters & 1) != 0 ? "Franklin" : null,
+                    (filters & 2) != 0 ? "37064" : null,
+                    (filters & 4) != 0 ? "Col" : null,
+                    (filters & 8) != 0 ? Boolean.TRUE : null);
+            for (Long afterId : new Long[]{null, 1L}) {
+                userRepository.search(criteria, afterId, 10);
+                String plan = explain(LastStatement.sql);
+
+                // H2 names the index and the conditions it seeks on, a scan or a walk of the primary key has neither
+                assertTrue(plan.toUpperCase(Locale.ROOT).matches("(?s).*/\\* PUBLIC\\.USER_\\w+_IDX: .*"),
+                        criteria + ", afterId " + afterId + " does not seek a search index:\n" + plan);
+            }
+        }
+    }
+
+    @Test
+    void search_shouldMatchCityAndLastNamePrefixIgnoringCase() {
+        User user = new User();
+        user.setFirstName("Search");
+        user.setLastName("Colbert");
+        user.setEmail("search.colbert@carsaver.com");
+        user.setCity("Franklin");
+        user.setZipCode("37064");
+        user.setEnabled(true);
+        user = userRepository.save(user);
+        try {
+            List<User> found = userRepository.search(new UserSearchCriteria(" FRANKLIN", null, "colb", true), null, 10);
+
+            assertEquals(List.of(user.getId()), found.stream().map(User::getId).collect(Collectors.toList()));
+            assertEquals(List.of(), userRepository.search(new UserSearchCriteria("Franklin", null, "colt", null), null, 10));
+        } finally {
+            userRepository.deleteById(user.getId());
+        }
+    }
+
+    @Test
+    void search_shouldFindUsersByTheirUpdatedCityAndLastName() {
+        User user = new User();
+        user.setFirstName("Moved");
+        user.setLastName("Colbert");
+        user.setEmail("moved.colbert@carsaver.com");
+        user.setCity("Franklin");
+        user = userRepository.save(user);
+        try {
+            user.setLastName("Stewart");
+            user = userRepository.save(user);
+            Long id = user.getId();
+            Long version = user.getVersion();
+            // written column by column, without the entity's callbacks
+            transactionTemplate.executeWithoutResult(status ->
+                    userRepository.updateColumns(id, version, Map.of("city", " Brentwood")));
+
+            assertEquals(List.of(id), userRepository.search(new UserSearchCriteria("brentwood", null, "stew", null), null, 10)
+                    .stream().map(User::getId).collect(Collectors.toList()));
+            assertEquals(List.of(), userRepository.search(new UserSearchCriteria("Franklin", null, "Colb", null), null, 10));
+        } finally {
+            userRepository.deleteById(user.getId());
+        }
+    }
+
+    private String explain(String sql) {
+        return jdbcTemplate.query(connection -> connection.prepareStatement("EXPLAIN " + sql),
+                resultSet -> resultSet.next() ? resultSet.getString(1) : "");
+    }
+
+    /**
+     * Keeps the last SQL statement Hibernate prepared, the tests run one search at a time.
+     */
+    public static class LastStatement implements StatementInspector {
+        static volatile String sql;
+
+        @Override
+        public String inspect(String statement) {
+            sql = statement;
+            return statement;
+        }
+    }
+}
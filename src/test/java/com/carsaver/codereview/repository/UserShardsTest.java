@@ -0,0 +1,63 @@
+package com.carsaver.codereview.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserShardsTest {
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final UserShards shards = new UserShards(3, 100, () -> sequence.addAndGet(UserShards.ID_BLOCK), 1);
+
+    @AfterEach
+    void tearDown() {
+        shards.shutdown();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void shardOf_shouldDealTheIdRangesToTheShardsInTurn() {
+        assertEquals(0, shards.shardOf(1));
+        assertEquals(0, shards.shardOf(99));
+        assertEquals(1, shards.shardOf(100));
+        assertEquals(2, shards.shardOf(250));
+        assertEquals(0, shards.shardOf(300));
+        assertEquals(0, UserShards.single().shardOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void allocate_shouldHandOutUniqueIds_thatAllFallInOneRange() {
+        long[] first = shards.allocate(60);
+        long[] second = shards.allocate(60);
+
+        assertArrayEquals(new long[]{1, 60}, new long[]{first[0], first[59]});
+        // the 40 ids left in the first range are not enough, the second batch starts on the next shard
+        assertEquals(100, second[0]);
+        assertEquals(159, second[59]);
+        assertEquals(1, shards.shardOf(second[0]));
+        assertThrows(IllegalArgumentException.class, () -> shards.allocate(101));
+    }
+
+    @Test
+    public void connectionShard_shouldFollowThePin_elseTheTransaction() {
+        assertEquals(0, UserShards.connectionShard());
+        assertEquals(2, (int) shards.on(2, UserShards::connectionShard));
+
+        TransactionSynchronizationManager.initSynchronization();
+        UserShards.bindToTransaction(1);
+        assertEquals(1, UserShards.connectionShard());
+        assertEquals(2, (int) shards.on(2, UserShards::connectionShard));
+        UserShards.bindToTransaction(1);
+        assertThrows(IllegalStateException.class, () -> UserShards.bindToTransaction(0));
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(synchronization -> synchronization.afterCompletion(0));
+        TransactionSynchronizationManager.clearSynchronization();
+        assertEquals(0, UserShards.connectionShard());
+    }
+}
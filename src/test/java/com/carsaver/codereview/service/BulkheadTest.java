@@ -0,0 +1,73 @@
+package com.carsaver.codereview.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkheadTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private Bulkhead bulkhead;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (bulkhead != null) {
+            bulkhead.shutdown();
+        }
+    }
+
+    @Test
+    public void call_shouldRunOnCallerThread_whenBulkheadHasNoThreads() {
+        bulkhead = new Bulkhead("test", 0, 0, Duration.ofSeconds(1));
+
+        CompletableFuture<String> result = bulkhead.call(() -> Thread.currentThread().getName());
+
+        assertEquals(Thread.currentThread().getName(), result.join());
+    }
+
+    @Test
+    public void call_shouldRejectCall_whenThreadsAndQueueAreBusy() {
+        bulkhead = new Bulkhead("test", 1, 1, Duration.ofSeconds(10));
+        bulkhead.call(this::awaitRelease);
+        bulkhead.call(this::awaitRelease);
+
+        CompletableFuture<Boolean> rejected = bulkhead.call(this::awaitRelease);
+
+        CompletionException exception = assertThrows(CompletionException.class, rejected::join);
+        assertTrue(exception.getCause() instanceof BulkheadFullException);
+    }
+
+    @Test
+    public void call_shouldTimeOut_withoutInterruptingTheRunningCall() throws Exception {
+        bulkhead = new Bulkhead("test", 1, 1, Duration.ofMillis(50));
+        CompletableFuture<Boolean> interrupted = new CompletableFuture<>();
+
+        CompletableFuture<Boolean> slow = bulkhead.call(() -> {
+            try {
+                interrupted.complete(!awaitRelease());
+            } catch (InterruptedException exception) {
+                interrupted.complete(true);
+            }
+            return true;
+        });
+
+        CompletionException exception = assertThrows(CompletionException.class, slow::join);
+        assertTrue(exception.getCause() instanceof TimeoutException);
+        release.countDown();
+        assertFalse(interrupted.get(10, TimeUnit.SECONDS));
+        assertEquals("next", bulkhead.call(() -> "next").join());
+    }
+
+    private Boolean awaitRelease() throws InterruptedException {
+        return release.await(10, TimeUnit.SECONDS);
+    }
+}
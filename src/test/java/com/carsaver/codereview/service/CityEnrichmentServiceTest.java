@@ -0,0 +1,101 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import static java.util.Optional.of;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CityEnrichmentServiceTest {
+    @Mock
+    private ZipCodeLookupService mockZipCodeLookupService;
+
+    @Mock
+    private UserRepository mockUserRepository;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    @Mock
+    private ApplicationEventPublisher mockEventPublisher;
+
+    private CityEnrichmentService cityEnrichmentService;
+
+    @AfterEach
+    void tearDown() {
+        cityEnrichmentService.shutdown();
+    }
+
+    @Test
+    public void enqueue_shouldWriteCity_whenZipIsUnchanged() throws Exception {
+        cityEnrichmentService = newService(10, 3);
+        User user = new User();
+        user.setId(1L);
+        user.setZipCode("12345");
+
+        when(mockZipCodeLookupService.lookupCityByZip("12345")).thenReturn("fakeCity");
+        when(mockUserRepository.findById(1L)).thenReturn(of(user));
+
+        assertTrue(cityEnrichmentService.enqueue(1L, "12345"));
+
+        awaitUntil(() -> cityEnrichmentService.getPending().isEmpty());
+        verify(mockUserRepository).save(user);
+        assertEquals("fakeCity", user.getCity());
+    }
+
+    @Test
+    public void enqueue_shouldNotWriteCity_whenZipChangedInTheMeantime() throws Exception {
+        cityEnrichmentService = newService(10, 3);
+        User user = new User();
+        user.setId(1L);
+        user.setZipCode("54321");
+
+        when(mockZipCodeLookupService.lookupCityByZip("12345")).thenReturn("fakeCity");
+        when(mockUserRepository.findById(1L)).thenReturn(of(user));
+
+        cityEnrichmentService.enqueue(1L, "12345");
+
+        awaitUntil(() -> cityEnrichmentService.getPending().isEmpty());
+        verify(mockUserRepository, never()).save(user);
+    }
+
+    @Test
+    public void enqueue_shouldRecordFailure_whenAllAttemptsFail() throws Exception {
+        cityEnrichmentService = newService(10, 3);
+
+        when(mockZipCodeLookupService.lookupCityByZip("12345")).thenThrow(new RuntimeException("unavailable"));
+
+        cityEnrichmentService.enqueue(1L, "12345");
+
+        awaitUntil(() -> cityEnrichmentService.getFailed().containsKey(1L));
+        verify(mockZipCodeLookupService, times(3)).lookupCityByZip("12345");
+        assertEquals(3, cityEnrichmentService.getFailed().get(1L).getAttempts());
+        assertTrue(cityEnrichmentService.getPending().isEmpty());
+    }
+
+    private CityEnrichmentService newService(int queueCapacity, int maxAttempts) {
+        return new CityEnrichmentService(mockZipCodeLookupService, mockUserRepository, mockTransactionManager,
+                mockEventPublisher, true, 1, queueCapacity, maxAttempts, Duration.ofMillis(1));
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
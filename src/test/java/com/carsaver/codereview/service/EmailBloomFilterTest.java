@@ -0,0 +1,76 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class EmailBloomFilterTest {
+    @Mock
+    private UserRepository mockUserRepository;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    @Test
+    public void mightContain_shouldBeTrue_beforeFilterIsBuilt() {
+        EmailBloomFilter emailFilter = new EmailBloomFilter(mockUserRepository, mockTransactionManager, true, 1000, 0.01);
+
+        assertTrue(emailFilter.mightContain("anyone@email.com"));
+    }
+
+    @Test
+    public void rebuild_shouldContainEveryEmailFromTheScan() {
+        when(mockUserRepository.streamAllNormalizedEmails())
+                .thenReturn(IntStream.range(0, 1000).mapToObj(i -> "user" + i + "@email.com"));
+        EmailBloomFilter emailFilter = new EmailBloomFilter(mockUserRepository, mockTransactionManager, true, 1000, 0.01);
+
+        assertEquals(1000, emailFilter.rebuild());
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(emailFilter.mightContain("User" + i + "@Email.com "));
+        }
+        long falsePositives = IntStream.range(0, 10_000)
+                .filter(i -> emailFilter.mightContain("other" + i + "@email.com"))
+                .count();
+        assertTrue(falsePositives < 300, "false positives: " + falsePositives);
+        assertEquals(0.01, emailFilter.expectedFalsePositiveRate(), 0.005);
+        assertTrue(emailFilter.memoryBytes() > 0);
+    }
+
+    @Test
+    public void put_shouldAddEmailToBuiltFilter() {
+        when(mockUserRepository.streamAllNormalizedEmails()).thenReturn(Stream.empty());
+        EmailBloomFilter emailFilter = new EmailBloomFilter(mockUserRepository, mockTransactionManager, true, 1000, 0.01);
+        emailFilter.rebuild();
+
+        assertFalse(emailFilter.mightContain("new@email.com"));
+        emailFilter.put("New@Email.com");
+
+        assertTrue(emailFilter.mightContain("new@email.com"));
+        assertEquals(1, emailFilter.count());
+    }
+
+    @Test
+    public void rebuild_shouldForgetDeletedEmails() {
+        when(mockUserRepository.streamAllNormalizedEmails())
+                .thenReturn(Stream.of("deleted@email.com"))
+                .thenReturn(Stream.empty());
+        EmailBloomFilter emailFilter = new EmailBloomFilter(mockUserRepository, mockTransactionManager, true, 1000, 0.01);
+
+        emailFilter.rebuild();
+        assertTrue(emailFilter.mightContain("deleted@email.com"));
+
+        emailFilter.rebuild();
+        assertFalse(emailFilter.mightContain("deleted@email.com"));
+    }
+}
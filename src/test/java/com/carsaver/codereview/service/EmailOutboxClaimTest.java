@@ -0,0 +1,112 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.EmailOutboxMessage;
+import com.carsaver.codereview.repository.EmailOutboxRepository;
+import com.carsaver.codereview.repository.UserShards;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs two dispatchers, as two instances would, against one outbox in a database of its own, so dispatchers of
+ * other test contexts cannot take the messages.
+ */
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:email-outbox-claim;DB_CLOSE_DELAY=-1",
+        "codereview.email.outbox.enabled=false"})
+class EmailOutboxClaimTest {
+    @Autowired
+    private EmailOutboxRepository outboxRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private UserShards shards;
+
+    private final Map<String, AtomicInteger> sends = new ConcurrentHashMap<>();
+
+    @Test
+    void dispatchBatch_shouldSendEachMessageOnce_whenTwoDispatchersRun() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        outboxRepository.saveAll(IntStream.range(0, 200)
+                .mapToObj(i -> message("claim.colbert" + i + "@carsaver.com", EmailOutboxMessage.Status.PENDING, Instant.now()))
+                .collect(Collectors.toList())).forEach(message -> ids.add(message.getId()));
+        List<EmailOutboxDispatcher> dispatchers = List.of(dispatcher(), dispatcher());
+
+        try {
+            List<CompletableFuture<Void>> runs = new ArrayList<>();
+            for (EmailOutboxDispatcher dispatcher : dispatchers) {
+                runs.add(CompletableFuture.runAsync(() -> {
+                    while (dispatcher.dispatchBatch() > 0) {
+                        // drain until nothing is left to claim
+                    }
+                }));
+            }
+            CompletableFuture.allOf(runs.toArray(new CompletableFuture[0])).join();
+        } finally {
+            dispatchers.forEach(EmailOutboxDispatcher::shutdown);
+        }
+
+        assertEquals(200, sends.size());
+        assertTrue(sends.values().stream().allMatch(count -> count.get() == 1), "sent more than once: " + sends);
+        outboxRepository.findAllById(ids).forEach(message -> assertEquals(EmailOutboxMessage.Status.SENT, message.getStatus()));
+    }
+
+    @Test
+    void dispatchBatch_shouldTakeOverClaim_whenItsLeaseRanOut() {
+        EmailOutboxMessage abandoned = message("abandoned.colbert@carsaver.com", EmailOutboxMessage.Status.SENDING,
+                Instant.now().minusSeconds(1));
+        abandoned.setClaimedBy("stopped-instance");
+        EmailOutboxMessage claimed = message("claimed.colbert@carsaver.com", EmailOutboxMessage.Status.SENDING,
+                Instant.now().plusSeconds(60));
+        claimed.setClaimedBy("running-instance");
+        outboxRepository.saveAll(List.of(abandoned, claimed));
+        EmailOutboxDispatcher dispatcher = dispatcher();
+
+        try {
+            assertEquals(1, dispatcher.dispatchBatch());
+        } finally {
+            dispatcher.shutdown();
+        }
+
+        assertEquals(Map.of("abandoned.colbert@carsaver.com", 1), sends.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().get())));
+        assertEquals(EmailOutboxMessage.Status.SENT, outboxRepository.findById(abandoned.getId()).orElseThrow().getStatus());
+        assertEquals("running-instance", outboxRepository.findById(claimed.getId()).orElseThrow().getClaimedBy());
+    }
+
+    private EmailOutboxDispatcher dispatcher() {
+        EmailClient emailClient = new EmailClient() {
+            @Override
+            public void sendConfirmation(String email) {
+                sends.computeIfAbsent(email, key -> new AtomicInteger()).incrementAndGet();
+            }
+        };
+        return new EmailOutboxDispatcher(outboxRepository, emailClient, transactionManager, shards, true, 20, 4, 3,
+                Duration.ofSeconds(30), Duration.ofMinutes(10), Duration.ofMinutes(5));
+    }
+
+    private static EmailOutboxMessage message(String email, EmailOutboxMessage.Status status, Instant nextAttemptAt) {
+        EmailOutboxMessage message = new EmailOutboxMessage();
+        message.setEmail(email);
+        message.setStatus(status);
+        message.setCreatedAt(Instant.now());
+        message.setNextAttemptAt(nextAttemptAt);
+        return message;
+    }
+}
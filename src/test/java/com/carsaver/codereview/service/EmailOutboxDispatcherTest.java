@@ -0,0 +1,138 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.EmailOutboxMessage;
+import com.carsaver.codereview.repository.EmailOutboxRepository;
+import com.carsaver.codereview.repository.UserShards;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class EmailOutboxDispatcherTest {
+    @Mock
+    private EmailOutboxRepository mockOutboxRepository;
+
+    @Mock
+    private EmailClient mockEmailClient;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    private EmailOutboxDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        dispatcher = new EmailOutboxDispatcher(mockOutboxRepository, mockEmailClient, mockTransactionManager,
+                UserShards.single(), true, 10, 2, 3, Duration.ofSeconds(30), Duration.ofMinutes(10), Duration.ofMinutes(5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void dispatchBatch_shouldSendOncePerAddress_whenAddressIsQueuedTwice() {
+        EmailOutboxMessage first = message(1L, "bob@email.com");
+        EmailOutboxMessage second = message(2L, "Bob@Email.com");
+        EmailOutboxMessage other = message(3L, "alice@email.com");
+        claims(List.of(first, second, other));
+
+        assertEquals(3, dispatcher.dispatchBatch());
+
+        verify(mockEmailClient).sendConfirmation("bob@email.com");
+        verify(mockEmailClient).sendConfirmation("alice@email.com");
+        verifyNoMoreInteractions(mockEmailClient);
+        verify(mockOutboxRepository).saveAll(List.of(first, second, other));
+        assertEquals(EmailOutboxMessage.Status.SENT, first.getStatus());
+        assertEquals(EmailOutboxMessage.Status.SENT, second.getStatus());
+        assertEquals(EmailOutboxMessage.Status.SENT, other.getStatus());
+    }
+
+    @Test
+    public void dispatchBatch_shouldSendNothing_whenAnotherDispatchClaimedTheMessages() {
+        when(mockOutboxRepository.findDueIds(any(), any(), any())).thenReturn(List.of(1L, 2L));
+        when(mockOutboxRepository.findByClaimedByOrderByIdAsc(any())).thenReturn(List.of());
+
+        assertEquals(0, dispatcher.dispatchBatch());
+
+        verify(mockOutboxRepository).claim(eq(List.of(1L, 2L)), any(), any(), eq(EmailOutboxMessage.Status.SENDING), any(), any());
+        verifyNoInteractions(mockEmailClient);
+        verify(mockOutboxRepository, never()).saveAll(any());
+    }
+
+    @Test
+    public void dispatchBatch_shouldNotResend_whenAddressWasSentWithinDedupWindow() {
+        EmailOutboxMessage first = message(1L, "bob@email.com");
+        EmailOutboxMessage repeated = message(2L, "bob@email.com");
+        when(mockOutboxRepository.findDueIds(any(), any(), any())).thenReturn(List.of(1L), List.of(2L));
+        when(mockOutboxRepository.findByClaimedByOrderByIdAsc(any())).thenReturn(List.of(first), List.of(repeated));
+
+        dispatcher.dispatchBatch();
+        dispatcher.dispatchBatch();
+
+        verify(mockEmailClient, times(1)).sendConfirmation("bob@email.com");
+        assertEquals(EmailOutboxMessage.Status.SENT, repeated.getStatus());
+    }
+
+    @Test
+    public void dispatchBatch_shouldBackOff_whenSendFails() {
+        EmailOutboxMessage message = message(1L, "bob@email.com");
+        claims(List.of(message));
+        doThrow(new RuntimeException("mail sink down")).when(mockEmailClient).sendConfirmation("bob@email.com");
+
+        dispatcher.dispatchBatch();
+
+        assertEquals(EmailOutboxMessage.Status.PENDING, message.getStatus());
+        assertEquals(1, message.getAttempts());
+        assertTrue(message.getNextAttemptAt().isAfter(Instant.now().plusSeconds(20)));
+        assertTrue(message.getLastError().contains("mail sink down"));
+        assertNull(message.getClaimedBy());
+    }
+
+    @Test
+    public void dispatchBatch_shouldMarkFailed_whenAttemptsAreExhausted() {
+        EmailOutboxMessage message = message(1L, "bob@email.com");
+        message.setAttempts(2);
+        claims(List.of(message));
+        doThrow(new RuntimeException("mail sink down")).when(mockEmailClient).sendConfirmation("bob@email.com");
+
+        dispatcher.dispatchBatch();
+
+        assertEquals(EmailOutboxMessage.Status.FAILED, message.getStatus());
+        assertEquals(3, message.getAttempts());
+    }
+
+    private void claims(List<EmailOutboxMessage> messages) {
+        when(mockOutboxRepository.findDueIds(any(), any(), any()))
+                .thenReturn(messages.stream().map(EmailOutboxMessage::getId).collect(Collectors.toList()));
+        when(mockOutboxRepository.findByClaimedByOrderByIdAsc(any())).thenReturn(messages);
+    }
+
+    private static EmailOutboxMessage message(Long id, String email) {
+        EmailOutboxMessage message = new EmailOutboxMessage();
+        message.setId(id);
+        message.setEmail(email);
+        message.setStatus(EmailOutboxMessage.Status.SENDING);
+        message.setClaimedBy("claim");
+        message.setCreatedAt(Instant.now());
+        message.setNextAttemptAt(Instant.now());
+        return message;
+    }
+}
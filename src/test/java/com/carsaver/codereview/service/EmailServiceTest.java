@@ -0,0 +1,45 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.EmailOutboxMessage;
+import com.carsaver.codereview.repository.EmailOutboxRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class EmailServiceTest {
+    @Mock
+    private EmailOutboxRepository mockOutboxRepository;
+
+    @Mock
+    private EmailClient mockEmailClient;
+
+    @Test
+    public void sendConfirmation_shouldWriteOutboxMessage_whenOutboxEnabled() {
+        EmailService emailService = new EmailService(mockOutboxRepository, mockEmailClient, true);
+
+        emailService.sendConfirmation("email@email.com");
+
+        ArgumentCaptor<EmailOutboxMessage> message = ArgumentCaptor.forClass(EmailOutboxMessage.class);
+        verify(mockOutboxRepository).save(message.capture());
+        verifyNoInteractions(mockEmailClient);
+        assertEquals("email@email.com", message.getValue().getEmail());
+        assertEquals(EmailOutboxMessage.Status.PENDING, message.getValue().getStatus());
+        assertEquals(0, message.getValue().getAttempts());
+    }
+
+    @Test
+    public void sendConfirmation_shouldSendDirectly_whenOutboxDisabled() {
+        EmailService emailService = new EmailService(mockOutboxRepository, mockEmailClient, false);
+
+        emailService.sendConfirmation("email@email.com");
+
+        verify(mockEmailClient).sendConfirmation("email@email.com");
+        verifyNoInteractions(mockOutboxRepository);
+    }
+}
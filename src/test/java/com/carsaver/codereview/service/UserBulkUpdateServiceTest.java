@@ -0,0 +1,120 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.config.UserApiProperties;
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserBulkUpdate;
+import com.carsaver.codereview.model.UserBulkUpdateReport;
+import com.carsaver.codereview.repository.UserEmailClaims;
+import com.carsaver.codereview.repository.UserRepository;
+import com.carsaver.codereview.repository.UserShards;
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserBulkUpdateServiceTest {
+    @Mock
+    private UserRepository mockUserRepository;
+
+    @Mock
+    private EmailService mockEmailService;
+
+    @Mock
+    private ZipCodeLookupService mockZipCodeLookupService;
+
+    @Mock
+    private UserBulkheads mockBulkheads;
+
+    @Mock
+    private EmailBloomFilter mockEmailFilter;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    @Mock
+    private ApplicationEventPublisher mockEventPublisher;
+
+    private final UserApiProperties properties = new UserApiProperties();
+
+    private UserBulkUpdateService userBulkUpdateService;
+
+    @BeforeEach
+    void setUp() {
+        userBulkUpdateService = new UserBulkUpdateService(mockUserRepository, mockEmailService, mockZipCodeLookupService,
+                mockBulkheads, mockEmailFilter, properties, mockTransactionManager, mockEventPublisher,
+                UserShards.single(), UserEmailClaims.none());
+    }
+
+    @Test
+    public void update_shouldResolveEachZipCodeOnce_andReportEachItem() {
+        when(mockBulkheads.zipLookup()).thenReturn(new Bulkhead("zip-lookup", 0, 0, Duration.ofSeconds(1)));
+        when(mockZipCodeLookupService.lookupCitiesByZip(List.of("37064"))).thenReturn(Map.of("37064", "Franklin"));
+        User first = user(1L);
+        User second = user(2L);
+        when(mockUserRepository.findAllById(anyCollection())).thenReturn(List.of(first, second));
+
+        UserBulkUpdateReport report = userBulkUpdateService.update(List.of(
+                new UserBulkUpdate(1L, Map.of("zipCode", "37064")),
+                new UserBulkUpdate(null, Map.of("zipCode", "37064")),
+                new UserBulkUpdate(2L, Map.of("zipCode", "37064", "email", "new@email.com")),
+                new UserBulkUpdate(3L, Map.of("city", "Brentwood"))));
+
+        assertEquals(2, report.getUpdated());
+        assertEquals(2, report.getFailed());
+        assertEquals(UserBulkUpdateReport.Status.UPDATED, report.getItems().get(0).getStatus());
+        assertEquals(UserBulkUpdateReport.Status.INVALID, report.getItems().get(1).getStatus());
+        assertEquals(UserBulkUpdateReport.Status.UPDATED, report.getItems().get(2).getStatus());
+        assertEquals(UserBulkUpdateReport.Status.NOT_FOUND, report.getItems().get(3).getStatus());
+        assertEquals("Franklin", first.getCity());
+        assertEquals("Franklin", second.getCity());
+        assertEquals("new@email.com", second.getEmail());
+        verify(mockZipCodeLookupService, times(1)).lookupCitiesByZip(anyCollection());
+        verify(mockUserRepository, times(1)).findAllById(anyCollection());
+        verify(mockEmailService).sendConfirmations(List.of("new@email.com"));
+    }
+
+    @Test
+    public void update_shouldFallBackToOneItemAtATime_whenEmailIsTaken() {
+        properties.setBulkUpdateChunkSize(10);
+        when(mockUserRepository.findAllById(anyCollection()))
+                .thenReturn(List.of(user(1L), user(2L)), List.of(user(1L)), List.of(user(2L)));
+        doThrow(new DataIntegrityViolationException("unique", new ConstraintViolationException("unique", new SQLException("unique", "23505"), UserService.UNIQUE_EMAIL_INDEX)))
+                .doNothing()
+                .doThrow(new DataIntegrityViolationException("unique", new ConstraintViolationException("unique", new SQLException("unique", "23505"), UserService.UNIQUE_EMAIL_INDEX)))
+                .when(mockUserRepository).flush();
+
+        UserBulkUpdateReport report = userBulkUpdateService.update(List.of(
+                new UserBulkUpdate(1L, Map.of("city", "Franklin")),
+                new UserBulkUpdate(2L, Map.of("email", "taken@email.com"))));
+
+        assertEquals(1, report.getUpdated());
+        assertEquals(UserBulkUpdateReport.Status.UPDATED, report.getItems().get(0).getStatus());
+        assertEquals(UserBulkUpdateReport.Status.DUPLICATE, report.getItems().get(1).getStatus());
+        verify(mockUserRepository).findAllById(Set.of(1L, 2L));
+        verifyNoInteractions(mockZipCodeLookupService);
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        user.setVersion(0L);
+        user.setEmail("user" + id + "@email.com");
+        return user;
+    }
+}
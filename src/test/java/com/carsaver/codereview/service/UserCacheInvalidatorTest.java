@@ -0,0 +1,40 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writes users through the repository, which knows nothing of the cache, to check the listener registered in
+ * {@code META-INF/orm.xml} evicts them.
+ */
+@SpringBootTest
+class UserCacheInvalidatorTest {
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserCache userCache;
+
+    @Test
+    void repositoryWrites_shouldEvictTheCachedUser() {
+        User user = new User();
+        user.setFirstName("Cached");
+        user.setLastName("Colbert");
+        user.setEmail("cached.colbert@carsaver.com");
+        user = userRepository.save(user);
+        assertEquals("Colbert", userCache.findById(user.getId()).orElseThrow().getLastName());
+
+        user.setLastName("Changed");
+        userRepository.save(user);
+        assertEquals("Changed", userCache.findById(user.getId()).orElseThrow().getLastName());
+
+        userRepository.deleteById(user.getId());
+        assertTrue(userCache.findById(user.getId()).isEmpty());
+    }
+}
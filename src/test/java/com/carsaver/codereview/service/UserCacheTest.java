@@ -0,0 +1,111 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Optional.of;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserCacheTest {
+    @Mock
+    private UserRepository mockUserRepository;
+
+    private UserCache userCache;
+
+    @BeforeEach
+    void setUp() {
+        userCache = new UserCache(mockUserRepository, 100, Duration.ofMinutes(10), Duration.ofMinutes(1));
+    }
+
+    @Test
+    public void findById_shouldOnlyQueryOnce_whenUserIsCached() {
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("email@email.com");
+        when(mockUserRepository.findById(1L)).thenReturn(of(user));
+
+        assertEquals(of(user), userCache.findById(1L));
+        assertEquals(of(user), userCache.findById(1L));
+
+        verify(mockUserRepository, times(1)).findById(1L);
+        assertEquals(0.5, userCache.getStats().hitRate());
+    }
+
+    @Test
+    public void findById_shouldHandOutCopies() {
+        User user = new User();
+        user.setId(1L);
+        user.setCity("city");
+        when(mockUserRepository.findById(1L)).thenReturn(of(user));
+
+        User first = userCache.findById(1L).orElseThrow();
+        first.setCity("changed");
+        User second = userCache.findById(1L).orElseThrow();
+
+        assertNotSame(first, second);
+        assertEquals("city", second.getCity());
+    }
+
+    @Test
+    public void findById_shouldCacheMissingIds() {
+        when(mockUserRepository.findById(2L)).thenReturn(Optional.empty());
+
+        assertTrue(userCache.findById(2L).isEmpty());
+        assertTrue(userCache.findById(2L).isEmpty());
+
+        verify(mockUserRepository, times(1)).findById(2L);
+    }
+
+    @Test
+    public void evict_shouldReloadUser_onNextRead() {
+        User user = new User();
+        user.setId(1L);
+        when(mockUserRepository.findById(1L)).thenReturn(of(user));
+
+        userCache.findById(1L);
+        userCache.evict(1L);
+        userCache.findById(1L);
+
+        verify(mockUserRepository, times(2)).findById(1L);
+    }
+
+    @Test
+    public void evict_shouldNotWaitForLoadInFlight() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(mockUserRepository.findById(1L)).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await();
+            return of(user);
+        });
+
+        CompletableFuture<Optional<User>> read = CompletableFuture.supplyAsync(() -> userCache.findById(1L));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        // a writer holding the last pooled connection evicts while a reader waits for one
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(2), () -> userCache.evict(1L));
+        } finally {
+            release.countDown();
+        }
+        assertEquals(of(user), read.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,89 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.repository.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.persistence.EntityManager;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserExportServiceTest {
+    @Mock
+    private UserRepository mockUserRepository;
+
+    @Mock
+    private EntityManager mockEntityManager;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private UserExportService userExportService;
+
+    @BeforeEach
+    void setUp() {
+        userExportService = new UserExportService(mockUserRepository, mockEntityManager, objectMapper);
+    }
+
+    @Test
+    public void exportAll_shouldWriteOneJsonObjectPerLine() throws Exception {
+        when(mockUserRepository.streamAllByOrderByIdAsc()).thenReturn(Stream.of(user(1L), user(2L)));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long count = userExportService.exportAll(outputStream);
+
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, count);
+        assertEquals(2, lines.length);
+        assertEquals(1L, objectMapper.readValue(lines[0], User.class).getId());
+        assertEquals(2L, objectMapper.readValue(lines[1], User.class).getId());
+    }
+
+    @Test
+    public void exportAll_shouldClearPersistenceContext_whileStreaming() throws Exception {
+        when(mockUserRepository.streamAllByOrderByIdAsc()).thenReturn(LongStream.rangeClosed(1, 1200).mapToObj(UserExportServiceTest::user));
+
+        userExportService.exportAll(new ByteArrayOutputStream());
+
+        verify(mockEntityManager, times(2)).clear();
+    }
+
+    @Test
+    public void exportAll_shouldFlushOncePerChunk_ratherThanPerUser() throws Exception {
+        when(mockUserRepository.streamAllByOrderByIdAsc()).thenReturn(LongStream.rangeClosed(1, 1200).mapToObj(UserExportServiceTest::user));
+        AtomicInteger flushes = new AtomicInteger();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+
+        userExportService.exportAll(outputStream);
+
+        // after users 500 and 1000, and once at the end
+        assertEquals(3, flushes.get());
+        assertEquals(1200, outputStream.toString(StandardCharsets.UTF_8).split("\n").length);
+    }
+
+    private static User user(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setFirstName("first" + id);
+        user.setLastName("last" + id);
+        user.setEmail(id + "@email.com");
+        user.setEnabled(true);
+        return user;
+    }
+}
@@ -0,0 +1,69 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserImportReport;
+import com.carsaver.codereview.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs imports against the database, where payloads carry what the server owns and chunks that fail to insert
+ * fall back to one row at a time.
+ */
+@SpringBootTest
+class UserImportFallbackTest {
+    @Autowired
+    private UserImportService userImportService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserNameDirectory userNameDirectory;
+
+    @Test
+    void importCsv_shouldInsertRowByRow_whenChunkInsertFails() throws Exception {
+        String csv = "firstName,lastName,email\n"
+                + "Fallback,First,fallback.first@carsaver.com\n"
+                + "Fallback,Long," + "x".repeat(300) + "@carsaver.com\n"
+                + "Fallback,Last,fallback.last@carsaver.com\n";
+
+        UserImportReport report = userImportService.importCsv(new StringReader(csv));
+
+        assertEquals(2, report.getCreated());
+        assertEquals(1, report.getRejected());
+        assertEquals(UserImportReport.Status.CREATED, report.getRows().get(0).getStatus());
+        assertEquals(UserImportReport.Status.INVALID, report.getRows().get(1).getStatus());
+        assertEquals(UserImportReport.Status.CREATED, report.getRows().get(2).getStatus());
+        for (int row : new int[]{0, 2}) {
+            Long id = report.getRows().get(row).getId();
+            assertTrue(userRepository.existsById(id));
+            assertTrue(userNameDirectory.getNames().containsKey(id));
+        }
+    }
+
+    @Test
+    void importJson_shouldIgnoreServerOwnedFields() throws Exception {
+        String json = "[{\"id\":7,\"firstName\":\"V\",\"lastName\":\"V\",\"email\":\"v@carsaver.com\",\"version\":3,"
+                + "\"city\":\"Nowhere\",\"zipCode\":\"00000\",\"enabled\":false}]";
+
+        UserImportReport report = userImportService.importJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(1, report.getCreated());
+        User user = userRepository.findById(report.getRows().get(0).getId()).orElseThrow();
+        assertEquals(0L, user.getVersion());
+        assertNull(user.getCity());
+        assertNull(user.getZipCode());
+        assertTrue(user.isEnabled());
+        assertTrue(userNameDirectory.getNames().containsKey(user.getId()));
+    }
+}
@@ -0,0 +1,108 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.config.UserApiProperties;
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserImportReport;
+import com.carsaver.codereview.repository.UserEmailClaims;
+import com.carsaver.codereview.repository.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserImportServiceTest {
+    @Mock
+    private UserRepository mockUserRepository;
+
+    @Mock
+    private EmailService mockEmailService;
+
+    @Mock
+    private UserNameDirectory mockUserNameDirectory;
+
+    @Mock
+    private EmailBloomFilter mockEmailFilter;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    @Mock
+    private ApplicationEventPublisher mockEventPublisher;
+
+    private final UserApiProperties properties = new UserApiProperties();
+
+    private UserImportService userImportService;
+
+    @BeforeEach
+    void setUp() {
+        userImportService = new UserImportService(mockUserRepository, mockEmailService, mockUserNameDirectory,
+                mockEmailFilter, properties, mockTransactionManager, new ObjectMapper(), mockEventPublisher,
+                UserEmailClaims.none());
+    }
+
+    @Test
+    public void importCsv_shouldReportEachRow() throws Exception {
+        when(mockUserRepository.findExistingNormalizedEmails(anyCollection())).thenReturn(Set.of("taken@email.com"));
+        when(mockUserRepository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        String csv = "firstName,lastName,email\n"
+                + "Bob,Smith,bob@email.com\n"
+                + "Al,,al@email.com\n"
+                + "Taken,User,Taken@Email.com\n"
+                + "Bob,Again,BOB@email.com\n"
+                + "Tess,Test,tess@test.com\n";
+
+        UserImportReport report = userImportService.importCsv(new StringReader(csv));
+
+        assertEquals(2, report.getCreated());
+        assertEquals(3, report.getRejected());
+        assertEquals(UserImportReport.Status.CREATED, report.getRows().get(0).getStatus());
+        assertEquals(UserImportReport.Status.INVALID, report.getRows().get(1).getStatus());
+        assertEquals(UserImportReport.Status.DUPLICATE, report.getRows().get(2).getStatus());
+        assertEquals(UserImportReport.Status.DUPLICATE, report.getRows().get(3).getStatus());
+        assertEquals(UserImportReport.Status.CREATED, report.getRows().get(4).getStatus());
+        verify(mockUserRepository).saveAll(anyList());
+        verify(mockEmailService).sendConfirmations(List.of("bob@email.com"));
+    }
+
+    @Test
+    public void importJson_shouldInsertInChunks() throws Exception {
+        properties.setImportChunkSize(2);
+        when(mockUserRepository.findExistingNormalizedEmails(anyCollection())).thenReturn(Set.of());
+        when(mockUserRepository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        String json = "[{\"firstName\":\"A\",\"lastName\":\"A\",\"email\":\"a@email.com\"},"
+                + "{\"firstName\":\"B\",\"lastName\":\"B\",\"email\":\"b@email.com\"},"
+                + "{\"id\":99,\"firstName\":\"C\",\"lastName\":\"C\",\"email\":\"c@email.com\"}]";
+
+        UserImportReport report = userImportService.importJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(3, report.getCreated());
+        verify(mockUserRepository, times(2)).findExistingNormalizedEmails(anyCollection());
+        verify(mockUserRepository, times(2)).saveAll(anyList());
+        verify(mockUserNameDirectory, times(3)).onSaved(any(User.class));
+    }
+
+    @Test
+    public void importCsv_shouldFail_whenHeaderIsMissingColumn() {
+        assertThrows(Exception.class, () -> userImportService.importCsv(new StringReader("firstName,email\nBob,bob@email.com\n")));
+    }
+}
@@ -0,0 +1,86 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserName;
+import com.carsaver.codereview.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserNameDirectoryTest {
+    @Mock
+    private UserRepository mockUserRepository;
+
+    @InjectMocks
+    private UserNameDirectory userNameDirectory;
+
+    @Test
+    public void getNames_shouldLoadProjectionOnlyOnce() {
+        when(mockUserRepository.findAllNames()).thenReturn(List.of(userName(1L, "Josh", "Colbert")));
+
+        assertEquals(Map.of(1L, "Josh, Colbert"), userNameDirectory.getNames());
+        assertEquals(Map.of(1L, "Josh, Colbert"), userNameDirectory.getNames());
+
+        verify(mockUserRepository, times(1)).findAllNames();
+    }
+
+    @Test
+    public void onSavedAndOnDeleted_shouldUpdateDirectoryWithoutReloading() {
+        when(mockUserRepository.findAllNames()).thenReturn(List.of(userName(1L, "Josh", "Colbert")));
+        userNameDirectory.getNames();
+
+        User user = new User();
+        user.setId(2L);
+        user.setFirstName("Bob");
+        user.setLastName("Smith");
+        userNameDirectory.onSaved(user);
+        userNameDirectory.onDeleted(1L);
+
+        assertEquals(Map.of(2L, "Bob, Smith"), userNameDirectory.getNames());
+        verify(mockUserRepository, times(1)).findAllNames();
+    }
+
+    @Test
+    public void getNames_shouldReplayWritesThatLandDuringTheLoad() {
+        when(mockUserRepository.findAllNames()).thenAnswer(invocation -> {
+            // both commit after the rows were read, which still hold the deleted user and the old name
+            User user = new User();
+            user.setId(2L);
+            user.setFirstName("Bob");
+            user.setLastName("Jones");
+            userNameDirectory.onSaved(user);
+            userNameDirectory.onDeleted(1L);
+            return List.of(userName(1L, "Josh", "Colbert"), userName(2L, "Bob", "Smith"));
+        });
+
+        assertEquals(Map.of(2L, "Bob, Jones"), userNameDirectory.getNames());
+    }
+
+    private static UserName userName(Long id, String firstName, String lastName) {
+        return new UserName() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public String getFirstName() {
+                return firstName;
+            }
+
+            @Override
+            public String getLastName() {
+                return lastName;
+            }
+        };
+    }
+}
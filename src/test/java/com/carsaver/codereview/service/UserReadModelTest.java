@@ -0,0 +1,155 @@
+package com.carsaver.codereview.service;
+
+import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserReadModelTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Mock
+    private UserRepository mockUserRepository;
+
+    @Mock
+    private EntityManager mockEntityManager;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    private UserReadModel readModel;
+
+    @BeforeEach
+    void setUp() {
+        readModel = new UserReadModel(mockUserRepository, mockEntityManager, mockTransactionManager, registry, true);
+    }
+
+    @Test
+    void load_shouldServeStreamedUsers() {
+        when(mockUserRepository.streamAllByOrderByIdAsc()).thenReturn(Stream.of(
+                user(1L, 0L, "Josh", "Franklin"), user(5L, 2L, "Ann", "Franklin"), user(9L, 0L, "Bob", null)));
+
+        assertFalse(readModel.isLoaded());
+        readModel.load();
+
+        assertTrue(readModel.isLoaded());
+        assertEquals(List.of(5L, 9L), ids(readModel.findPage(1L, 10)));
+        assertEquals(List.of(1L), ids(readModel.findPage(null, 1)));
+        assertEquals("Franklin", readModel.findById(5L).orElseThrow().getCity());
+        assertEquals(2L, readModel.findById(5L).orElseThrow().getVersion());
+        assertTrue(readModel.findById(2L).isEmpty());
+        assertEquals(Map.of(1L, "Josh, Colbert", 5L, "Ann, Colbert", 9L, "Bob, Colbert"), readModel.getNames());
+        assertEquals(3, registry.get("codereview.read-model.users").gauge().value());
+        assertTrue(readModel.getBytesPerUser() > 0);
+    }
+
+    @Test
+    void onUserChanged_shouldSwapInNewSnapshot_andKeepNewerVersions() {
+        when(mockUserRepository.streamAllByOrderByIdAsc()).thenReturn(Stream.of(user(1L, 3L, "Josh", "Franklin")));
+        readModel.load();
+        Map<Long, String> namesBefore = readModel.getNames();
+
+        readModel.onUserChanged(UserChangedEvent.saved(user(2L, 0L, "Ann", "Brentwood")));
+        readModel.onUserChanged(UserChangedEvent.saved(user(1L, 2L, "Stale", "Nashville")));
+        readModel.onUserChanged(UserChangedEvent.saved(user(1L, 4L, "Josh", "Nashville")));
+        readModel.onUserChanged(UserChangedEvent.deleted(2L));
+
+        assertEquals(List.of(1L), ids(readModel.findAll()));
+        assertEquals("Nashville", readModel.findById(1L).orElseThrow().getCity());
+        assertEquals("Josh, Colbert", readModel.getNames().get(1L));
+        // a reader holding the old snapshot keeps seeing it unchanged
+        assertEquals(Map.of(1L, "Josh, Colbert"), namesBefore);
+        assertEquals(4, registry.get("codereview.read-model.lag").timer().count());
+    }
+
+    @Test
+    void onUserChanged_shouldSwapOnce_perCommittedTransaction() {
+        when(mockUserRepository.streamAllByOrderByIdAsc()).thenReturn(Stream.of(user(1L, 0L, "Josh", "Franklin")));
+        readModel.load();
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            for (long id = 2; id <= 50; id++) {
+                readModel.onUserChanged(UserChangedEvent.saved(user(id, 0L, "Ann", "Brentwood")));
+            }
+            readModel.onUserChanged(UserChangedEvent.deleted(1L));
+            assertEquals(List.of(1L), ids(readModel.findAll()));
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(49, readModel.findAll().size());
+        assertTrue(readModel.findById(1L).isEmpty());
+        assertEquals(1, registry.get("codereview.read-model.swaps").counter().count());
+        assertEquals(50, registry.get("codereview.read-model.lag").timer().count());
+    }
+
+    @Test
+    void onUserChanged_shouldDropChanges_whenTransactionRollsBack() {
+        when(mockUserRepository.streamAllByOrderByIdAsc()).thenReturn(Stream.of(user(1L, 0L, "Josh", "Franklin")));
+        readModel.load();
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            readModel.onUserChanged(UserChangedEvent.deleted(1L));
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(List.of(1L), ids(readModel.findAll()));
+        assertEquals(0, registry.get("codereview.read-model.swaps").counter().count());
+        assertTrue(TransactionSynchronizationManager.getResourceMap().isEmpty());
+    }
+
+    @Test
+    void onUserChanged_shouldQueueChanges_untilLoaded() {
+        readModel.onUserChanged(UserChangedEvent.saved(user(7L, 1L, "Ann", null)));
+        assertFalse(readModel.isLoaded());
+        assertEquals(1, registry.get("codereview.read-model.pending").gauge().value());
+
+        when(mockUserRepository.streamAllByOrderByIdAsc()).thenReturn(Stream.of(user(7L, 0L, "Old", null)));
+        readModel.load();
+
+        assertEquals("Ann", readModel.findById(7L).orElseThrow().getFirstName());
+        assertEquals(0, registry.get("codereview.read-model.pending").gauge().value());
+    }
+
+    private static User user(Long id, Long version, String firstName, String city) {
+        User user = new User();
+        user.setId(id);
+        user.setVersion(version);
+        user.setFirstName(firstName);
+        user.setLastName("Colbert");
+        user.setEmail(firstName.toLowerCase() + "@carsaver.com");
+        user.setCity(city);
+        user.setEnabled(true);
+        return user;
+    }
+
+    private static List<Long> ids(List<User> users) {
+        return users.stream().map(User::getId).collect(Collectors.toList());
+    }
+}
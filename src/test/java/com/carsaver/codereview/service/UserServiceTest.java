@@ -1,13 +1,26 @@
 package com.carsaver.codereview.service;
 
+import com.carsaver.codereview.config.UserApiProperties;
 import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserPage;
+import com.carsaver.codereview.model.UserSearchCriteria;
+import com.carsaver.codereview.repository.UserEmailClaims;
 import com.carsaver.codereview.repository.UserRepository;
+import com.carsaver.codereview.repository.UserShards;
+import org.hibernate.exception.ConstraintViolationException;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,7 +29,13 @@ import java.util.Optional;
 import static java.util.Collections.singletonList;
 import static java.util.Optional.of;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -30,6 +49,36 @@ class UserServiceTest {
     @Mock
     private ZipCodeLookupService mockZipCodeLookupService;
 
+    @Mock
+    private CityEnrichmentService mockCityEnrichmentService;
+
+    @Mock
+    private UserNameDirectory mockUserNameDirectory;
+
+    @Mock
+    private UserCache mockUserCache;
+
+    @Mock
+    private UserCacheInvalidator mockUserCacheInvalidator;
+
+    @Mock
+    private EmailBloomFilter mockEmailFilter;
+
+    @Mock
+    private UserReadModel mockReadModel;
+
+    @Mock
+    private ApplicationEventPublisher mockEventPublisher;
+
+    @Mock
+    private UserShards mockShards;
+
+    @Mock
+    private UserEmailClaims mockEmailClaims;
+
+    @Spy
+    private UserApiProperties properties = new UserApiProperties();
+
     @InjectMocks
     private UserService userService;
 
@@ -53,6 +102,92 @@ class UserServiceTest {
         assertEquals(expected, result);
     }
 
+    @Test
+    void findById_shouldReadFromReadModel_whenLoaded() {
+        User user = new User();
+        user.setId(1L);
+
+        when(mockReadModel.isLoaded()).thenReturn(true);
+        when(mockReadModel.findById(1L)).thenReturn(of(user));
+
+        assertEquals(of(user), userService.findById(1L));
+
+        verifyNoInteractions(mockUserCache, mockUserRepository);
+    }
+
+    @Test
+    void deleteById_shouldPublishChange() {
+        userService.deleteById(1L);
+
+        verify(mockUserRepository).deleteById(1L);
+        verify(mockEventPublisher).publishEvent(argThat((UserChangedEvent event) -> event.getId() == 1L && event.getUser() == null));
+    }
+
+    @Test
+    void findPage_shouldReturnCursor_whenMoreUsersExist() {
+        User first = new User();
+        first.setId(11L);
+        User second = new User();
+        second.setId(12L);
+        User third = new User();
+        third.setId(13L);
+
+        when(mockUserRepository.findByIdGreaterThanOrderByIdAsc(10L, PageRequest.of(0, 3))).thenReturn(List.of(first, second, third));
+
+        UserPage result = userService.findPage(10L, 2);
+
+        assertEquals(List.of(first, second), result.getUsers());
+        assertEquals(12L, result.getNextAfterId());
+    }
+
+    @Test
+    void findPage_shouldReturnNoCursor_whenLastPage() {
+        User user = new User();
+        user.setId(1L);
+
+        when(mockUserRepository.findAllByOrderByIdAsc(PageRequest.of(0, 101))).thenReturn(singletonList(user));
+
+        UserPage result = userService.findPage(null, null);
+
+        assertEquals(singletonList(user), result.getUsers());
+        assertNull(result.getNextAfterId());
+    }
+
+    @Test
+    void search_shouldReturnCursor_whenMoreUsersMatch() {
+        User first = new User();
+        first.setId(11L);
+        User second = new User();
+        second.setId(12L);
+        UserSearchCriteria criteria = new UserSearchCriteria("Franklin", null, "col", true);
+
+        when(mockUserRepository.search(criteria, 10L, 2)).thenReturn(List.of(first, second));
+
+        UserPage result = userService.search(criteria, 10L, 1);
+
+        assertEquals(List.of(first), result.getUsers());
+        assertEquals(11L, result.getNextAfterId());
+    }
+
+    @Test
+    void search_shouldFail_whenNoFilterIsGiven() {
+        assertThrows(IllegalArgumentException.class,
+                () -> userService.search(new UserSearchCriteria(null, null, null, null), null, null));
+
+        verifyNoInteractions(mockUserRepository);
+    }
+
+    @Test
+    void findPage_shouldCapLimit_whenLimitExceedsMaxPageSize() {
+        properties.setMaxPageSize(50);
+
+        when(mockUserRepository.findAllByOrderByIdAsc(PageRequest.of(0, 51))).thenReturn(List.of());
+
+        UserPage result = userService.findPage(null, 5000);
+
+        assertEquals(50, result.getLimit());
+    }
+
     @Test
     void findById_shouldReturnUser_whenUserExist() {
         User user = new User();
@@ -65,11 +200,12 @@ class UserServiceTest {
 
         Optional<User> expected = of(user);
 
-        when(mockUserRepository.findById(user.getId())).thenReturn(of(user));
+        when(mockUserCache.findById(user.getId())).thenReturn(of(user));
 
         Optional<User> result = userService.findById(user.getId());
 
         assertEquals(expected, result);
+        verifyNoInteractions(mockUserRepository);
     }
 
     @Test
@@ -78,7 +214,6 @@ class UserServiceTest {
         user.setEmail("email@email.com");
         user.setEnabled(false);
 
-        when(mockUserRepository.findUserByEmail(user.getEmail())).thenReturn(null);
         when(mockUserRepository.save(user)).thenReturn(user);
 
         userService.createUser(user);
@@ -95,7 +230,6 @@ class UserServiceTest {
         user.setCity("city");
         user.setZipCode("zipCode");
 
-        when(mockUserRepository.findUserByEmail(user.getEmail())).thenReturn(null);
         when(mockUserRepository.save(user)).thenReturn(user);
 
         userService.createUser(user);
@@ -104,7 +238,7 @@ class UserServiceTest {
     }
 
     @Test
-    public void createUser_shouldNotSave_whenUsersEmailDoesExist() {
+    public void createUser_shouldThrowUserAlreadyExists_whenUniqueEmailIndexRejectsInsert() {
         User user = new User();
         user.setEmail("email@email.com");
         user.setFirstName("first");
@@ -112,19 +246,55 @@ class UserServiceTest {
         user.setCity("city");
         user.setZipCode("zipCode");
 
-        User expected = new User();
-        user.setId(1L);
+        when(mockUserRepository.save(user)).thenThrow(uniqueViolation(
+                "\"PUBLIC.USER_NORMALIZED_EMAIL_UIDX ON PUBLIC.USER(NORMALIZED_EMAIL) VALUES 2\"; SQL statement:"));
+
+        assertThrows(UserAlreadyExistsException.class, () -> userService.createUser(user));
+
+        verify(mockUserRepository, never()).findUserByEmail(user.getEmail());
+        verifyNoInteractions(mockEmailService);
+    }
+
+    @Test
+    public void createUser_shouldThrowUserAlreadyExists_whenEmailFilterMatchAndEmailExists() {
+        User user = new User();
+        user.setEmail("Email@Email.com");
+
+        when(mockEmailFilter.isEnabled()).thenReturn(true);
+        when(mockEmailFilter.mightContain("Email@Email.com")).thenReturn(true);
+        when(mockUserRepository.existsByNormalizedEmail("email@email.com")).thenReturn(true);
+
+        assertThrows(UserAlreadyExistsException.class, () -> userService.createUser(user));
+
+        verify(mockUserRepository, never()).save(user);
+        verifyNoInteractions(mockEmailService);
+    }
+
+    @Test
+    public void createUser_shouldSkipExistenceCheck_whenEmailFilterHasNoMatch() throws Exception {
+        User user = new User();
         user.setEmail("email@email.com");
-        user.setFirstName("first");
-        user.setLastName("last");
-        user.setCity("city");
-        user.setZipCode("zipCode");
 
-        when(mockUserRepository.findUserByEmail(user.getEmail())).thenReturn(expected);
+        when(mockEmailFilter.isEnabled()).thenReturn(true);
+        when(mockEmailFilter.mightContain("email@email.com")).thenReturn(false);
+        when(mockUserRepository.save(user)).thenReturn(user);
 
-        assertThrows(Exception.class, () -> userService.createUser(user), "User already exist");
+        userService.createUser(user);
 
-        verify(mockUserRepository).findUserByEmail(user.getEmail());
+        verify(mockUserRepository, never()).existsByNormalizedEmail(anyString());
+        verify(mockUserRepository).save(user);
+        verify(mockEmailFilter).put("email@email.com");
+    }
+
+    @Test
+    public void createUser_shouldRethrow_whenInsertViolatesOtherConstraint() {
+        User user = new User();
+        user.setEmail("email@email.com");
+
+        DataIntegrityViolationException violation = new DataIntegrityViolationException("NULL not allowed for column \"ID\"");
+        when(mockUserRepository.save(user)).thenThrow(violation);
+
+        assertThrows(DataIntegrityViolationException.class, () -> userService.createUser(user));
     }
 
     @Test
@@ -136,7 +306,6 @@ class UserServiceTest {
         user.setEnabled(false);
 
 
-        when(mockUserRepository.findUserByEmail(user.getEmail())).thenReturn(null);
         when(mockUserRepository.save(user)).thenReturn(user);
 
         userService.createUser(user);
@@ -155,7 +324,6 @@ class UserServiceTest {
         user.setEnabled(false);
 
 
-        when(mockUserRepository.findUserByEmail(user.getEmail())).thenReturn(null);
         when(mockUserRepository.save(user)).thenReturn(user);
 
         userService.createUser(user);
@@ -173,7 +341,6 @@ class UserServiceTest {
         user.setCity("city");
         user.setZipCode("zipCode");
 
-        when(mockUserRepository.findUserByEmail(user.getEmail())).thenReturn(null);
         when(mockUserRepository.save(user)).thenReturn(user);
 
         userService.createUser(user);
@@ -192,7 +359,6 @@ class UserServiceTest {
         user.setZipCode("zipCode");
         user.setEnabled(false);
 
-        when(mockUserRepository.findUserByEmail(user.getEmail())).thenReturn(null);
         when(mockUserRepository.save(user)).thenReturn(user);
 
         userService.createUser(user);
@@ -201,7 +367,7 @@ class UserServiceTest {
     }
 
     @Test
-    public void updateUserInformation_shouldUpdateUser_whenGivenZipcodeAndCity() {
+    public void updateUserInformation_shouldUpdateUser_whenGivenZipcodeAndCity() throws Exception {
         User user = new User();
         user.setId(1L);
         user.setFirstName("First");
@@ -233,7 +399,73 @@ class UserServiceTest {
     }
 
     @Test
-    public void updateUserInformation_shouldUpdateUser_whenGivenZipcode() {
+    public void updateUserInformation_shouldUpdateOnlyGivenColumnsWithoutLoading_whenUserHasVersion() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("email@test.com");
+        user.setCity("city");
+        user.setZipCode("zipCode");
+        user.setVersion(3L);
+        Map<String, String> fieldUpdate = new HashMap<String, String>();
+        fieldUpdate.put("zipCode", "12345");
+        fieldUpdate.put("city", "fakeCity");
+        when(mockUserRepository.updateColumns(1L, 3L, fieldUpdate)).thenReturn(1);
+
+        User result = userService.updateUserInformation(user, fieldUpdate);
+
+        verify(mockUserRepository, never()).save(any());
+        verify(mockUserCacheInvalidator).evict(1L);
+        assertEquals("12345", result.getZipCode());
+        assertEquals("fakeCity", result.getCity());
+        assertEquals(4L, result.getVersion());
+    }
+
+    @Test
+    public void updateUserInformation_shouldThrowOptimisticLockingFailure_whenColumnUpdateFindsOtherVersion() {
+        User user = new User();
+        user.setId(1L);
+        user.setVersion(3L);
+        Map<String, String> fieldUpdate = Map.of("city", "fakeCity");
+        when(mockUserRepository.updateColumns(1L, 3L, fieldUpdate)).thenReturn(0);
+
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> userService.updateUserInformation(user, fieldUpdate));
+
+        verify(mockUserCacheInvalidator, never()).evict(anyLong());
+    }
+
+    @Test
+    public void updateUserInformation_shouldSaveEntity_whenGivenEmail() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("email@test.com");
+        user.setVersion(3L);
+        Map<String, String> fieldUpdate = Map.of("email", "new@test.com", "city", "fakeCity");
+        when(mockUserRepository.save(user)).thenReturn(user);
+
+        userService.updateUserInformation(user, fieldUpdate);
+
+        verify(mockUserRepository).save(user);
+        verify(mockUserRepository, never()).updateColumns(any(), any(), any());
+        verify(mockEmailService).sendConfirmation("new@test.com");
+    }
+
+    @Test
+    public void updateUserInformation_shouldThrowUserAlreadyExists_whenEmailIsClaimedOnAnotherShard() {
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("email@carsaver.com");
+        Map<String, String> fieldUpdate = Map.of("email", "Taken@carsaver.com");
+        when(mockUserRepository.save(user)).thenReturn(user);
+        doThrow(new DuplicateKeyException("user_email_claim_pk")).when(mockEmailClaims).claim(user);
+
+        assertThrows(UserAlreadyExistsException.class, () -> userService.updateUserInformation(user, fieldUpdate));
+
+        verify(mockEventPublisher, never()).publishEvent(any());
+        verifyNoInteractions(mockUserNameDirectory);
+    }
+
+    @Test
+    public void updateUserInformation_shouldUpdateUser_whenGivenZipcode() throws Exception {
         User user = new User();
         user.setId(1L);
         user.setFirstName("First");
@@ -265,7 +497,7 @@ class UserServiceTest {
     }
 
     @Test
-    public void updateUserInformation_shouldUpdateUserAndSendConfirmation_whenGivenEmail() {
+    public void updateUserInformation_shouldUpdateUserAndSendConfirmation_whenGivenEmail() throws Exception {
         User user = new User();
         user.setId(1L);
         user.setFirstName("First");
@@ -296,10 +528,115 @@ class UserServiceTest {
         assertEquals(expected, user);
     }
 
+    @Test
+    public void updateUserInformation_shouldQueueCityEnrichment_whenAsyncEnrichmentEnabled() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setCity("city");
+        user.setZipCode("zipCode");
+
+        when(mockCityEnrichmentService.isEnabled()).thenReturn(true);
+        when(mockCityEnrichmentService.enqueue(1L, "12345")).thenReturn(true);
+        when(mockUserRepository.save(user)).thenReturn(user);
+
+        Map<String, String> fieldUpdate = new HashMap<String, String>();
+        fieldUpdate.put("zipCode", "12345");
+
+        User result = userService.updateUserInformation(user, fieldUpdate);
+
+        verify(mockCityEnrichmentService).enqueue(1L, "12345");
+        verifyNoInteractions(mockZipCodeLookupService);
+        assertEquals("12345", result.getZipCode());
+        assertEquals(null, result.getCity());
+    }
+
+    @Test
+    public void updateUserInformation_shouldLookupCityInline_whenEnrichmentQueueIsFull() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setCity("city");
+        user.setZipCode("zipCode");
+
+        when(mockCityEnrichmentService.isEnabled()).thenReturn(true);
+        when(mockCityEnrichmentService.enqueue(1L, "12345")).thenReturn(false);
+        when(mockZipCodeLookupService.lookupCityByZip("12345")).thenReturn("fakeCity");
+        when(mockUserRepository.save(user)).thenReturn(user);
+
+        Map<String, String> fieldUpdate = new HashMap<String, String>();
+        fieldUpdate.put("zipCode", "12345");
+
+        User result = userService.updateUserInformation(user, fieldUpdate);
+
+        verify(mockUserRepository, times(2)).save(user);
+        assertEquals("fakeCity", result.getCity());
+    }
+
+    @Test
+    public void resolveCity_shouldAddCityForZipCode_whenNoCityGiven() {
+        when(mockZipCodeLookupService.lookupCityByZip("12345")).thenReturn("fakeCity");
+
+        Map<String, String> fieldUpdate = new HashMap<String, String>();
+        fieldUpdate.put("zipCode", "12345");
+
+        assertEquals(Map.of("zipCode", "12345", "city", "fakeCity"), userService.resolveCity(fieldUpdate));
+    }
+
+    @Test
+    public void resolveCity_shouldLeaveUpdates_whenCityEnrichmentEnabled() {
+        when(mockCityEnrichmentService.isEnabled()).thenReturn(true);
+
+        Map<String, String> fieldUpdate = new HashMap<String, String>();
+        fieldUpdate.put("zipCode", "12345");
+
+        assertSame(fieldUpdate, userService.resolveCity(fieldUpdate));
+        verifyNoInteractions(mockZipCodeLookupService);
+    }
+
     @Test
     public void deleteById_shouldDeleteUser_whenCalledWithId() {
         userService.deleteById(1L);
 
         verify(mockUserRepository).deleteById(1L);
+        verify(mockUserNameDirectory).onDeleted(1L);
+    }
+
+    @Test
+    public void createUser_shouldAddUserToNameDirectory() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("email@test.com");
+        user.setEnabled(false);
+
+        when(mockUserRepository.save(user)).thenReturn(user);
+
+        userService.createUser(user);
+
+        verify(mockUserNameDirectory).onSaved(user);
+    }
+
+    @Test
+    public void getNames_shouldReturnNamesFromDirectory() {
+        Map<Long, String> expected = Map.of(1L, "First, Last");
+
+        when(mockUserNameDirectory.getNames()).thenReturn(expected);
+
+        assertEquals(expected, userService.getNames());
+        verifyNoInteractions(mockUserRepository);
+    }
+
+    @Test
+    public void isDuplicateEmail_shouldMatchTheEmailIndexByConstraintName() {
+        assertTrue(UserService.isDuplicateEmail(uniqueViolation(
+                "\"PUBLIC.USER_NORMALIZED_EMAIL_UIDX ON PUBLIC.USER(NORMALIZED_EMAIL) VALUES 2\"; SQL statement:")));
+        assertTrue(UserService.isDuplicateEmail(uniqueViolation("user_normalized_email_uidx")));
+        assertTrue(UserService.isDuplicateEmail(uniqueViolation(null)));
+        assertFalse(UserService.isDuplicateEmail(uniqueViolation("user_pkey")));
+        assertFalse(UserService.isDuplicateEmail(new DataIntegrityViolationException("could not execute statement",
+                new SQLException("Value too long for column \"ZIP_CODE\"", "22001"))));
+    }
+
+    private static DataIntegrityViolationException uniqueViolation(String constraintName) {
+        return new DataIntegrityViolationException("could not execute statement", new ConstraintViolationException(
+                "could not execute statement", new SQLException("Unique index or primary key violation", "23505"), constraintName));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package com.carsaver.codereview.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ZipCodeIndexTest {
+
+    @Test
+    void lookupCityByZip_shouldReturnCity_whenZipIsInReferenceFile() {
+        ZipCodeIndex zipCodeIndex = new ZipCodeIndex(new DefaultResourceLoader(), "classpath:zip-cities.csv");
+        zipCodeIndex.load();
+
+        assertEquals(4, zipCodeIndex.size());
+        assertEquals("Franklin", zipCodeIndex.lookupCityByZip("37067"));
+        assertEquals("Franklin", zipCodeIndex.lookupCityByZip("37064"));
+        assertEquals("Beverly Hills", zipCodeIndex.lookupCityByZip("90210-1234"));
+        assertEquals("New York", zipCodeIndex.lookupCityByZip("10001"));
+    }
+
+    @Test
+    void lookupCityByZip_shouldReturnNull_whenZipIsUnknownOrMalformed() {
+        ZipCodeIndex zipCodeIndex = new ZipCodeIndex(new DefaultResourceLoader(), "classpath:zip-cities.csv");
+        zipCodeIndex.load();
+
+        assertNull(zipCodeIndex.lookupCityByZip("99999"));
+        assertNull(zipCodeIndex.lookupCityByZip("1234"));
+        assertNull(zipCodeIndex.lookupCityByZip("abcde"));
+        assertNull(zipCodeIndex.lookupCityByZip(null));
+    }
+
+    @Test
+    void load_shouldLeaveIndexEmpty_whenNoLocationConfigured() {
+        ZipCodeIndex zipCodeIndex = new ZipCodeIndex(new DefaultResourceLoader(), "");
+        zipCodeIndex.load();
+
+        assertEquals(0, zipCodeIndex.size());
+        assertNull(zipCodeIndex.lookupCityByZip("37067"));
+    }
+
+    @Test
+    void reload_shouldFail_whenReferenceFileIsMissing() {
+        ZipCodeIndex zipCodeIndex = new ZipCodeIndex(new DefaultResourceLoader(), "classpath:missing.csv");
+
+        assertThrows(RuntimeException.class, zipCodeIndex::reload);
+    }
+
+    @Test
+    void reload_shouldFail_whenNoLocationConfigured() {
+        ZipCodeIndex zipCodeIndex = new ZipCodeIndex(new DefaultResourceLoader(), "");
+
+        assertThrows(IllegalStateException.class, zipCodeIndex::reload);
+    }
+}
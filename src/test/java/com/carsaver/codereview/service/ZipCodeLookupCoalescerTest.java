@@ -0,0 +1,103 @@
+package com.carsaver.codereview.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ZipCodeLookupCoalescerTest {
+    @Mock
+    private ZipCodeClient mockZipCodeClient;
+
+    private ZipCodeLookupCoalescer zipCodeLookupCoalescer;
+
+    @AfterEach
+    void tearDown() {
+        zipCodeLookupCoalescer.shutdown();
+    }
+
+    @Test
+    void lookupCityByZip_shouldSendOneBatch_whenRequestsArriveWithinWindow() throws Exception {
+        zipCodeLookupCoalescer = new ZipCodeLookupCoalescer(mockZipCodeClient, true, Duration.ofMillis(200), 100, 2, 10, Duration.ofSeconds(5));
+        when(mockZipCodeClient.lookupCitiesByZip(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> zipCodes = invocation.getArgument(0);
+            assertEquals(Set.of("12345", "54321"), Set.copyOf(zipCodes));
+            return Map.of("12345", "fakeCity", "54321", "otherCity");
+        });
+
+        CompletableFuture<String> first = zipCodeLookupCoalescer.lookupCityByZip("12345");
+        CompletableFuture<String> second = zipCodeLookupCoalescer.lookupCityByZip("54321");
+        CompletableFuture<String> duplicate = zipCodeLookupCoalescer.lookupCityByZip("12345");
+
+        assertEquals("fakeCity", first.get(5, TimeUnit.SECONDS));
+        assertEquals("otherCity", second.get(5, TimeUnit.SECONDS));
+        assertEquals("fakeCity", duplicate.get(5, TimeUnit.SECONDS));
+        verify(mockZipCodeClient, times(1)).lookupCitiesByZip(anyCollection());
+    }
+
+    @Test
+    void lookupCityByZip_shouldSendBatchImmediately_whenMaxBatchSizeReached() throws Exception {
+        zipCodeLookupCoalescer = new ZipCodeLookupCoalescer(mockZipCodeClient, true, Duration.ofMinutes(1), 2, 2, 10, Duration.ofSeconds(5));
+        when(mockZipCodeClient.lookupCitiesByZip(anyCollection())).thenReturn(Map.of("12345", "fakeCity"));
+
+        CompletableFuture<String> first = zipCodeLookupCoalescer.lookupCityByZip("12345");
+        CompletableFuture<String> second = zipCodeLookupCoalescer.lookupCityByZip("54321");
+
+        assertEquals("fakeCity", first.get(5, TimeUnit.SECONDS));
+        assertNull(second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void lookupCityByZip_shouldFailEveryCaller_whenBatchFails() {
+        zipCodeLookupCoalescer = new ZipCodeLookupCoalescer(mockZipCodeClient, true, Duration.ofMillis(10), 100, 2, 10, Duration.ofSeconds(5));
+        when(mockZipCodeClient.lookupCitiesByZip(anyCollection())).thenThrow(new RuntimeException("unavailable"));
+
+        CompletableFuture<String> first = zipCodeLookupCoalescer.lookupCityByZip("12345");
+        CompletableFuture<String> second = zipCodeLookupCoalescer.lookupCityByZip("54321");
+
+        assertEquals(true, first.handle((city, exception) -> exception != null).join());
+        assertEquals(true, second.handle((city, exception) -> exception != null).join());
+    }
+
+    @Test
+    void lookupCityByZip_shouldFailCallers_whenBatchBulkheadIsFull() throws Exception {
+        zipCodeLookupCoalescer = new ZipCodeLookupCoalescer(mockZipCodeClient, true, Duration.ofMinutes(1), 1, 1, 1, Duration.ofSeconds(5));
+        CountDownLatch release = new CountDownLatch(1);
+        when(mockZipCodeClient.lookupCitiesByZip(anyCollection())).thenAnswer(invocation -> {
+            release.await();
+            return Map.of();
+        });
+
+        try {
+            CompletableFuture<String> running = zipCodeLookupCoalescer.lookupCityByZip("12345");
+            CompletableFuture<String> queued = zipCodeLookupCoalescer.lookupCityByZip("23456");
+            CompletableFuture<String> rejected = zipCodeLookupCoalescer.lookupCityByZip("34567");
+
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+            assertTrue(exception.getCause() instanceof BulkheadFullException);
+            release.countDown();
+            assertNull(running.get(5, TimeUnit.SECONDS));
+            assertNull(queued.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.carsaver.codereview.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ZipCodeLookupServiceTest {
+    @Mock
+    private ZipCodeClient mockZipCodeClient;
+
+    @Mock
+    private ZipCodeLookupCoalescer mockZipCodeLookupCoalescer;
+
+    @Mock
+    private ZipCodeIndex mockZipCodeIndex;
+
+    private ZipCodeLookupService zipCodeLookupService;
+
+    @BeforeEach
+    void setUp() {
+        zipCodeLookupService = new ZipCodeLookupService(mockZipCodeClient, mockZipCodeLookupCoalescer, mockZipCodeIndex, 100, Duration.ofHours(1));
+    }
+
+    @Test
+    void lookupCityByZip_shouldOnlyCallClientOnce_whenZipWasAlreadyResolved() {
+        when(mockZipCodeClient.lookupCityByZip("12345")).thenReturn("fakeCity");
+
+        assertEquals("fakeCity", zipCodeLookupService.lookupCityByZip("12345"));
+        assertEquals("fakeCity", zipCodeLookupService.lookupCityByZip("12345"));
+
+        verify(mockZipCodeClient, times(1)).lookupCityByZip("12345");
+        assertEquals(1, zipCodeLookupService.getCacheStats().hitCount());
+        assertEquals(1, zipCodeLookupService.getCacheStats().missCount());
+    }
+
+    @Test
+    void lookupCityByZip_shouldShareOneClientCall_whenConcurrentCallersMiss() throws Exception {
+        CountDownLatch lookupStarted = new CountDownLatch(1);
+        CountDownLatch releaseLookup = new CountDownLatch(1);
+        when(mockZipCodeClient.lookupCityByZip("12345")).thenAnswer(invocation -> {
+            lookupStarted.countDown();
+            releaseLookup.await(5, TimeUnit.SECONDS);
+            return "fakeCity";
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(() -> zipCodeLookupService.lookupCityByZip("12345")));
+            lookupStarted.await(5, TimeUnit.SECONDS);
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> zipCodeLookupService.lookupCityByZip("12345")));
+            }
+            releaseLookup.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("fakeCity", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(mockZipCodeClient, times(1)).lookupCityByZip("12345");
+    }
+
+    @Test
+    void lookupCityByZip_shouldLookUpOtherZips_whileOneLookupIsInFlight() throws Exception {
+        CountDownLatch lookupStarted = new CountDownLatch(1);
+        CountDownLatch releaseLookup = new CountDownLatch(1);
+        when(mockZipCodeClient.lookupCityByZip(anyString())).thenAnswer(invocation -> "city" + invocation.getArgument(0));
+        when(mockZipCodeClient.lookupCityByZip("12345")).thenAnswer(invocation -> {
+            lookupStarted.countDown();
+            releaseLookup.await(5, TimeUnit.SECONDS);
+            return "fakeCity";
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> slow = executor.submit(() -> zipCodeLookupService.lookupCityByZip("12345"));
+            lookupStarted.await(5, TimeUnit.SECONDS);
+
+            // a lookup running inside the cache's compute would block every zip hashed next to it
+            Future<?> others = executor.submit(() -> {
+                for (int zip = 0; zip < 200; zip++) {
+                    assertEquals("city" + zip, zipCodeLookupService.lookupCityByZip(String.valueOf(zip)));
+                }
+            });
+            others.get(5, TimeUnit.SECONDS);
+            assertFalse(slow.isDone());
+
+            releaseLookup.countDown();
+            assertEquals("fakeCity", slow.get(5, TimeUnit.SECONDS));
+        } finally {
+            releaseLookup.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void lookupCitiesByZip_shouldLeaveOutZipsWithoutCity_andLookThemUpAgain() {
+        when(mockZipCodeClient.lookupCitiesByZip(List.of("12345", "54321"))).thenReturn(Map.of("12345", "fakeCity"));
+        when(mockZipCodeClient.lookupCitiesByZip(List.of("54321"))).thenReturn(Map.of());
+
+        assertEquals(Map.of("12345", "fakeCity"), zipCodeLookupService.lookupCitiesByZip(List.of("12345", "54321")));
+        assertEquals(Map.of("12345", "fakeCity"), zipCodeLookupService.lookupCitiesByZip(List.of("12345", "54321")));
+
+        verify(mockZipCodeClient).lookupCitiesByZip(List.of("54321"));
+    }
+
+    @Test
+    void lookupCityByZip_shouldCallClientAgain_whenEntryExpired() {
+        zipCodeLookupService = new ZipCodeLookupService(mockZipCodeClient, mockZipCodeLookupCoalescer, mockZipCodeIndex, 100, Duration.ZERO);
+        when(mockZipCodeClient.lookupCityByZip("12345")).thenReturn("fakeCity");
+
+        zipCodeLookupService.lookupCityByZip("12345");
+        zipCodeLookupService.lookupCityByZip("12345");
+
+        verify(mockZipCodeClient, times(2)).lookupCityByZip("12345");
+    }
+
+    @Test
+    void lookupCitiesByZip_shouldOnlySendUncachedZipsUpstream() {
+        when(mockZipCodeClient.lookupCityByZip("12345")).thenReturn("fakeCity");
+        when(mockZipCodeClient.lookupCitiesByZip(List.of("54321"))).thenReturn(Map.of("54321", "otherCity"));
+
+        zipCodeLookupService.lookupCityByZip("12345");
+        Map<String, String> result = zipCodeLookupService.lookupCitiesByZip(Arrays.asList("12345", "54321"));
+
+        assertEquals(Map.of("12345", "fakeCity", "54321", "otherCity"), result);
+        verify(mockZipCodeClient).lookupCitiesByZip(List.of("54321"));
+    }
+
+    @Test
+    void lookupCityByZip_shouldGoThroughCoalescer_whenCoalescingEnabled() {
+        when(mockZipCodeLookupCoalescer.isEnabled()).thenReturn(true);
+        when(mockZipCodeLookupCoalescer.lookupCityByZip("12345")).thenReturn(CompletableFuture.completedFuture("fakeCity"));
+
+        assertEquals("fakeCity", zipCodeLookupService.lookupCityByZip("12345"));
+
+        verifyNoInteractions(mockZipCodeClient);
+    }
+
+    @Test
+    void lookupCityByZip_shouldNotCallClient_whenLocalIndexHasZip() {
+        when(mockZipCodeIndex.lookupCityByZip("12345")).thenReturn("indexedCity");
+
+        assertEquals("indexedCity", zipCodeLookupService.lookupCityByZip("12345"));
+
+        verifyNoInteractions(mockZipCodeClient);
+    }
+
+    @Test
+    void lookupCitiesByZip_shouldOnlySendZipsMissingFromLocalIndexUpstream() {
+        when(mockZipCodeIndex.lookupCityByZip("12345")).thenReturn("indexedCity");
+        when(mockZipCodeClient.lookupCitiesByZip(List.of("54321"))).thenReturn(Map.of("54321", "otherCity"));
+
+        Map<String, String> result = zipCodeLookupService.lookupCitiesByZip(Arrays.asList("12345", "54321"));
+
+        assertEquals(Map.of("12345", "indexedCity", "54321", "otherCity"), result);
+    }
+}
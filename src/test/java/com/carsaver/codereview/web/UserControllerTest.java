@@ -1,37 +1,67 @@
 package com.carsaver.codereview.web;
 
 import com.carsaver.codereview.model.User;
+import com.carsaver.codereview.model.UserPage;
+import com.carsaver.codereview.model.UserSearchCriteria;
+import com.carsaver.codereview.service.Bulkhead;
+import com.carsaver.codereview.service.BulkheadFullException;
+import com.carsaver.codereview.service.UserAlreadyExistsException;
+import com.carsaver.codereview.service.UserBulkheads;
 import com.carsaver.codereview.service.UserService;
+import org.hibernate.exception.ConstraintViolationException;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.sql.SQLException;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static java.util.Optional.of;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(MockitoExtension.class)
 class UserControllerTest {
     @Mock
     private UserService mockUserService;
 
+    @Spy
+    private UserBulkheads bulkheads = new UserBulkheads(false, 0, 0, Duration.ofSeconds(1), 0, 0, Duration.ofSeconds(1));
+
     @InjectMocks
     private UserController userController;
 
     @Test
-    public void findAll_shouldCallFinalAllFromService() throws RuntimeException {
-        userController.findAll();
+    public void findAll_shouldCallFindPageFromService() throws RuntimeException {
+        when(mockUserService.findPage(null, null)).thenReturn(new UserPage(emptyList(), null, 100));
+
+        userController.findAll(null, null);
 
-        verify(mockUserService).findAll();
+        verify(mockUserService).findPage(null, null);
     }
 
     @Test
@@ -46,25 +76,76 @@ class UserControllerTest {
 
         List<User> expected = singletonList(user);
 
-        when(mockUserService.findAll()).thenReturn(expected);
+        when(mockUserService.findPage(null, null)).thenReturn(new UserPage(expected, null, 100));
 
-        ResponseEntity<List<User>> result = userController.findAll();
+        ResponseEntity<List<User>> result = userController.findAll(null, null);
 
         assertEquals(HttpStatus.OK, result.getStatusCode());
         assertEquals(expected, result.getBody());
+        assertNull(result.getHeaders().getFirst(HttpHeaders.LINK));
+    }
+
+    @Test
+    public void findAll_shouldReturnNextLink_whenMoreUsersExist() throws RuntimeException {
+        User user = new User();
+        user.setId(42L);
+
+        when(mockUserService.findPage(10L, 1)).thenReturn(new UserPage(singletonList(user), 42L, 1));
+
+        ResponseEntity<List<User>> result = userController.findAll(10L, 1);
+
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals("</users?afterId=42&limit=1>; rel=\"next\"", result.getHeaders().getFirst(HttpHeaders.LINK));
+    }
+
+    @Test
+    public void search_shouldReturnNextLinkKeepingFilters_whenMoreUsersMatch() {
+        User user = new User();
+        user.setId(42L);
+        UserSearchCriteria criteria = new UserSearchCriteria("San Jose", null, "Col", true);
+
+        when(mockUserService.search(criteria, null, 1)).thenReturn(new UserPage(singletonList(user), 42L, 1));
+
+        ResponseEntity<List<User>> result = userController.search("San Jose", null, "Col", true, null, 1);
+
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals("</users/search?city=San%20Jose&lastName=Col&enabled=true&afterId=42&limit=1>; rel=\"next\"",
+                result.getHeaders().getFirst(HttpHeaders.LINK));
+    }
+
+    @Test
+    public void search_shouldReturnStatusCodeBadRequest_whenNoFilterIsGiven() {
+        when(mockUserService.search(new UserSearchCriteria(null, null, null, null), null, null))
+                .thenThrow(new IllegalArgumentException("At least one filter is required"));
+
+        ResponseEntity<List<User>> result = userController.search(null, null, null, null, null, null);
+
+        assertEquals(HttpStatus.BAD_REQUEST, result.getStatusCode());
     }
 
     @Test
     public void findAll_shouldReturnStatusCodeNotFound() throws RuntimeException{
         String errorMessage = "Missing";
 
-        when(mockUserService.findAll()).thenThrow(new RuntimeException(errorMessage));
+        when(mockUserService.findPage(null, null)).thenThrow(new RuntimeException(errorMessage));
 
-        ResponseEntity<List<User>> result = userController.findAll();
+        ResponseEntity<List<User>> result = userController.findAll(null, null);
 
         assertEquals(HttpStatus.NOT_FOUND, result.getStatusCode());
     }
 
+    @Test
+    public void getNames_shouldReturnNamesFromService() {
+        Map<Long, String> expected = Map.of(1L, "First, Last");
+
+        when(mockUserService.getNames()).thenReturn(expected);
+
+        ResponseEntity<Map<Long, String>> result = userController.getNames();
+
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals(expected, result.getBody());
+    }
+
     @Test
     public void findById_shouldCallFinalByIdFromService() {
         Long id = 1L;
@@ -116,7 +197,7 @@ class UserControllerTest {
         user.setEmail(email);
 
 
-        userController.createUser(firstName, lastName, email);
+        userController.createUser(firstName, lastName, email).join();
 
         verify(mockUserService).createUser(user);
     }
@@ -134,7 +215,7 @@ class UserControllerTest {
 
         when(mockUserService.createUser(user)).thenReturn(user);
 
-        ResponseEntity<User> result = userController.createUser(firstName, lastName, email);
+        ResponseEntity<User> result = userController.createUser(firstName, lastName, email).join();
 
         assertEquals(HttpStatus.CREATED, result.getStatusCode());
         assertEquals(user, result.getBody());
@@ -155,11 +236,52 @@ class UserControllerTest {
 
         when(mockUserService.createUser(user)).thenThrow(new RuntimeException(errorMessage));
 
-        ResponseEntity<User> result = userController.createUser(firstName, lastName, email);
+        ResponseEntity<User> result = userController.createUser(firstName, lastName, email).join();
 
         assertEquals(HttpStatus.BAD_REQUEST, result.getStatusCode());
     }
 
+    @Test
+    public void createUser_shouldReturnStatusCodeConflict_whenEmailAlreadyExists() throws Exception {
+        User user = new User();
+        user.setFirstName("firstName");
+        user.setLastName("lastName");
+        user.setEmail("email@email.com");
+
+        when(mockUserService.createUser(user)).thenThrow(new UserAlreadyExistsException(user.getEmail(), null));
+
+        ResponseEntity<User> result = userController.createUser("firstName", "lastName", "email@email.com").join();
+
+        assertEquals(HttpStatus.CONFLICT, result.getStatusCode());
+    }
+
+    @Test
+    public void createUser_shouldReturnServiceUnavailable_whenBulkheadIsFull() {
+        Bulkhead fullBulkhead = mock(Bulkhead.class);
+        when(fullBulkhead.call(any())).thenReturn(CompletableFuture.failedFuture(new BulkheadFullException("user-store", null)));
+        doReturn(fullBulkhead).when(bulkheads).userStore();
+
+        ResponseEntity<User> result = userController.createUser("firstName", "lastName", "email@email.com").join();
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, result.getStatusCode());
+        assertEquals("1", result.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    public void updateUserLocation_shouldReturnGatewayTimeout_whenZipLookupTimesOut() throws Exception {
+        Bulkhead slowBulkhead = mock(Bulkhead.class);
+        when(slowBulkhead.call(any())).thenReturn(CompletableFuture.failedFuture(new TimeoutException()));
+        doReturn(slowBulkhead).when(bulkheads).zipLookup();
+
+        Map<String, String> fieldUpdate = new HashMap<String, String>();
+        fieldUpdate.put("zipCode", "12345");
+
+        ResponseEntity<User> result = userController.updateUserInformation(1L, fieldUpdate, null).join();
+
+        assertEquals(HttpStatus.GATEWAY_TIMEOUT, result.getStatusCode());
+        verify(mockUserService, never()).updateUserInformation(any(), any());
+    }
+
     @Test
     public void updateUserLocation_shouldReturnUser_whenUserExist() throws Exception {
         User user = new User();
@@ -172,8 +294,9 @@ class UserControllerTest {
 
         Map<String, String> fieldUpdate = new HashMap<String, String>();
         fieldUpdate.put("zipCode", "12345");
+        when(mockUserService.resolveCity(fieldUpdate)).thenReturn(fieldUpdate);
 
-        ResponseEntity<User> result = userController.updateUserInformation(user.getId(), fieldUpdate);
+        ResponseEntity<User> result = userController.updateUserInformation(user.getId(), fieldUpdate, null).join();
 
         verify(mockUserService).updateUserInformation(user, fieldUpdate);
         assertEquals(HttpStatus.OK, result.getStatusCode());
@@ -194,7 +317,7 @@ class UserControllerTest {
         Map<String, String> fieldUpdate = new HashMap<String, String>();
         fieldUpdate.put("zipCode", "12345");
 
-        ResponseEntity<User> result = userController.updateUserInformation(user.getId(), fieldUpdate);
+        ResponseEntity<User> result = userController.updateUserInformation(user.getId(), fieldUpdate, null).join();
 
         assertEquals(HttpStatus.BAD_REQUEST, result.getStatusCode());
         verify(mockUserService, times(0)).createUser(user);
@@ -209,4 +332,155 @@ class UserControllerTest {
         verify(mockUserService).deleteById(id);
         assertEquals(HttpStatus.NO_CONTENT, result.getStatusCode());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void findById_shouldReturnVersionAsETag() {
+        User user = new User();
+        user.setId(1L);
+        user.setVersion(3L);
+        when(mockUserService.findById(1L)).thenReturn(of(user));
+
+        ResponseEntity<User> result = userController.findById(1L);
+
+        assertEquals("\"3\"", result.getHeaders().getETag());
+    }
+
+    @Test
+    public void findById_shouldReturnNotModifiedWithoutBody_whenIfNoneMatchHasCurrentVersion() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setFirstName("firstName");
+        user.setVersion(3L);
+        when(mockUserService.findById(1L)).thenReturn(of(user));
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(userController).build();
+
+        mockMvc.perform(get("/user/1").header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3\""))
+                .andExpect(content().string(""));
+        mockMvc.perform(get("/user/1").header(HttpHeaders.IF_NONE_MATCH, "\"2\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void findAll_shouldChangeETag_whenUserOnPageChanges() {
+        User user = new User();
+        user.setId(1L);
+        user.setVersion(0L);
+        when(mockUserService.findPage(null, null)).thenReturn(new UserPage(singletonList(user), null, 100));
+
+        String before = userController.findAll(null, null).getHeaders().getETag();
+        String unchanged = userController.findAll(null, null).getHeaders().getETag();
+        user.setVersion(1L);
+        String after = userController.findAll(null, null).getHeaders().getETag();
+
+        assertEquals(before, unchanged);
+        assertNotEquals(before, after);
+    }
+
+    @Test
+    public void updateUserLocation_shouldReturnNewETag_whenIfMatchHasCurrentVersion() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setVersion(3L);
+        User updated = user.copy();
+        updated.setVersion(4L);
+        Map<String, String> fieldUpdate = Map.of("city", "Franklin");
+        when(mockUserService.findById(1L)).thenReturn(of(user));
+        when(mockUserService.resolveCity(fieldUpdate)).thenReturn(fieldUpdate);
+        when(mockUserService.updateUserInformation(user, fieldUpdate)).thenReturn(updated);
+
+        ResponseEntity<User> result = userController.updateUserInformation(1L, fieldUpdate, "\"3\"").join();
+
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals("\"4\"", result.getHeaders().getETag());
+    }
+
+    @Test
+    public void updateUserLocation_shouldReturnPreconditionFailed_whenIfMatchHasOldVersion() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setVersion(4L);
+        Map<String, String> fieldUpdate = Map.of("city", "Franklin");
+        when(mockUserService.findById(1L)).thenReturn(of(user));
+        when(mockUserService.resolveCity(fieldUpdate)).thenReturn(fieldUpdate);
+
+        ResponseEntity<User> result = userController.updateUserInformation(1L, fieldUpdate, "\"3\"").join();
+
+        assertEquals(HttpStatus.PRECONDITION_FAILED, result.getStatusCode());
+        verify(mockUserService, never()).updateUserInformation(any(), any());
+    }
+
+    @Test
+    public void updateUserLocation_shouldRetryOnCurrentUser_whenUserChangedConcurrentlyWithoutIfMatch() throws Exception {
+        User stale = new User();
+        stale.setId(1L);
+        stale.setVersion(3L);
+        User current = new User();
+        current.setId(1L);
+        current.setVersion(4L);
+        User updated = current.copy();
+        updated.setVersion(5L);
+        Map<String, String> fieldUpdate = Map.of("city", "Franklin");
+        when(mockUserService.findById(1L)).thenReturn(of(stale), of(current));
+        when(mockUserService.resolveCity(fieldUpdate)).thenReturn(fieldUpdate);
+        when(mockUserService.updateUserInformation(stale, fieldUpdate))
+                .thenThrow(new ObjectOptimisticLockingFailureException(User.class, 1L));
+        when(mockUserService.updateUserInformation(current, fieldUpdate)).thenReturn(updated);
+
+        ResponseEntity<User> result = userController.updateUserInformation(1L, fieldUpdate, null).join();
+
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals("\"5\"", result.getHeaders().getETag());
+    }
+
+    @Test
+    public void updateUserLocation_shouldReturnConflict_whenUserKeepsChangingWithoutIfMatch() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setVersion(3L);
+        Map<String, String> fieldUpdate = Map.of("city", "Franklin");
+        when(mockUserService.findById(1L)).thenReturn(of(user));
+        when(mockUserService.resolveCity(fieldUpdate)).thenReturn(fieldUpdate);
+        when(mockUserService.updateUserInformation(user, fieldUpdate))
+                .thenThrow(new ObjectOptimisticLockingFailureException(User.class, 1L));
+
+        ResponseEntity<User> result = userController.updateUserInformation(1L, fieldUpdate, null).join();
+
+        assertEquals(HttpStatus.CONFLICT, result.getStatusCode());
+        verify(mockUserService, times(2)).updateUserInformation(user, fieldUpdate);
+    }
+
+    @Test
+    public void updateUserLocation_shouldReturnConflict_onlyWhenTheEmailIsTaken() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        Map<String, String> emailUpdate = Map.of("email", "taken@carsaver.com");
+        Map<String, String> zipUpdate = Map.of("zipCode", "370640000000");
+        when(mockUserService.findById(1L)).thenReturn(of(user));
+        when(mockUserService.resolveCity(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(mockUserService.updateUserInformation(user, emailUpdate)).thenThrow(new DataIntegrityViolationException(
+                "could not execute statement", new ConstraintViolationException("could not execute statement",
+                new SQLException("Unique index or primary key violation", "23505"), "\"PUBLIC.USER_NORMALIZED_EMAIL_UIDX ON PUBLIC.USER(NORMALIZED_EMAIL) VALUES 1\"")));
+        when(mockUserService.updateUserInformation(user, zipUpdate)).thenThrow(new DataIntegrityViolationException(
+                "could not execute statement", new SQLException("Value too long for column \"ZIP_CODE VARCHAR(10)\"", "22001")));
+
+        assertEquals(HttpStatus.CONFLICT, userController.updateUserInformation(1L, emailUpdate, null).join().getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, userController.updateUserInformation(1L, zipUpdate, null).join().getStatusCode());
+    }
+
+    @Test
+    public void updateUserLocation_shouldReturnConflict_whenTheEmailIsTakenOnAnotherShard() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        Map<String, String> emailUpdate = Map.of("email", "taken@carsaver.com");
+        when(mockUserService.findById(1L)).thenReturn(of(user));
+        when(mockUserService.resolveCity(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(mockUserService.updateUserInformation(user, emailUpdate))
+                .thenThrow(new UserAlreadyExistsException("taken@carsaver.com", null));
+
+        ResponseEntity<User> result = userController.updateUserInformation(1L, emailUpdate, null).join();
+
+        assertEquals(HttpStatus.CONFLICT, result.getStatusCode());
+    }
+}
@@ -0,0 +1,48 @@
+package com.carsaver.codereview.web;
+
+import com.carsaver.codereview.service.UserExportService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.ResponseEntity;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs on a real server with an async request timeout far shorter than the export takes.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.mvc.async.request-timeout=200ms")
+class UserExportControllerTest {
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @MockBean
+    private UserExportService mockUserExportService;
+
+    @Test
+    public void exportAll_shouldNotBeCutOff_byTheAsyncRequestTimeout() throws Exception {
+        when(mockUserExportService.exportAll(any())).thenAnswer(invocation -> {
+            OutputStream outputStream = invocation.getArgument(0);
+            for (int i = 0; i < 3; i++) {
+                outputStream.write(("{\"id\":" + i + "}\n").getBytes(StandardCharsets.UTF_8));
+                outputStream.flush();
+                Thread.sleep(300);
+            }
+            return 3L;
+        });
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/users/export", String.class);
+
+        assertEquals(200, response.getStatusCodeValue());
+        assertEquals("{\"id\":0}\n{\"id\":1}\n{\"id\":2}\n", response.getBody());
+        assertEquals(UserExportController.APPLICATION_NDJSON, response.getHeaders().getContentType());
+    }
+}
@@ -0,0 +1,32 @@
+package com.carsaver.codereview.web;
+
+import com.carsaver.codereview.service.ZipCodeIndex;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ZipCodeIndexControllerTest {
+
+    @Test
+    void reload_shouldReturnSize_whenIndexIsConfigured() {
+        ZipCodeIndexController controller = new ZipCodeIndexController(
+                new ZipCodeIndex(new DefaultResourceLoader(), "classpath:zip-cities.csv"));
+
+        ResponseEntity<Map<String, Integer>> result = controller.reload();
+
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals(Map.of("size", 4), result.getBody());
+    }
+
+    @Test
+    void reload_shouldReturnNotFound_whenNoIndexIsConfigured() {
+        ZipCodeIndexController controller = new ZipCodeIndexController(new ZipCodeIndex(new DefaultResourceLoader(), ""));
+
+        assertEquals(HttpStatus.NOT_FOUND, controller.reload().getStatusCode());
+    }
+}